@@ -0,0 +1,366 @@
+package place;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The compact form a board is sent in, both in the binary protocol and in
+ * place of the board when it is serialized.
+ *
+ * Each column of the board is a single stream over every tile, chunk by
+ * chunk in chunk order.  Colors are runs of a color number and a count.
+ * Owner ids are runs too, and times are runs of the difference from the
+ * previous run's time, since neighboring tiles tend to change around the
+ * same time.  Counts and differences are variable length, so a run usually
+ * takes two or three bytes, and the whole image is deflated.  A board that
+ * is mostly white is a handful of runs.
+ *
+ * The owners and times can be left out, along with the usernames the owner
+ * ids stand for, for clients that only show colors at first and fetch the
+ * rest a chunk at a time.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+final class BoardImage implements Serializable {
+    /** Flag for an image that has owners and times */
+    private final static int METADATA = 1;
+
+    /** The deflated image */
+    private final byte[] bytes;
+
+    /**
+     * Create an image.
+     *
+     * @param bytes the deflated image
+     */
+    private BoardImage(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Make the image of a board, to be serialized in its place.
+     *
+     * @param board the board, which must not change while this runs
+     * @param metadata include the owners and times?
+     * @return the image
+     * @throws ObjectStreamException if the board can't be encoded
+     */
+    static BoardImage of(PlaceBoard board, boolean metadata) throws ObjectStreamException {
+        try {
+            return new BoardImage(encode(board, metadata));
+        } catch (IOException e) {
+            throw new InvalidObjectException("Can't encode board: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Turn the image back into a board after it is read in.
+     *
+     * @return the board
+     * @throws ObjectStreamException if the image is damaged
+     */
+    private Object readResolve() throws ObjectStreamException {
+        try {
+            return decode(this.bytes);
+        } catch (IOException e) {
+            throw new InvalidObjectException("Damaged board image: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encode a board.
+     *
+     * @param board the board, which must not change while this runs
+     * @param metadata include the owners and times?
+     * @return the deflated image
+     * @throws IOException never, the image is written to memory
+     */
+    static byte[] encode(PlaceBoard board, boolean metadata) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(bytes);
+        DataOutputStream out = new DataOutputStream(deflater);
+        int chunks = board.chunkCount();
+        out.writeInt(board.DIM);
+        out.writeLong(board.getVersion());
+        out.writeByte(metadata ? METADATA : 0);
+
+        TileStore[] stores = new TileStore[chunks];
+        long[] versions = new long[chunks];
+        for (int chunk = 0; chunk < chunks; ++chunk) {
+            PlaceChunk source = board.chunk(chunk);
+            stores[chunk] = source.getStore();
+            versions[chunk] = source.getVersion();
+        }
+        writeColors(out, stores);
+        for (long version : versions) {
+            writeVarLong(out, version);
+        }
+        if (metadata) {
+            writeMetadata(out, stores);
+            //the chunks can only use ids handed out before this
+            OwnerDictionary dictionary = board.getMetadata().getDictionary();
+            int names = dictionary.size();
+            writeVarLong(out, names);
+            for (int id = 0; id < names; ++id) {
+                out.writeUTF(dictionary.nameOf(id));
+            }
+        }
+        out.flush();
+        deflater.finish();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a board.
+     *
+     * @param image the deflated image
+     * @return the board, on the heap
+     * @throws IOException if the image is damaged
+     */
+    static PlaceBoard decode(byte[] image) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(image)))) {
+            int DIM = in.readInt();
+            long version = in.readLong();
+            boolean metadata = (in.readByte() & METADATA) != 0;
+            if (DIM < 1) {
+                throw new IOException("Bad board dimension " + DIM);
+            }
+            int perSide = (DIM + PlaceChunk.SIZE - 1) / PlaceChunk.SIZE;
+            HeapTileStore[] stores = new HeapTileStore[perSide * perSide];
+            for (int chunk = 0; chunk < stores.length; ++chunk) {
+                stores[chunk] = new HeapTileStore(PlaceChunk.TILES, PlaceColor.WHITE.getNumber());
+            }
+
+            readColors(in, stores);
+            PlaceChunk[] chunks = new PlaceChunk[stores.length];
+            for (int chunk = 0; chunk < chunks.length; ++chunk) {
+                chunks[chunk] = new PlaceChunk(PlaceBoard.chunkRow(chunk), PlaceBoard.chunkCol(chunk), stores[chunk],
+                        readVarLong(in));
+            }
+            OwnerDictionary dictionary = new OwnerDictionary();
+            if (metadata) {
+                readMetadata(in, stores);
+                long names = readVarLong(in);
+                for (long id = 0; id < names; ++id) {
+                    dictionary.intern(in.readUTF());
+                }
+            }
+            return new PlaceBoard(DIM, dictionary, chunks, version);
+        }
+    }
+
+    /**
+     * Write the colors of the tiles of some chunks, as runs.
+     *
+     * @param out where to write
+     * @param stores the tiles of the chunks, in order
+     * @throws IOException if writing fails
+     */
+    static void writeColors(DataOutput out, TileStore[] stores) throws IOException {
+        int color = -1;
+        long run = 0;
+        for (TileStore store : stores) {
+            for (int tile = 0; tile < PlaceChunk.TILES; ++tile) {
+                int next = store.getColor(tile);
+                if (next != color && run > 0) {
+                    writeVarLong(out, color);
+                    writeVarLong(out, run);
+                    run = 0;
+                }
+                color = next;
+                ++run;
+            }
+        }
+        writeVarLong(out, color);
+        writeVarLong(out, run);
+    }
+
+    /**
+     * Write the owner ids and times of the tiles of some chunks, as runs.
+     *
+     * @param out where to write
+     * @param stores the tiles of the chunks, in order
+     * @throws IOException if writing fails
+     */
+    static void writeMetadata(DataOutput out, TileStore[] stores) throws IOException {
+        int owner = -1;
+        long run = 0;
+        for (TileStore store : stores) {
+            for (int tile = 0; tile < PlaceChunk.TILES; ++tile) {
+                int next = store.getOwner(tile);
+                if (next != owner && run > 0) {
+                    writeVarLong(out, owner);
+                    writeVarLong(out, run);
+                    run = 0;
+                }
+                owner = next;
+                ++run;
+            }
+        }
+        writeVarLong(out, owner);
+        writeVarLong(out, run);
+
+        long time = -1;
+        long previous = 0;
+        run = 0;
+        for (TileStore store : stores) {
+            for (int tile = 0; tile < PlaceChunk.TILES; ++tile) {
+                long next = Integer.toUnsignedLong(store.getTime(tile));
+                if (next != time && run > 0) {
+                    writeVarLong(out, zigzag(time - previous));
+                    writeVarLong(out, run);
+                    previous = time;
+                    run = 0;
+                }
+                time = next;
+                ++run;
+            }
+        }
+        writeVarLong(out, zigzag(time - previous));
+        writeVarLong(out, run);
+    }
+
+    /**
+     * Read colors written by {@link #writeColors(DataOutput, TileStore[])}.
+     * The tiles are left with no owner or time.
+     *
+     * @param in where to read from
+     * @param stores where the tiles of the chunks go, in order
+     * @throws IOException if reading fails or the runs end too soon
+     */
+    static void readColors(DataInput in, TileStore[] stores) throws IOException {
+        Runs colors = new Runs(in);
+        for (TileStore store : stores) {
+            for (int tile = 0; tile < PlaceChunk.TILES; ++tile) {
+                store.set(tile, (int) colors.next(false) & 0xF, OwnerDictionary.NO_OWNER, 0);
+            }
+        }
+    }
+
+    /**
+     * Read owner ids and times written by
+     * {@link #writeMetadata(DataOutput, TileStore[])}, keeping the colors.
+     *
+     * @param in where to read from
+     * @param stores the tiles of the chunks, in order
+     * @throws IOException if reading fails or the runs end too soon
+     */
+    static void readMetadata(DataInput in, TileStore[] stores) throws IOException {
+        Runs owners = new Runs(in);
+        for (TileStore store : stores) {
+            for (int tile = 0; tile < PlaceChunk.TILES; ++tile) {
+                store.set(tile, store.getColor(tile), (int) owners.next(false), 0);
+            }
+        }
+        Runs times = new Runs(in);
+        for (TileStore store : stores) {
+            for (int tile = 0; tile < PlaceChunk.TILES; ++tile) {
+                store.set(tile, store.getColor(tile), store.getOwner(tile), (int) times.next(true));
+            }
+        }
+    }
+
+    /**
+     * Reads back the runs of one column.
+     */
+    private static class Runs {
+        /** Where the runs are read from */
+        private final DataInput in;
+        /** The value of the current run */
+        private long value;
+        /** The tiles left in the current run */
+        private long left;
+
+        /**
+         * Start reading runs.
+         *
+         * @param in where to read from
+         */
+        Runs(DataInput in) {
+            this.in = in;
+        }
+
+        /**
+         * Get the value of the next tile.
+         *
+         * @param delta are run values differences from the previous run's value?
+         * @return the value
+         * @throws IOException if the runs end too soon
+         */
+        long next(boolean delta) throws IOException {
+            while (this.left == 0) {
+                long read = readVarLong(this.in);
+                this.value = delta ? this.value + unzigzag(read) : read;
+                this.left = readVarLong(this.in);
+            }
+            --this.left;
+            return this.value;
+        }
+    }
+
+    /**
+     * Write a number that isn't negative in as few bytes as it needs, 7 bits
+     * to a byte, low bits first.
+     *
+     * @param out where to write
+     * @param value the number
+     * @throws IOException if writing fails
+     */
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read a number written by {@link #writeVarLong(DataOutput, long)}.
+     *
+     * @param in where to read from
+     * @return the number
+     * @throws IOException if reading fails or the number is too long
+     */
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int next = in.readUnsignedByte();
+            value |= (long) (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Number too long");
+    }
+
+    /**
+     * Map a signed number to one that isn't negative, so small differences
+     * either way stay short.
+     *
+     * @param value the number
+     * @return the mapped number
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Undo {@link #zigzag(long)}.
+     *
+     * @param value the mapped number
+     * @return the number
+     */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,184 @@
+package place;
+
+import java.io.ObjectStreamException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A board that holds the tiles of another board as they were at one moment.
+ * It is made by {@link PlaceBoard#snapshot()} without copying anything.
+ *
+ * When a chunk of the live board is about to change for the first time after
+ * the newest snapshot was taken, the live board copies it into that snapshot.
+ * Each snapshot also knows the next newer one.  To read a chunk, a snapshot
+ * looks for a copy in itself, then in each newer snapshot in turn: the first
+ * copy found is the chunk as it was when this snapshot was taken, since the
+ * chunk had not changed before then.  If there is no copy, the chunk has not
+ * changed since, and the live chunk is copied while it is locked.
+ *
+ * Older snapshots refer to newer ones and never the other way around, and the
+ * live board only refers to the newest one weakly, so a snapshot's copies
+ * are thrown away once nobody uses it.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+class BoardSnapshot extends PlaceBoard {
+    /** The board this is a snapshot of */
+    private final PlaceBoard source;
+    /** Tells this snapshot apart from the others of the same board */
+    private final long epoch;
+    /** Copies of the chunks that changed, or were read, after the snapshot */
+    private final ConcurrentHashMap<Integer, PlaceChunk> preserved;
+    /** Are the owners and times sent along with the colors? */
+    private final boolean metadata;
+    /** The next snapshot taken of the same board, or null */
+    private volatile BoardSnapshot newer;
+
+    /**
+     * Create a snapshot.  The source board must not be changing while this
+     * runs.
+     *
+     * @param source the board
+     * @param previous the newest snapshot of the board still in use, or null
+     * @param epoch a number no other snapshot of the board has had
+     * @param metadata send the owners and times along with the colors?
+     */
+    BoardSnapshot(PlaceBoard source, BoardSnapshot previous, long epoch, boolean metadata) {
+        super(source, source.getVersion());
+        this.source = source;
+        this.epoch = epoch;
+        this.metadata = metadata;
+        this.preserved = new ConcurrentHashMap<>();
+        if (previous != null) {
+            previous.newer = this;
+        }
+    }
+
+    /**
+     * Get the number that tells this snapshot apart from the others.
+     *
+     * @return the epoch
+     */
+    long getEpoch() { return this.epoch; }
+
+    /**
+     * Keep a copy of a chunk as it was before its first change after the
+     * snapshot.
+     *
+     * @param index the chunk's index
+     * @param copy the copy
+     */
+    void preserve(int index, PlaceChunk copy) {
+        this.preserved.putIfAbsent(index, copy);
+    }
+
+    /**
+     * Get a chunk as it was when the snapshot was taken.
+     *
+     * @param index the chunk's index
+     * @return the chunk, which is never changed
+     */
+    @Override
+    PlaceChunk chunk(int index) {
+        PlaceChunk copy = find(index);
+        if (copy != null) {
+            return copy;
+        }
+        PlaceChunk live = this.source.chunk(index);
+        synchronized (live) {
+            //the chunk may have changed, and been copied, since we looked
+            copy = find(index);
+            if (copy == null) {
+                copy = live.copy();
+                this.preserved.putIfAbsent(index, copy);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Look for a copy of a chunk in this snapshot or a newer one.
+     *
+     * @param index the chunk's index
+     * @return the copy, or null if the chunk hasn't changed since
+     */
+    private PlaceChunk find(int index) {
+        for (BoardSnapshot snapshot = this; snapshot != null; snapshot = snapshot.newer) {
+            PlaceChunk copy = snapshot.preserved.get(index);
+            if (copy != null) {
+                return copy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Snapshots can't be changed.
+     *
+     * @param tile the new tile
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setTile(PlaceTile tile) {
+        throw new UnsupportedOperationException("A board snapshot can't be changed");
+    }
+
+    /**
+     * Snapshots can't be changed.
+     *
+     * @param transfer the copy of the chunk
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public List<PlaceTile> importChunk(ChunkTransfer transfer) {
+        throw new UnsupportedOperationException("A board snapshot can't be changed");
+    }
+
+    /**
+     * Snapshots can't be changed.
+     *
+     * @param DIM the new square dimension
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean expand(int DIM) {
+        throw new UnsupportedOperationException("A board snapshot can't be changed");
+    }
+
+    /**
+     * A snapshot of a snapshot is the same snapshot.
+     *
+     * @return this snapshot
+     */
+    @Override
+    public PlaceBoard snapshot() {
+        return this;
+    }
+
+    /**
+     * Snapshots have nothing to write out.
+     */
+    @Override
+    public void flush() { }
+
+    /**
+     * Snapshots have nothing to release.
+     */
+    @Override
+    public void close() { }
+
+    @Override
+    boolean includesMetadata() {
+        return this.metadata;
+    }
+
+    /**
+     * A snapshot is sent as the image of its chunks.
+     *
+     * @return the image to serialize in place of this snapshot
+     * @throws ObjectStreamException if the image can't be made
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return BoardImage.of(this, this.metadata);
+    }
+}
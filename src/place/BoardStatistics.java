@@ -0,0 +1,207 @@
+package place;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics about a board that are kept up to date as each tile changes,
+ * so asking for them never means looking at the tiles: how many tiles have
+ * each color, how many tiles each user currently owns, and a leaderboard of
+ * the users who own the most tiles.
+ *
+ * The board is scanned once when the statistics are created.  After that,
+ * each change costs a couple of counter updates and, if the owner changed,
+ * two O(log n) updates to the leaderboard.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public final class BoardStatistics implements TileListener {
+    /** The board the statistics are about */
+    private final PlaceBoard board;
+    /** The number of tiles of each color, by color number */
+    private final AtomicLongArray colorCounts;
+    /** The number of changes since the statistics were created */
+    private final AtomicLong changes;
+    /** The number of tiles each owner has, by owner id */
+    private int[] ownerCounts;
+    /**
+     * The owners ordered by how many tiles they have, most first.  Each entry
+     * is the count in the high 32 bits and the complement of the owner id in
+     * the low 32 bits, so ties go to the owner who joined first.
+     */
+    private final TreeSet<Long> leaderboard;
+
+    /**
+     * Start keeping statistics about a board.  Counts every tile once and
+     * then listens for changes.
+     *
+     * @param board the board
+     */
+    public BoardStatistics(PlaceBoard board) {
+        this.board = board;
+        this.colorCounts = new AtomicLongArray(PlaceColor.TOTAL_COLORS);
+        this.changes = new AtomicLong();
+        this.ownerCounts = new int[Math.max(16, board.getMetadata().getDictionary().size())];
+        this.leaderboard = new TreeSet<>();
+
+        long[] colors = new long[PlaceColor.TOTAL_COLORS];
+        for (PlaceChunk chunk : board.getChunks()) {
+            TileStore store = chunk.getStore();
+            int rows = Math.min(PlaceChunk.SIZE, board.DIM - chunk.getRow() * PlaceChunk.SIZE);
+            int cols = Math.min(PlaceChunk.SIZE, board.DIM - chunk.getCol() * PlaceChunk.SIZE);
+            for (int row = 0; row < rows; ++row) {
+                for (int col = 0; col < cols; ++col) {
+                    int index = row * PlaceChunk.SIZE + col;
+                    ++colors[store.getColor(index)];
+                    int owner = store.getOwner(index);
+                    if (owner != OwnerDictionary.NO_OWNER) {
+                        growOwners(owner);
+                        ++this.ownerCounts[owner];
+                    }
+                }
+            }
+        }
+        for (int color = 0; color < colors.length; ++color) {
+            this.colorCounts.set(color, colors[color]);
+        }
+        for (int owner = 0; owner < this.ownerCounts.length; ++owner) {
+            if (this.ownerCounts[owner] > 0) {
+                this.leaderboard.add(entry(owner, this.ownerCounts[owner]));
+            }
+        }
+        board.addListener(this);
+    }
+
+    /**
+     * Update the statistics for a change.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @param oldColor the tile's previous color number
+     * @param oldOwner the tile's previous owner id
+     * @param newColor the tile's new color number
+     * @param newOwner the tile's new owner id
+     */
+    @Override
+    public void tileChanged(int row, int col, int oldColor, int oldOwner, int newColor, int newOwner) {
+        this.changes.incrementAndGet();
+        if (oldColor != newColor) {
+            this.colorCounts.decrementAndGet(oldColor);
+            this.colorCounts.incrementAndGet(newColor);
+        }
+        if (oldOwner != newOwner) {
+            synchronized (this) {
+                addToOwner(oldOwner, -1);
+                addToOwner(newOwner, 1);
+            }
+        }
+    }
+
+    /**
+     * Count the tiles added when the board grows, which are all white.
+     *
+     * @param oldDim the board's previous square dimension
+     * @param newDim the board's new square dimension
+     */
+    @Override
+    public void boardResized(int oldDim, int newDim) {
+        this.colorCounts.addAndGet(PlaceColor.WHITE.getNumber(), (long) newDim * newDim - (long) oldDim * oldDim);
+    }
+
+    /**
+     * Get the number of tiles of a color.
+     *
+     * @param color the color
+     * @return the number of tiles
+     */
+    public long getColorCount(PlaceColor color) {
+        return this.colorCounts.get(color.getNumber());
+    }
+
+    /**
+     * Get the number of changes made since the statistics were created.
+     *
+     * @return the number of changes
+     */
+    public long getChanges() {
+        return this.changes.get();
+    }
+
+    /**
+     * Get the number of tiles a user currently owns.
+     *
+     * @param username the user
+     * @return the number of tiles
+     */
+    public synchronized int getOwnerCount(String username) {
+        int owner = this.board.getMetadata().getDictionary().idOf(username);
+        return owner > OwnerDictionary.NO_OWNER && owner < this.ownerCounts.length ? this.ownerCounts[owner] : 0;
+    }
+
+    /**
+     * Get the users who own the most tiles.
+     *
+     * @param n the most users to include
+     * @return the usernames and their tile counts, most tiles first
+     */
+    public synchronized Map<String, Integer> getLeaderboard(int n) {
+        Map<String, Integer> leaders = new LinkedHashMap<>();
+        OwnerDictionary dictionary = this.board.getMetadata().getDictionary();
+        Iterator<Long> entries = this.leaderboard.descendingIterator();
+        while (leaders.size() < n && entries.hasNext()) {
+            long entry = entries.next();
+            leaders.put(dictionary.nameOf(~(int) entry), (int) (entry >>> 32));
+        }
+        return leaders;
+    }
+
+    /**
+     * Change how many tiles an owner has, and move them on the leaderboard.
+     * Tiles with no owner are not counted.
+     *
+     * @param owner the owner id
+     * @param delta the change in the number of tiles
+     */
+    private void addToOwner(int owner, int delta) {
+        if (owner == OwnerDictionary.NO_OWNER) {
+            return;
+        }
+        growOwners(owner);
+        int count = this.ownerCounts[owner];
+        if (count > 0) {
+            this.leaderboard.remove(entry(owner, count));
+        }
+        count += delta;
+        this.ownerCounts[owner] = count;
+        if (count > 0) {
+            this.leaderboard.add(entry(owner, count));
+        }
+    }
+
+    /**
+     * Make sure there is a count for an owner id.
+     *
+     * @param owner the owner id
+     */
+    private void growOwners(int owner) {
+        if (owner >= this.ownerCounts.length) {
+            this.ownerCounts = Arrays.copyOf(this.ownerCounts, Math.max(owner + 1, this.ownerCounts.length * 2));
+        }
+    }
+
+    /**
+     * Make a leaderboard entry.
+     *
+     * @param owner the owner id
+     * @param count the number of tiles the owner has
+     * @return the entry
+     */
+    private static long entry(int owner, int count) {
+        return ((long) count << 32) | (~owner & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,142 @@
+package place;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A hash tree over the chunks of a board, used to find out which chunks of
+ * two copies of a board differ without sending either one.  Two boards with
+ * the same number of chunks have trees of the same shape, so comparing them
+ * starts at the roots and only goes down into the nodes that differ.
+ *
+ * Only tile colors are hashed, since that is what a client shows.  Each tile
+ * contributes a mixed 64 bit value of its position in the chunk and its
+ * color, a chunk's hash is the sum of its tiles' values, and every node above
+ * is the sum of its children.  Because of that, a tile change moves every
+ * node on the way to the root by the same amount, which is an atomic add per
+ * level with no locking, rather than rehashing the chunk.
+ *
+ * The nodes are kept in one array like a binary heap: the root is node 1,
+ * the children of node n are 2n and 2n+1, and chunk i is the leaf at
+ * {@link #getLeaves()} + i.  Leaves past the last chunk are always 0.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public class ChunkHashTree {
+    /** The root node */
+    public final static int ROOT = 1;
+
+    /** The number of leaves, a power of two at least the number of chunks */
+    private final int leaves;
+    /** The nodes, starting at index 1 */
+    private final AtomicLongArray nodes;
+
+    /**
+     * Create a tree of hashes, all 0, for some number of chunks.
+     *
+     * @param chunks the number of chunks
+     */
+    public ChunkHashTree(int chunks) {
+        this.leaves = Math.max(1, Integer.highestOneBit(Math.max(1, chunks - 1)) << 1);
+        this.nodes = new AtomicLongArray(this.leaves * 2);
+    }
+
+    /**
+     * Get the number of leaves.  Leaf nodes are numbered from this up.
+     *
+     * @return the number of leaves
+     */
+    public int getLeaves() { return this.leaves; }
+
+    /**
+     * Get the number of nodes, counting the unused node 0.  Valid nodes are
+     * 1 up to but not including this.
+     *
+     * @return the number of nodes
+     */
+    public int getNodes() { return this.leaves * 2; }
+
+    /**
+     * Get the hash of a node.
+     *
+     * @param node the node
+     * @rit.pre 1 &lt;= node &lt; {@link #getNodes()}
+     * @return the hash
+     */
+    public long get(int node) {
+        return this.nodes.get(node);
+    }
+
+    /**
+     * Is a node a leaf, holding the hash of one chunk?
+     *
+     * @param node the node
+     * @return true if it is a leaf
+     */
+    public boolean isLeaf(int node) {
+        return node >= this.leaves;
+    }
+
+    /**
+     * Get the index of the chunk a leaf holds the hash of.
+     *
+     * @param node the leaf
+     * @rit.pre {@link #isLeaf(int)}
+     * @return the chunk's index
+     */
+    public int chunkOf(int node) {
+        return node - this.leaves;
+    }
+
+    /**
+     * Change the hash of a chunk by some amount, and every node above it.
+     * Safe to call from several threads at once.
+     *
+     * @param chunk the chunk's index
+     * @param delta the amount
+     */
+    void add(int chunk, long delta) {
+        for (int node = this.leaves + chunk; node >= ROOT; node >>>= 1) {
+            this.nodes.addAndGet(node, delta);
+        }
+    }
+
+    /**
+     * Set the hash of a chunk.  Nothing else may change the chunk's hash
+     * while this runs.
+     *
+     * @param chunk the chunk's index
+     * @param hash the hash
+     */
+    void set(int chunk, long hash) {
+        add(chunk, hash - this.nodes.get(this.leaves + chunk));
+    }
+
+    /**
+     * Get the value a tile adds to its chunk's hash.
+     *
+     * @param index the tile's index within the chunk
+     * @param color the tile's color number
+     * @return the value
+     */
+    static long tileHash(int index, int color) {
+        //the finalizer of SplitMix64
+        long z = (((long) index << 4) | color) + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Hash every tile of a chunk.
+     *
+     * @param store the chunk's tiles
+     * @return the chunk's hash
+     */
+    static long hashOf(TileStore store) {
+        long hash = 0;
+        for (int index = 0; index < store.size(); ++index) {
+            hash += tileHash(index, store.getColor(index));
+        }
+        return hash;
+    }
+}
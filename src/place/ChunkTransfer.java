@@ -0,0 +1,167 @@
+package place;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+/**
+ * A copy of one chunk of a board, packaged to be sent to another copy of the
+ * board.  Owner ids only mean something to the dictionary of the board they
+ * came from, so the ids in the chunk are renumbered to index the usernames
+ * sent along with it, and the receiving board interns them again.  A copy
+ * can also carry just the colors, and then leaves the owners and times of
+ * the receiving board alone.
+ *
+ * Both protocols send the chunk the way {@link #write(DataOutput)} does, as
+ * runs of tiles, so a chunk that is mostly one color takes a few bytes.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public class ChunkTransfer implements Serializable {
+    /** The chunk's index on the board */
+    private final int index;
+    /** The chunk, with owner ids that index owners */
+    private final PlaceChunk chunk;
+    /** The usernames of the chunk's owners, empty if there is no metadata */
+    private final String[] owners;
+    /** Does the copy have the owners and times of the tiles? */
+    private final boolean metadata;
+
+    /**
+     * Package a chunk.
+     *
+     * @param index the chunk's index on the board
+     * @param chunk a copy of the chunk, with owner ids that index owners
+     * @param owners the usernames of the chunk's owners, empty if there is no metadata
+     * @param metadata does the copy have the owners and times of the tiles?
+     */
+    ChunkTransfer(int index, PlaceChunk chunk, String[] owners, boolean metadata) {
+        this.index = index;
+        this.chunk = chunk;
+        this.owners = owners;
+        this.metadata = metadata;
+    }
+
+    /**
+     * Get the chunk's index on the board.
+     *
+     * @return the index
+     */
+    public int getIndex() { return this.index; }
+
+    /**
+     * Get the chunk.
+     *
+     * @return the chunk
+     */
+    PlaceChunk getChunk() { return this.chunk; }
+
+    /**
+     * Get the usernames the chunk's owner ids index.
+     *
+     * @return the usernames
+     */
+    String[] getOwners() { return this.owners; }
+
+    /**
+     * Does the copy have the owners and times of the tiles, or just the colors?
+     *
+     * @return true if it has the owners and times
+     */
+    public boolean hasMetadata() { return this.metadata; }
+
+    /**
+     * Write the transfer in binary, without Java serialization.
+     *
+     * @param out where to write
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(this.index);
+        out.writeLong(this.chunk.getVersion());
+        out.writeBoolean(this.metadata);
+        out.writeInt(this.owners.length);
+        for (String owner : this.owners) {
+            out.writeUTF(owner);
+        }
+        this.chunk.writeTiles(out, this.metadata);
+    }
+
+    /**
+     * Read a transfer written by {@link #write(DataOutput)}.
+     *
+     * @param in where to read from
+     * @return the transfer
+     * @throws IOException if reading fails or what is read isn't a chunk
+     */
+    public static ChunkTransfer read(DataInput in) throws IOException {
+        int index = in.readInt();
+        long version = in.readLong();
+        boolean metadata = in.readBoolean();
+        int count = in.readInt();
+        if (index < 0 || count < 0 || count > PlaceChunk.TILES) {
+            throw new IOException("Bad chunk " + index + " with " + count + " owners");
+        }
+        String[] owners = new String[count];
+        for (int owner = 0; owner < count; ++owner) {
+            owners[owner] = in.readUTF();
+        }
+        PlaceChunk chunk = PlaceChunk.readTiles(in, PlaceBoard.chunkRow(index), PlaceBoard.chunkCol(index), version,
+                metadata);
+        return new ChunkTransfer(index, chunk, owners, metadata);
+    }
+
+    /**
+     * A transfer is serialized as what {@link #write(DataOutput)} writes.
+     *
+     * @return the bytes to serialize in place of this transfer
+     * @throws ObjectStreamException if the transfer can't be written
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            write(new DataOutputStream(bytes));
+            return new Image(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new InvalidObjectException("Can't write chunk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * What a transfer is serialized as.
+     */
+    private static class Image implements Serializable {
+        /** The transfer, as written by {@link ChunkTransfer#write(DataOutput)} */
+        private final byte[] bytes;
+
+        /**
+         * Create the image of a transfer.
+         *
+         * @param bytes the transfer, as written
+         */
+        Image(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Turn the image back into a transfer after it is read in.
+         *
+         * @return the transfer
+         * @throws ObjectStreamException if the image is damaged
+         */
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return read(new DataInputStream(new ByteArrayInputStream(this.bytes)));
+            } catch (IOException e) {
+                throw new InvalidObjectException("Damaged chunk image: " + e.getMessage());
+            }
+        }
+    }
+}
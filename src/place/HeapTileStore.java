@@ -0,0 +1,97 @@
+package place;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * A store that keeps tiles in arrays on the heap.  Colors are packed as 4 bit
+ * color numbers, sixteen to a long, and owners and times are columns of ints.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+class HeapTileStore implements TileStore, Serializable {
+    /** Number of bits used to store one tile color */
+    private final static int BITS_PER_COLOR = 4;
+    /** Number of tile colors packed into one long */
+    private final static int COLORS_PER_WORD = Long.SIZE / BITS_PER_COLOR;
+    /** Mask for a single packed color */
+    private final static long COLOR_MASK = (1L << BITS_PER_COLOR) - 1;
+    /** Atomic access to the packed color words, since a word is shared by several tiles */
+    private final static VarHandle COLOR_WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** The packed tile colors */
+    private final long[] colors;
+    /** The owner id of each tile */
+    private final int[] owners;
+    /** The time of each tile's last change, in seconds */
+    private final int[] times;
+
+    /**
+     * Create a store where every tile has the same color and no owner.
+     *
+     * @param tiles the number of tiles
+     * @param color the color number, 0-15
+     */
+    HeapTileStore(int tiles, int color) {
+        this.colors = new long[(tiles + COLORS_PER_WORD - 1) / COLORS_PER_WORD];
+        Arrays.fill(this.colors, 0x1111111111111111L * color);
+        this.owners = new int[tiles];
+        this.times = new int[tiles];
+    }
+
+    /**
+     * Create a store that copies another.
+     *
+     * @param other the store to copy
+     */
+    private HeapTileStore(HeapTileStore other) {
+        this.colors = other.colors.clone();
+        this.owners = other.owners.clone();
+        this.times = other.times.clone();
+    }
+
+    @Override
+    public int size() { return this.owners.length; }
+
+    @Override
+    public int getColor(int index) {
+        long word = (long) COLOR_WORDS.getVolatile(this.colors, index / COLORS_PER_WORD);
+        int shift = (index % COLORS_PER_WORD) * BITS_PER_COLOR;
+        return (int) ((word >>> shift) & COLOR_MASK);
+    }
+
+    @Override
+    public int getOwner(int index) { return this.owners[index]; }
+
+    @Override
+    public int getTime(int index) { return this.times[index]; }
+
+    /**
+     * Change a tile.  Neighboring tiles share a color word, so the word is
+     * swapped in atomically rather than written over.
+     *
+     * @param index the tile's index
+     * @param color the color number, 0-15
+     * @param owner the owner id
+     * @param time the time in seconds, as an unsigned int
+     */
+    @Override
+    public void set(int index, int color, int owner, int time) {
+        this.owners[index] = owner;
+        this.times[index] = time;
+        int word = index / COLORS_PER_WORD;
+        int shift = (index % COLORS_PER_WORD) * BITS_PER_COLOR;
+        long bits = (long) color << shift;
+        long old;
+        do {
+            old = (long) COLOR_WORDS.getVolatile(this.colors, word);
+        } while (!COLOR_WORDS.compareAndSet(this.colors, word, old, (old & ~(COLOR_MASK << shift)) | bits));
+    }
+
+    @Override
+    public HeapTileStore copy() {
+        return new HeapTileStore(this);
+    }
+}
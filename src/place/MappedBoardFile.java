@@ -0,0 +1,151 @@
+package place;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A board file that is memory mapped, so a board can be larger than the heap
+ * and reopening it costs nothing but the mapping.  The operating system
+ * decides which parts of the board stay in memory.
+ *
+ * The file has a small header followed by the chunks, one after another in
+ * the order given by {@link PlaceBoard#chunkIndex(int, int)}.  The file is
+ * mapped in segments of many chunks because one mapping cannot exceed 2GB.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+class MappedBoardFile {
+    /** Marks a file as a Place board ("PLCE") */
+    private final static int MAGIC = 0x504C4345;
+    /** The layout version of the file */
+    private final static int FORMAT = 2;
+    /** Bytes reserved at the start of the file for the header */
+    private final static int HEADER_BYTES = 64;
+    /** Chunks per mapped segment */
+    private final static int CHUNKS_PER_SEGMENT = 1 << 14;
+
+    /** The open board file */
+    private final FileChannel channel;
+    /** The file's header */
+    private final MappedByteBuffer header;
+    /** The square dimension of the board in the file */
+    private int dim;
+    /** The segments mapped so far */
+    private final List<MappedByteBuffer> segments;
+
+    /**
+     * Create a board file over an open file.
+     *
+     * @param channel the file
+     * @param header the file's header
+     */
+    private MappedBoardFile(FileChannel channel, MappedByteBuffer header) {
+        this.channel = channel;
+        this.header = header;
+        this.dim = header.getInt(8);
+        this.segments = new ArrayList<>();
+    }
+
+    /**
+     * Open a board file, creating it if it is empty or does not exist.
+     *
+     * @param file the board file
+     * @param dim the square dimension to use if the file is created
+     * @return the board file
+     * @throws IOException if the file can't be read or isn't a board
+     */
+    static MappedBoardFile open(Path file, int dim) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) == 0) {
+                header.putInt(0, MAGIC);
+                header.putInt(4, FORMAT);
+                header.putInt(8, dim);
+                header.force();
+            } else if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT) {
+                throw new IOException(file + " is not a Place board");
+            }
+            return new MappedBoardFile(channel, header);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the square dimension of the board in the file.
+     *
+     * @return the dimension
+     */
+    synchronized int getDim() { return this.dim; }
+
+    /**
+     * Record a new square dimension for the board in the file.  The chunks
+     * for it must have been reserved first.
+     *
+     * @param dim the dimension
+     */
+    synchronized void setDim(int dim) {
+        this.dim = dim;
+        this.header.putInt(8, dim);
+        this.header.force();
+    }
+
+    /**
+     * Map enough of the file to hold a number of chunks.  The file grows to
+     * fit them; the new space reads as white tiles.
+     *
+     * @param chunks the number of chunks
+     * @throws IOException if the file can't be mapped
+     */
+    synchronized void reserve(int chunks) throws IOException {
+        for (int segment = 0; segment * CHUNKS_PER_SEGMENT < chunks; ++segment) {
+            int count = Math.min(CHUNKS_PER_SEGMENT, chunks - segment * CHUNKS_PER_SEGMENT);
+            long size = (long) count * MappedTileStore.CHUNK_BYTES;
+            if (segment < this.segments.size() && this.segments.get(segment).capacity() >= size) {
+                continue;
+            }
+            long start = HEADER_BYTES + (long) segment * CHUNKS_PER_SEGMENT * MappedTileStore.CHUNK_BYTES;
+            MappedByteBuffer mapped = this.channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+            if (segment < this.segments.size()) {
+                this.segments.set(segment, mapped);
+            } else {
+                this.segments.add(mapped);
+            }
+        }
+    }
+
+    /**
+     * Get the storage for a chunk.
+     *
+     * @param index the chunk's index
+     * @rit.pre the chunk has been reserved
+     * @return the chunk's tiles
+     */
+    synchronized MappedTileStore chunk(int index) {
+        MappedByteBuffer segment = this.segments.get(index / CHUNKS_PER_SEGMENT);
+        int offset = (index % CHUNKS_PER_SEGMENT) * MappedTileStore.CHUNK_BYTES;
+        return new MappedTileStore(segment.slice(offset, MappedTileStore.CHUNK_BYTES));
+    }
+
+    /**
+     * Close the file.  Chunks should be flushed first.
+     */
+    synchronized void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            System.err.println("Caught IOException");
+            e.printStackTrace();
+        }
+    }
+}
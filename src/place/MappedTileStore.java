@@ -0,0 +1,79 @@
+package place;
+
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+ * A store that keeps the tiles of one chunk in a memory mapped board file
+ * instead of on the heap.  The chunk's part of the file holds three columns:
+ * a byte of color per tile, then an int owner id per tile, then an int time
+ * per tile.  Colors are stored exclusive-or'ed with white so that a freshly
+ * created, zero filled file is an all white board without writing a tile.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+class MappedTileStore implements TileStore {
+    /** The bytes one chunk takes in the file */
+    final static int CHUNK_BYTES = PlaceChunk.TILES * (Byte.BYTES + 2 * Integer.BYTES);
+    /** Where the owner column starts */
+    private final static int OWNERS = PlaceChunk.TILES * Byte.BYTES;
+    /** Where the time column starts */
+    private final static int TIMES = OWNERS + PlaceChunk.TILES * Integer.BYTES;
+    /** The stored form of a color is the color number exclusive-or this */
+    private final static int COLOR_BIAS = PlaceColor.WHITE.getNumber();
+
+    /** The chunk's part of the mapped file */
+    private final MappedByteBuffer bytes;
+
+    /**
+     * Create a store over a chunk's part of the mapped file.
+     *
+     * @param bytes the mapped bytes, exactly {@link #CHUNK_BYTES} long
+     */
+    MappedTileStore(MappedByteBuffer bytes) {
+        this.bytes = bytes;
+        this.bytes.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public int size() { return PlaceChunk.TILES; }
+
+    @Override
+    public int getColor(int index) {
+        return this.bytes.get(index) ^ COLOR_BIAS;
+    }
+
+    @Override
+    public int getOwner(int index) {
+        return this.bytes.getInt(OWNERS + index * Integer.BYTES);
+    }
+
+    @Override
+    public int getTime(int index) {
+        return this.bytes.getInt(TIMES + index * Integer.BYTES);
+    }
+
+    @Override
+    public void set(int index, int color, int owner, int time) {
+        this.bytes.putInt(OWNERS + index * Integer.BYTES, owner);
+        this.bytes.putInt(TIMES + index * Integer.BYTES, time);
+        this.bytes.put(index, (byte) (color ^ COLOR_BIAS));
+    }
+
+    @Override
+    public HeapTileStore copy() {
+        HeapTileStore copy = new HeapTileStore(PlaceChunk.TILES, PlaceColor.WHITE.getNumber());
+        for (int index = 0; index < PlaceChunk.TILES; ++index) {
+            copy.set(index, getColor(index), getOwner(index), getTime(index));
+        }
+        return copy;
+    }
+
+    /**
+     * Write the chunk's part of the file out to disk.
+     */
+    @Override
+    public void flush() {
+        this.bytes.force();
+    }
+}
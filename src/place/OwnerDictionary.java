@@ -0,0 +1,202 @@
+package place;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A dictionary that gives each username a small integer id, so the board can
+ * store an int per tile instead of a reference to a String.  Ids are handed
+ * out in order starting at 0, which is always the empty username of a tile
+ * that has never been changed.  Lookups in either direction are safe to do
+ * while other threads add names.
+ *
+ * A dictionary can be kept in a journal file, so that the ids stored by a
+ * board file still mean the same usernames when the file is reopened.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public class OwnerDictionary implements Serializable {
+    /** The id of the empty username */
+    public final static int NO_OWNER = 0;
+
+    /** Username to id */
+    private transient ConcurrentHashMap<String, Integer> ids;
+    /** Id to username, only the first size entries are used */
+    private transient volatile String[] names;
+    /** The number of ids handed out */
+    private transient volatile int size;
+    /** Where new usernames are recorded, or null if they aren't */
+    private transient DataOutputStream journal;
+
+    /**
+     * Create a dictionary that only knows the empty username.
+     */
+    public OwnerDictionary() {
+        this.ids = new ConcurrentHashMap<>();
+        this.names = new String[16];
+        this.names[NO_OWNER] = "";
+        this.ids.put("", NO_OWNER);
+        this.size = 1;
+    }
+
+    /**
+     * Open a dictionary journal, creating it if it does not exist.  The
+     * usernames in the journal get their ids back, and usernames added later
+     * are appended to it.
+     *
+     * @param file the journal file
+     * @return the dictionary
+     * @throws IOException if the journal can't be read or opened
+     */
+    public static OwnerDictionary open(Path file) throws IOException {
+        OwnerDictionary dictionary = new OwnerDictionary();
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    dictionary.add(in.readUTF());
+                }
+            } catch (EOFException e) {
+                //reached the end of the journal
+            }
+        }
+        dictionary.journal = new DataOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+        return dictionary;
+    }
+
+    /**
+     * Get the id of a username, giving it a new id if it doesn't have one.
+     *
+     * @param name the username
+     * @return the id
+     */
+    public int intern(String name) {
+        if (name == null) {
+            return NO_OWNER;
+        }
+        Integer id = this.ids.get(name);
+        return id != null ? id : add(name);
+    }
+
+    /**
+     * Get the id of a username without adding it.
+     *
+     * @param name the username
+     * @return the id, or -1 if the username has no id
+     */
+    public int idOf(String name) {
+        Integer id = this.ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Get the username that has an id.
+     *
+     * @param id the id
+     * @rit.pre the id was handed out by this dictionary
+     * @return the username
+     */
+    public String nameOf(int id) {
+        return this.names[id];
+    }
+
+    /**
+     * Get the number of ids handed out so far.
+     *
+     * @return the number of usernames, including the empty one
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Hand out the next id.  Only one thread adds at a time; the name is
+     * stored before the id is published so readers never see a missing name.
+     *
+     * @param name the username
+     * @return the id
+     */
+    private synchronized int add(String name) {
+        Integer id = this.ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        int next = this.size;
+        if (next == this.names.length) {
+            this.names = Arrays.copyOf(this.names, next * 2);
+        }
+        this.names[next] = name;
+        this.size = next + 1;
+        this.ids.put(name, next);
+        if (this.journal != null) {
+            try {
+                this.journal.writeUTF(name);
+                this.journal.flush();
+            } catch (IOException e) {
+                System.err.println("Caught IOException");
+                e.printStackTrace();
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Close the journal, if there is one.
+     */
+    public synchronized void close() {
+        if (this.journal != null) {
+            try {
+                this.journal.close();
+            } catch (IOException e) {
+                System.err.println("Caught IOException");
+                e.printStackTrace();
+            }
+            this.journal = null;
+        }
+    }
+
+    /**
+     * Write each username once, in id order.
+     *
+     * @param out the stream
+     * @throws IOException if the stream fails
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(this.size);
+        for (int id = 0; id < this.size; ++id) {
+            out.writeUTF(this.names[id]);
+        }
+    }
+
+    /**
+     * Read the usernames back, keeping their ids.
+     *
+     * @param in the stream
+     * @throws IOException if the stream fails
+     * @throws ClassNotFoundException never
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        this.ids = new ConcurrentHashMap<>(count * 2);
+        this.names = new String[Math.max(16, count)];
+        for (int id = 0; id < count; ++id) {
+            String name = in.readUTF();
+            this.names[id] = name;
+            this.ids.put(name, id);
+        }
+        this.size = count;
+    }
+}
@@ -1,19 +1,78 @@
 package place;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * The board is the place that holds the colored tiles.  The server creates
  * the initial Board and then transmits it only once to each client that
  * successfully logs in to the server.
  *
+ * Tiles are not stored as objects.  The board is split into square
+ * {@link PlaceChunk}s, and the colors, owners and times of a chunk's tiles are
+ * numbers in a {@link TileStore}, which is either on the heap or in a memory
+ * mapped board file.  {@link #getTile(int, int)} builds a {@link PlaceTile}
+ * from the store each time it is called.
+ *
+ * Every change advances the board's version, and each chunk remembers the
+ * version of its last change, so work over the whole board can be limited to
+ * the chunks that changed since some earlier version.
+ *
+ * A consistent copy of the board can be had at any moment from
+ * {@link #snapshot()} without stopping changes: taking one is constant time,
+ * and a chunk is only copied when it is about to change while the snapshot
+ * is still in use.
+ *
+ * A board can grow while it is in use.  Growing only adds chunks, and the
+ * chunks are ordered so that the new ones go after all the old ones, so it
+ * costs time in proportion to the added area.
+ *
+ * Two copies of a board can find out which chunks they disagree on by
+ * comparing their {@link ChunkHashTree}s, and bring a chunk in line with
+ * {@link #exportChunk(int)} and {@link #importChunk(ChunkTransfer)}.
+ *
  * @author Sean Strout @ RIT CS
  */
 public class PlaceBoard implements Serializable {
-    /** The square dimension of the board */
-    public final int DIM;
-    /** The grid of tiles */
-    private PlaceTile[][] board;
+    /** The square dimension of the board, which only ever grows */
+    public volatile int DIM;
+    /** The number of chunks along each side of the board */
+    private volatile int chunksPerSide;
+    /** The chunks, in the order given by {@link #chunkIndex(int, int)} */
+    private volatile PlaceChunk[] chunks;
+    /** The version of the board, advanced by every change */
+    private final AtomicLong version;
+    /** The usernames the owner ids refer to */
+    private final OwnerDictionary dictionary;
+    /** The owner and time of each tile, or null until someone asks for them */
+    private transient volatile TileMetadata metadata;
+    /** The file the board is mapped from, or null if it is on the heap */
+    private transient MappedBoardFile file;
+    /** Told about every change to the board */
+    private transient volatile TileListener[] listeners = new TileListener[0];
+    /** Changes share this lock; taking a snapshot holds it alone for an instant */
+    private transient StampedLock snapshotLock = new StampedLock();
+    /** The newest snapshot, while anyone is still using it */
+    private transient WeakReference<BoardSnapshot> latest;
+    /** The number of snapshots taken */
+    private transient long snapshots;
+    /** The hashes of the chunks, or null until someone asks for them */
+    private transient volatile ChunkHashTree hashes;
 
     /**
      * Create a new board of all white tiles.
@@ -21,27 +80,145 @@ public class PlaceBoard implements Serializable {
      * @param DIM the square dimension of the board
      */
     public PlaceBoard(int DIM) {
+        this(DIM, new OwnerDictionary(), 0L);
+        for (int row = 0; row < this.chunksPerSide; ++row) {
+            for (int col = 0; col < this.chunksPerSide; ++col) {
+                this.chunks[chunkIndex(row, col)] = new PlaceChunk(row, col,
+                        new HeapTileStore(PlaceChunk.TILES, PlaceColor.WHITE.getNumber()), 0L);
+            }
+        }
+    }
+
+    /**
+     * Create a board whose chunks are filled in by the caller.
+     *
+     * @param DIM the square dimension of the board
+     * @param dictionary the usernames the owner ids refer to
+     * @param version the version of the board
+     */
+    private PlaceBoard(int DIM, OwnerDictionary dictionary, long version) {
         this.DIM = DIM;
-        this.board = new PlaceTile[DIM][DIM];
-        for (int row=0; row<DIM; ++row) {
-            for (int col=0; col<DIM; ++col) {
-                this.board[row][col] =
-                        new PlaceTile(row, col, "", PlaceColor.WHITE);
+        this.chunksPerSide = (DIM + PlaceChunk.SIZE - 1) / PlaceChunk.SIZE;
+        this.chunks = new PlaceChunk[this.chunksPerSide * this.chunksPerSide];
+        this.version = new AtomicLong(version);
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Create a board from chunks that belong to nobody else.
+     *
+     * @param DIM the square dimension of the board
+     * @param dictionary the usernames the owner ids refer to
+     * @param chunks the chunks, in the order given by {@link #chunkIndex(int, int)}
+     */
+    PlaceBoard(int DIM, OwnerDictionary dictionary, PlaceChunk[] chunks) {
+        this(DIM, dictionary, chunks, 0L);
+    }
+
+    /**
+     * Create a board from chunks that belong to nobody else.
+     *
+     * @param DIM the square dimension of the board
+     * @param dictionary the usernames the owner ids refer to
+     * @param chunks the chunks, in the order given by {@link #chunkIndex(int, int)}
+     * @param version the version of the board
+     */
+    PlaceBoard(int DIM, OwnerDictionary dictionary, PlaceChunk[] chunks, long version) {
+        this(DIM, dictionary, version);
+        System.arraycopy(chunks, 0, this.chunks, 0, this.chunks.length);
+    }
+
+    /**
+     * Create a view of another board that shares its chunks.  Used by
+     * snapshots, which decide for themselves what each chunk holds.
+     *
+     * @param source the board
+     * @param version the version of the view
+     */
+    PlaceBoard(PlaceBoard source, long version) {
+        this.DIM = source.DIM;
+        this.chunksPerSide = source.chunksPerSide;
+        this.chunks = source.chunks;
+        this.version = new AtomicLong(version);
+        this.dictionary = source.dictionary;
+    }
+
+    /**
+     * Open a board kept in a memory mapped file, creating a board of all
+     * white tiles if the file does not exist.  The usernames of the tile
+     * owners are kept next to it in a file with ".owners" added to the name.
+     *
+     * @param file the board file
+     * @param DIM the square dimension to use if the file is created
+     * @return the board, with the dimension stored in the file
+     * @throws PlaceException if the files can't be opened
+     */
+    public static PlaceBoard open(Path file, int DIM) throws PlaceException {
+        MappedBoardFile mapped = null;
+        try {
+            mapped = MappedBoardFile.open(file, DIM);
+            OwnerDictionary dictionary = OwnerDictionary.open(Paths.get(file + ".owners"));
+            PlaceBoard board = new PlaceBoard(mapped.getDim(), dictionary, 0L);
+            mapped.reserve(board.chunks.length);
+            for (int row = 0; row < board.chunksPerSide; ++row) {
+                for (int col = 0; col < board.chunksPerSide; ++col) {
+                    int index = chunkIndex(row, col);
+                    board.chunks[index] = new PlaceChunk(row, col, mapped.chunk(index), 0L);
+                }
+            }
+            board.file = mapped;
+            return board;
+        } catch (IOException e) {
+            if (mapped != null) {
+                mapped.close();
             }
+            throw new PlaceException("Unable to open board " + file, e);
+        }
+    }
+
+    /**
+     * Write the chunks that changed since the last flush out to the board's
+     * file.  Boards on the heap have nothing to write, but their chunks are
+     * still marked clean.
+     */
+    public void flush() {
+        for (PlaceChunk chunk : this.chunks) {
+            if (chunk.clean()) {
+                chunk.getStore().flush();
+            }
+        }
+    }
+
+    /**
+     * Write the board out to its file, if it has one, and release it.
+     */
+    public void close() {
+        flush();
+        if (this.file != null) {
+            this.file.close();
         }
+        this.dictionary.close();
     }
 
     /**
-     * Get the entire board.
+     * Get the entire board.  The tiles are created on demand, so this is
+     * expensive for large boards and changes to them do not affect the board.
      *
      * @return the board
      */
     public PlaceTile[][] getBoard() {
-        return this.board;
+        PlaceTile[][] tiles = new PlaceTile[DIM][DIM];
+        for (int row=0; row<DIM; ++row) {
+            for (int col=0; col<DIM; ++col) {
+                tiles[row][col] = getTile(row, col);
+            }
+        }
+        return tiles;
     }
 
     /**
-     * Get a tile on the board
+     * Get a tile on the board.  The tile is a copy, so changing it does not
+     * change the board; use {@link #setTile(PlaceTile)} for that.
      *
      * @param row row
      * @param col column
@@ -49,7 +226,37 @@ public class PlaceBoard implements Serializable {
      * @return the tile
      */
     public PlaceTile getTile(int row, int col){
-        return this.board[row][col];
+        TileStore store = chunkAt(row, col).getStore();
+        int index = PlaceChunk.tileIndex(row, col);
+        return new PlaceTile(row, col, this.dictionary.nameOf(store.getOwner(index)),
+                PlaceColor.fromNumber(store.getColor(index)), TileMetadata.toMillis(store.getTime(index)));
+    }
+
+    /**
+     * Get the color of a tile on the board without creating the tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the tile's color
+     */
+    public PlaceColor getColor(int row, int col) {
+        return PlaceColor.fromNumber(chunkAt(row, col).getStore().getColor(PlaceChunk.tileIndex(row, col)));
+    }
+
+    /**
+     * Get the owner and time columns of the board.
+     *
+     * @return the metadata
+     */
+    public TileMetadata getMetadata() {
+        TileMetadata columns = this.metadata;
+        if (columns == null) {
+            //made on first use rather than in the constructor, which mustn't hand out the board half built
+            columns = new TileMetadata(this, this.dictionary);
+            this.metadata = columns;
+        }
+        return columns;
     }
 
     /**
@@ -59,7 +266,388 @@ public class PlaceBoard implements Serializable {
      * @rit.pre row and column constitute a valid board coordinate
      */
     public void setTile(PlaceTile tile) {
-        this.board[tile.getRow()][tile.getCol()] = tile;
+        change(tile.getRow(), tile.getCol(), tile.getColor().getNumber(),
+                this.dictionary.intern(tile.getOwner()), TileMetadata.toSeconds(tile.getTime()));
+    }
+
+    /**
+     * Change a tile, keeping the snapshots and the hashes up to date, then
+     * tell the listeners.
+     *
+     * @param row row
+     * @param col column
+     * @param color the color number
+     * @param owner the owner id
+     * @param time the time in seconds
+     */
+    private void change(int row, int col, int color, int owner, int time) {
+        int chunk = chunkIndex(row / PlaceChunk.SIZE, col / PlaceChunk.SIZE);
+        int index = PlaceChunk.tileIndex(row, col);
+        long previous;
+        long stamp = this.snapshotLock.readLock();
+        try {
+            BoardSnapshot snapshot = this.latest != null ? this.latest.get() : null;
+            previous = chunk(chunk).set(index, color, owner, time, this.version, snapshot);
+            ChunkHashTree tree = this.hashes;
+            if (tree != null && (int) previous != color) {
+                tree.add(chunk, ChunkHashTree.tileHash(index, color) - ChunkHashTree.tileHash(index, (int) previous));
+            }
+        } finally {
+            this.snapshotLock.unlockRead(stamp);
+        }
+        for (TileListener listener : this.listeners) {
+            listener.tileChanged(row, col, (int) previous, (int) (previous >>> 32), color, owner);
+        }
+    }
+
+    /**
+     * Add a listener to be told about every change to the board, after the
+     * change is made.  Listeners are not sent along with the board.
+     *
+     * @param listener the listener
+     */
+    public synchronized void addListener(TileListener listener) {
+        TileListener[] more = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+        more[this.listeners.length] = listener;
+        this.listeners = more;
+    }
+
+    /**
+     * Get the version of the board.  It starts at 0 and goes up by one with
+     * every change, so it is also the sequence number of the last change.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * Take a snapshot of the board.  The snapshot is a board that can't be
+     * changed, holds exactly the changes up to its version, and stays that
+     * way while this board goes on changing.  Taking it is constant time and
+     * only holds up changes for that instant.
+     *
+     * @return the snapshot
+     */
+    public PlaceBoard snapshot() {
+        return snapshot(true);
+    }
+
+    /**
+     * Take a snapshot of the board, as {@link #snapshot()} does, that may
+     * leave the owners and times out when it is sent.  The snapshot itself
+     * still has them.
+     *
+     * @param metadata send the owners and times along with the colors?
+     * @return the snapshot
+     */
+    public PlaceBoard snapshot(boolean metadata) {
+        long stamp = this.snapshotLock.writeLock();
+        try {
+            BoardSnapshot previous = this.latest != null ? this.latest.get() : null;
+            BoardSnapshot snapshot = new BoardSnapshot(this, previous, ++this.snapshots, metadata);
+            this.latest = new WeakReference<>(snapshot);
+            return snapshot;
+        } finally {
+            this.snapshotLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Are the owners and times sent along with the colors when the board is
+     * serialized or written?
+     *
+     * @return true, unless this is a snapshot taken without them
+     */
+    boolean includesMetadata() {
+        return true;
+    }
+
+    /**
+     * Grow the board.  The new tiles are white and have no owner.  Changes
+     * are held up while the chunks for the new area are added, and then the
+     * listeners are told.
+     *
+     * @param DIM the new square dimension
+     * @return true if the board grew, false if it was already that big
+     * @throws PlaceException if the board's file can't be grown
+     */
+    public boolean expand(int DIM) throws PlaceException {
+        int oldDim;
+        long stamp = this.snapshotLock.writeLock();
+        try {
+            oldDim = this.DIM;
+            if (DIM <= oldDim) {
+                return false;
+            }
+            int oldPerSide = this.chunksPerSide;
+            int perSide = (DIM + PlaceChunk.SIZE - 1) / PlaceChunk.SIZE;
+            PlaceChunk[] grown = Arrays.copyOf(this.chunks, perSide * perSide);
+            if (this.file != null) {
+                try {
+                    this.file.reserve(grown.length);
+                } catch (IOException e) {
+                    throw new PlaceException("Unable to grow the board to " + DIM, e);
+                }
+            }
+            for (int row = 0; row < perSide; ++row) {
+                for (int col = row < oldPerSide ? oldPerSide : 0; col < perSide; ++col) {
+                    int index = chunkIndex(row, col);
+                    TileStore store = this.file != null ? this.file.chunk(index)
+                            : new HeapTileStore(PlaceChunk.TILES, PlaceColor.WHITE.getNumber());
+                    grown[index] = new PlaceChunk(row, col, store, 0L);
+                }
+            }
+            ChunkHashTree tree = this.hashes;
+            if (tree != null) {
+                ChunkHashTree bigger = new ChunkHashTree(grown.length);
+                long white = ChunkHashTree.hashOf(new HeapTileStore(PlaceChunk.TILES, PlaceColor.WHITE.getNumber()));
+                for (int index = 0; index < grown.length; ++index) {
+                    bigger.set(index, index < this.chunks.length ? tree.get(tree.getLeaves() + index) : white);
+                }
+                this.hashes = bigger;
+            }
+            this.chunks = grown;
+            this.chunksPerSide = perSide;
+            this.DIM = DIM;
+            if (this.file != null) {
+                this.file.setDim(DIM);
+            }
+        } finally {
+            this.snapshotLock.unlockWrite(stamp);
+        }
+        for (TileListener listener : this.listeners) {
+            listener.boardResized(oldDim, DIM);
+        }
+        return true;
+    }
+
+    /**
+     * Get the hashes of the chunks.  The first call hashes every chunk, and
+     * holds up changes while it does; after that the hashes are kept up to
+     * date as tiles change.
+     *
+     * @return the hash tree
+     */
+    public ChunkHashTree getHashes() {
+        ChunkHashTree tree = this.hashes;
+        if (tree == null) {
+            long stamp = this.snapshotLock.writeLock();
+            try {
+                tree = this.hashes;
+                if (tree == null) {
+                    tree = new ChunkHashTree(this.chunks.length);
+                    for (int index = 0; index < this.chunks.length; ++index) {
+                        tree.set(index, ChunkHashTree.hashOf(chunk(index).getStore()));
+                    }
+                    this.hashes = tree;
+                }
+            } finally {
+                this.snapshotLock.unlockWrite(stamp);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Copy a chunk so it can be sent to another copy of the board.
+     *
+     * @param index the chunk's index, the same as in {@link #getHashes()}
+     * @rit.pre 0 &lt;= index &lt; {@link #getChunksPerSide()} squared
+     * @return the copy
+     */
+    public ChunkTransfer exportChunk(int index) {
+        return exportChunk(index, true);
+    }
+
+    /**
+     * Copy a chunk so it can be sent to another copy of the board, with or
+     * without the owners and times of its tiles.
+     *
+     * @param index the chunk's index, the same as in {@link #getHashes()}
+     * @param metadata copy the owners and times?
+     * @rit.pre 0 &lt;= index &lt; {@link #getChunksPerSide()} squared
+     * @return the copy
+     */
+    public ChunkTransfer exportChunk(int index, boolean metadata) {
+        PlaceChunk copy = chunk(index).copy();
+        if (!metadata) {
+            return new ChunkTransfer(index, copy, new String[0], false);
+        }
+        TileStore store = copy.getStore();
+        Map<Integer, Integer> renumbered = new HashMap<>();
+        List<String> owners = new ArrayList<>();
+        for (int tile = 0; tile < store.size(); ++tile) {
+            int owner = store.getOwner(tile);
+            Integer local = renumbered.get(owner);
+            if (local == null) {
+                local = owners.size();
+                renumbered.put(owner, local);
+                owners.add(dictionary.nameOf(owner));
+            }
+            store.set(tile, store.getColor(tile), local, store.getTime(tile));
+        }
+        return new ChunkTransfer(index, copy, owners.toArray(new String[0]), true);
+    }
+
+    /**
+     * Make a chunk match a copy sent from another copy of the board.  Each
+     * tile that differs is changed as if by {@link #setTile(PlaceTile)}.  If
+     * the copy has just the colors, only the colors are compared, and a tile
+     * that changes keeps its owner and time.
+     *
+     * @param transfer the copy of the chunk
+     * @rit.pre the copy came from a board with the same dimension
+     * @return the tiles that changed
+     */
+    public List<PlaceTile> importChunk(ChunkTransfer transfer) {
+        PlaceChunk source = transfer.getChunk();
+        TileStore from = source.getStore();
+        TileStore to = chunk(transfer.getIndex()).getStore();
+        String[] names = transfer.getOwners();
+        int[] owners = new int[names.length];
+        for (int owner = 0; owner < names.length; ++owner) {
+            owners[owner] = this.dictionary.intern(names[owner]);
+        }
+        List<PlaceTile> changed = new ArrayList<>();
+        int rows = Math.min(PlaceChunk.SIZE, this.DIM - source.getRow() * PlaceChunk.SIZE);
+        int cols = Math.min(PlaceChunk.SIZE, this.DIM - source.getCol() * PlaceChunk.SIZE);
+        for (int row = 0; row < rows; ++row) {
+            for (int col = 0; col < cols; ++col) {
+                int index = row * PlaceChunk.SIZE + col;
+                int color = from.getColor(index);
+                int owner = transfer.hasMetadata() ? owners[from.getOwner(index)] : to.getOwner(index);
+                int time = transfer.hasMetadata() ? from.getTime(index) : to.getTime(index);
+                if (to.getColor(index) != color || to.getOwner(index) != owner || to.getTime(index) != time) {
+                    int boardRow = source.getRow() * PlaceChunk.SIZE + row;
+                    int boardCol = source.getCol() * PlaceChunk.SIZE + col;
+                    change(boardRow, boardCol, color, owner, time);
+                    changed.add(getTile(boardRow, boardCol));
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Write the board in binary, without Java serialization: the length of
+     * its image, then the image, as made by {@link BoardImage}.  What is
+     * written is a snapshot, so the board can go on changing meanwhile.
+     *
+     * @param out where to write
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutput out) throws IOException {
+        byte[] image = BoardImage.encode(snapshot(), includesMetadata());
+        out.writeInt(image.length);
+        out.write(image);
+    }
+
+    /**
+     * Read a board written by {@link #write(DataOutput)}.
+     *
+     * @param in where to read from
+     * @return the board, on the heap
+     * @throws IOException if reading fails or what is read isn't a board
+     */
+    public static PlaceBoard read(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 1) {
+            throw new IOException("Bad board image length " + length);
+        }
+        byte[] image = new byte[length];
+        in.readFully(image);
+        return BoardImage.decode(image);
+    }
+
+    /**
+     * Get the number of chunks along each side of the board.
+     *
+     * @return the number of chunks
+     */
+    public int getChunksPerSide() {
+        return this.chunksPerSide;
+    }
+
+    /**
+     * Get the chunks that hold any part of some rectangles of tiles.  The
+     * parts of the rectangles off the board are left out.
+     *
+     * @param regions four ints per rectangle: its top row, left column,
+     *                height and width, in tiles
+     * @return the indices of the chunks, in increasing order
+     */
+    public int[] chunksCovering(int[] regions) {
+        int chunks = this.chunksPerSide;
+        boolean[] covered = new boolean[chunks * chunks];
+        for (int i = 0; i + 3 < regions.length; i += 4) {
+            long top = Math.max(0, regions[i]);
+            long left = Math.max(0, regions[i + 1]);
+            long bottom = Math.min(this.DIM, (long) regions[i] + regions[i + 2]);
+            long right = Math.min(this.DIM, (long) regions[i + 1] + regions[i + 3]);
+            for (long row = top / PlaceChunk.SIZE; row * PlaceChunk.SIZE < bottom; ++row) {
+                for (long col = left / PlaceChunk.SIZE; col * PlaceChunk.SIZE < right; ++col) {
+                    covered[chunkIndex((int) row, (int) col)] = true;
+                }
+            }
+        }
+        int count = 0;
+        for (boolean chunk : covered) {
+            if (chunk) {
+                ++count;
+            }
+        }
+        int[] indices = new int[count];
+        for (int index = 0, i = 0; index < covered.length; ++index) {
+            if (covered[index]) {
+                indices[i++] = index;
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Get a chunk of the board.
+     *
+     * @param row the chunk's row, in chunks
+     * @param col the chunk's column, in chunks
+     * @rit.pre row and column are less than {@link #getChunksPerSide()}
+     * @return the chunk
+     */
+    public PlaceChunk getChunk(int row, int col) {
+        return chunk(chunkIndex(row, col));
+    }
+
+    /**
+     * Get all the chunks of the board.
+     *
+     * @return the chunks, which can't be added to or removed
+     */
+    public List<PlaceChunk> getChunks() {
+        List<PlaceChunk> all = new ArrayList<>(this.chunks.length);
+        for (int index = 0; index < this.chunks.length; ++index) {
+            all.add(chunk(index));
+        }
+        return Collections.unmodifiableList(all);
+    }
+
+    /**
+     * Get the chunks that changed after some version of the board.  This
+     * looks at each chunk once rather than at each tile.
+     *
+     * @param version an earlier version of the board
+     * @return the chunks whose last change is newer than the version
+     */
+    public List<PlaceChunk> getChunksChangedSince(long version) {
+        List<PlaceChunk> changed = new ArrayList<>();
+        for (int index = 0; index < this.chunks.length; ++index) {
+            PlaceChunk chunk = chunk(index);
+            if (chunk.getVersion() > version) {
+                changed.add(chunk);
+            }
+        }
+        return changed;
     }
 
     /**
@@ -74,6 +662,129 @@ public class PlaceBoard implements Serializable {
                 tile.getCol() < this.DIM;
     }
 
+    /**
+     * Get the number of chunks in the board.
+     *
+     * @return the number of chunks
+     */
+    int chunkCount() {
+        return this.chunks.length;
+    }
+
+    /**
+     * Get a chunk by its position in the chunk array.  Everything that reads
+     * chunks goes through here, so a snapshot can supply its own.
+     *
+     * @param index the chunk's index
+     * @return the chunk
+     */
+    PlaceChunk chunk(int index) {
+        return this.chunks[index];
+    }
+
+    /**
+     * Get the chunk that holds a tile.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @return the chunk
+     */
+    PlaceChunk chunkAt(int row, int col) {
+        return chunk(chunkIndexOf(row, col));
+    }
+
+    /**
+     * Get the position of a chunk in the chunk array, and in a board file.
+     * Chunks are ordered in square shells around the top left corner: every
+     * chunk of a board with n chunks per side comes before any chunk that a
+     * bigger board would add.
+     *
+     * @param row the chunk's row, in chunks
+     * @param col the chunk's column, in chunks
+     * @return the chunk's index
+     */
+    static int chunkIndex(int row, int col) {
+        int shell = Math.max(row, col);
+        return shell * shell + (row == shell ? col : shell + 1 + row);
+    }
+
+    /**
+     * Get the position in the chunk array of the chunk that holds a tile.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @return the chunk's index
+     */
+    public static int chunkIndexOf(int row, int col) {
+        return chunkIndex(row / PlaceChunk.SIZE, col / PlaceChunk.SIZE);
+    }
+
+    /**
+     * Get the row of the chunk at a position in the chunk array.
+     *
+     * @param index the chunk's index
+     * @return the chunk's row, in chunks
+     */
+    static int chunkRow(int index) {
+        int shell = shellOf(index);
+        int offset = index - shell * shell;
+        return offset <= shell ? shell : offset - shell - 1;
+    }
+
+    /**
+     * Get the column of the chunk at a position in the chunk array.
+     *
+     * @param index the chunk's index
+     * @return the chunk's column, in chunks
+     */
+    static int chunkCol(int index) {
+        int shell = shellOf(index);
+        int offset = index - shell * shell;
+        return offset <= shell ? offset : shell;
+    }
+
+    /**
+     * Get the shell a chunk index is in, the whole square root of the index.
+     *
+     * @param index the chunk's index
+     * @return the shell
+     */
+    private static int shellOf(int index) {
+        int shell = (int) Math.sqrt(index);
+        while (shell * shell > index) {
+            --shell;
+        }
+        while ((shell + 1) * (shell + 1) <= index) {
+            ++shell;
+        }
+        return shell;
+    }
+
+    /**
+     * A board is serialized as the image of a snapshot, so it can go on
+     * changing meanwhile, boards in a file arrive as ordinary boards, and a
+     * mostly white board takes a few bytes.
+     *
+     * @return the image to serialize in place of this board
+     * @throws ObjectStreamException if the image can't be made
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return BoardImage.of(snapshot(), includesMetadata());
+    }
+
+    /**
+     * A board that is read in starts with no listeners.
+     *
+     * @param in the stream
+     * @throws IOException if the stream fails
+     * @throws ClassNotFoundException if a class of the board is missing
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.listeners = new TileListener[0];
+        this.snapshotLock = new StampedLock();
+    }
+
     /**
      * Return a string representation of the board.  It displays the tile color as
      * a single character hex value in the range 0-F.
@@ -82,11 +793,11 @@ public class PlaceBoard implements Serializable {
      */
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder("");
+        StringBuilder builder = new StringBuilder(DIM * (DIM + 1));
         for (int row=0; row<DIM; ++row) {
             builder.append("\n");
             for (int col=0; col<DIM; ++col) {
-                builder.append(this.board[row][col].getColor());
+                builder.append(getColor(row, col));
             }
         }
         return builder.toString();
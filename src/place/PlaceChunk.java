@@ -0,0 +1,239 @@
+package place;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A square block of tiles on the board.  The board is split into chunks so
+ * that work over the whole board can skip the parts that have not changed:
+ * each chunk remembers the board version of its last change, and whether it
+ * has changed since it was last written out.
+ *
+ * Chunks along the right and bottom edges may extend past the edge of the
+ * board.  Those tiles are never changed and are not part of the board.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public class PlaceChunk implements Serializable {
+    /** The square dimension of a chunk */
+    public final static int SIZE = 64;
+    /** The number of tiles in a chunk */
+    public final static int TILES = SIZE * SIZE;
+
+    /** The chunk's row, in chunks */
+    private final int row;
+    /** The chunk's column, in chunks */
+    private final int col;
+    /** The chunk's tiles, in row major order within the chunk, which may be in a file */
+    private final transient TileStore store;
+    /** The board version of the last change to the chunk */
+    private volatile long version;
+    /** Has the chunk changed since it was last written out? */
+    private volatile boolean dirty;
+    /** The epoch of the last snapshot the chunk was copied into before changing */
+    private transient long preservedEpoch;
+
+    /**
+     * Create a chunk over existing storage.
+     *
+     * @param row the chunk's row, in chunks
+     * @param col the chunk's column, in chunks
+     * @param store the chunk's tiles
+     * @param version the board version of the last change to the chunk
+     */
+    PlaceChunk(int row, int col, TileStore store, long version) {
+        this.row = row;
+        this.col = col;
+        this.store = store;
+        this.version = version;
+        this.dirty = false;
+    }
+
+    /**
+     * Get the chunk's row, in chunks.  Its first tile row is this times
+     * {@link #SIZE}.
+     *
+     * @return the chunk row
+     */
+    public int getRow() { return this.row; }
+
+    /**
+     * Get the chunk's column, in chunks.  Its first tile column is this
+     * times {@link #SIZE}.
+     *
+     * @return the chunk column
+     */
+    public int getCol() { return this.col; }
+
+    /**
+     * Get the board version of the last change to the chunk.  It only ever
+     * increases, and is 0 if the chunk has not changed since the board was
+     * created.
+     *
+     * @return the version
+     */
+    public long getVersion() { return this.version; }
+
+    /**
+     * Has the chunk changed since it was last written out?
+     *
+     * @return true if the chunk is dirty
+     */
+    public boolean isDirty() { return this.dirty; }
+
+    /**
+     * Get the chunk's tiles.
+     *
+     * @return the store
+     */
+    TileStore getStore() { return this.store; }
+
+    /**
+     * Change a tile in the chunk and advance the board version.  The version
+     * is taken while the chunk is locked, so a chunk's version only goes up.
+     * If this is the chunk's first change since the newest snapshot was
+     * taken, the chunk is copied into the snapshot first.
+     *
+     * @param index the tile's index within the chunk
+     * @param color the color number
+     * @param owner the owner id
+     * @param time the time in seconds
+     * @param clock the board version counter
+     * @param snapshot the newest snapshot still in use, or null
+     * @return the tile's previous owner id in the high 32 bits and its
+     *      previous color number in the low 32 bits
+     */
+    synchronized long set(int index, int color, int owner, int time, AtomicLong clock, BoardSnapshot snapshot) {
+        if (snapshot != null && this.preservedEpoch != snapshot.getEpoch()) {
+            snapshot.preserve(PlaceBoard.chunkIndex(this.row, this.col), copy());
+            this.preservedEpoch = snapshot.getEpoch();
+        }
+        long previous = ((long) this.store.getOwner(index) << 32) | this.store.getColor(index);
+        this.version = clock.incrementAndGet();
+        this.store.set(index, color, owner, time);
+        this.dirty = true;
+        return previous;
+    }
+
+    /**
+     * Mark the chunk as written out.
+     *
+     * @return true if the chunk was dirty
+     */
+    synchronized boolean clean() {
+        boolean wasDirty = this.dirty;
+        this.dirty = false;
+        return wasDirty;
+    }
+
+    /**
+     * Copy the chunk onto the heap.
+     *
+     * @return a chunk with a heap copy of the tiles
+     */
+    synchronized PlaceChunk copy() {
+        return new PlaceChunk(this.row, this.col, this.store.copy(), this.version);
+    }
+
+    /**
+     * Write the chunk's tiles in binary, as runs the way {@link BoardImage}
+     * writes them: the colors, then the owner ids and times if wanted.  The
+     * chunk should not be changing.
+     *
+     * @param out where to write
+     * @param metadata write the owner ids and times?
+     * @throws IOException if writing fails
+     */
+    void writeTiles(DataOutput out, boolean metadata) throws IOException {
+        TileStore[] stores = {this.store};
+        BoardImage.writeColors(out, stores);
+        if (metadata) {
+            BoardImage.writeMetadata(out, stores);
+        }
+    }
+
+    /**
+     * Read a chunk's tiles written by {@link #writeTiles(DataOutput, boolean)}.
+     *
+     * @param in where to read from
+     * @param row the chunk's row, in chunks
+     * @param col the chunk's column, in chunks
+     * @param version the board version of the last change to the chunk
+     * @param metadata were the owner ids and times written?
+     * @return the chunk, on the heap, with no owners or times if they weren't written
+     * @throws IOException if reading fails
+     */
+    static PlaceChunk readTiles(DataInput in, int row, int col, long version, boolean metadata) throws IOException {
+        TileStore[] stores = {new HeapTileStore(TILES, PlaceColor.WHITE.getNumber())};
+        BoardImage.readColors(in, stores);
+        if (metadata) {
+            BoardImage.readMetadata(in, stores);
+        }
+        return new PlaceChunk(row, col, stores[0], version);
+    }
+
+    /**
+     * Get the index of a tile within its chunk.
+     *
+     * @param row the tile's row on the board
+     * @param col the tile's column on the board
+     * @return the index within the chunk
+     */
+    static int tileIndex(int row, int col) {
+        return (row % SIZE) * SIZE + col % SIZE;
+    }
+
+    /**
+     * A chunk is serialized as a heap copy of its tiles, since its store may
+     * be a mapped file, and arrives on the heap.
+     *
+     * @return the image to serialize in place of this chunk
+     * @throws ObjectStreamException never
+     */
+    private synchronized Object writeReplace() throws ObjectStreamException {
+        return new Image(this.row, this.col, this.version, this.store.copy());
+    }
+
+    /**
+     * What a chunk is serialized as.
+     */
+    private static class Image implements Serializable {
+        /** The chunk's row, in chunks */
+        private final int row;
+        /** The chunk's column, in chunks */
+        private final int col;
+        /** The board version of the last change to the chunk */
+        private final long version;
+        /** The chunk's tiles */
+        private final HeapTileStore tiles;
+
+        /**
+         * Create the image of a chunk.
+         *
+         * @param row the chunk's row, in chunks
+         * @param col the chunk's column, in chunks
+         * @param version the board version of the last change to the chunk
+         * @param tiles a copy of the chunk's tiles
+         */
+        Image(int row, int col, long version, HeapTileStore tiles) {
+            this.row = row;
+            this.col = col;
+            this.version = version;
+            this.tiles = tiles;
+        }
+
+        /**
+         * Turn the image back into a chunk after it is read in.
+         *
+         * @return the chunk
+         * @throws ObjectStreamException never
+         */
+        private Object readResolve() throws ObjectStreamException {
+            return new PlaceChunk(this.row, this.col, this.tiles, this.version);
+        }
+    }
+}
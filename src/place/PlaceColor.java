@@ -29,6 +29,9 @@ public enum PlaceColor implements Serializable {
     /** Yes, there are 16 colors */
     public final static int TOTAL_COLORS = 16;
 
+    /** The colors indexed by color number, so lookups don't clone values() */
+    private final static PlaceColor[] BY_NUMBER = values();
+
     /** The color name */
     private String name;
     /** Red intensity, 0-255 */
@@ -94,6 +97,15 @@ public enum PlaceColor implements Serializable {
      */
     public int getNumber() { return this.number; }
 
+    /**
+     * Get the color with the given color number, 0-15.
+     *
+     * @param number the color number
+     * @rit.pre number is in the range 0-15
+     * @return the color
+     */
+    public static PlaceColor fromNumber(int number) { return BY_NUMBER[number]; }
+
     /**
      * Returns the hex string for the color number, 0-F.
      *
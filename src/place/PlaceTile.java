@@ -21,7 +21,9 @@ public class PlaceTile implements Serializable {
     /**
      * the time the tile was changed, in milliseconds.  it is the difference,
      * measured in milliseconds, between the current time and midnight,
-     * January 1, 1970 UTC.
+     * January 1, 1970 UTC.  a board keeps times to the second, and so does
+     * the binary protocol, so a tile read from a board or received that way
+     * has its time rounded down to a whole second.
      */
     private long time;
 
@@ -78,7 +80,8 @@ public class PlaceTile implements Serializable {
     /**
      * Get the time the tile was changed.
      *
-     * @return the time
+     * @return the time in milliseconds, a whole second if the tile came
+     *      from a board or the binary protocol
      */
     public long getTime() { return this.time; }
 
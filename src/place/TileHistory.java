@@ -0,0 +1,581 @@
+package place;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An append-only history of every change made to a board.  Each change is a
+ * packed record of row, column, color, owner id and time, and records are
+ * linked to the previous record in the same chunk so the changes to part of
+ * the board can be found without reading all of them.
+ *
+ * Every {@link #KEYFRAME_INTERVAL} records a keyframe is built in the
+ * background from the previous keyframe and the records since.  A keyframe
+ * only copies the chunks that changed, so the board at any time can be
+ * rebuilt from the nearest keyframe plus at most that many records.
+ *
+ * Only the newest records are kept, at least the history's limit of them.
+ * When a keyframe is built, the records and keyframes older than the limit
+ * are dropped a keyframe interval at a time, and the oldest keyframe left
+ * is where the history starts: queries about earlier times get the board as
+ * it was then, and no changes.
+ *
+ * The history keeps each chunk as it was before its first recorded change,
+ * so it must see every change both before and after the board does: call
+ * {@link #preserve(PlaceTile)}, then {@link PlaceBoard#setTile(PlaceTile)},
+ * then {@link #record(PlaceTile)}, so a change the board turns down is never
+ * recorded.  Both are a few array writes, so they can be done on the path
+ * that applies and broadcasts changes.  Records keep times to the millisecond
+ * for about 34 years after the history starts, and owner ids below 2^24;
+ * there can be 2^31 changes in all, however many are kept.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public class TileHistory {
+    /** Records between keyframes */
+    public final static int KEYFRAME_INTERVAL = 1 << 16;
+    /** The number of records kept unless another limit is given */
+    public final static int DEFAULT_LIMIT = 1 << 22;
+    /** Records per storage segment, as a power of two */
+    private final static int SEGMENT_SHIFT = 16;
+    /** Mask for a record's position within its segment */
+    private final static int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    /** Bits of a record used for its time since the start of the history */
+    private final static int TIME_BITS = 40;
+    /** Mask for a record's time */
+    private final static long TIME_MASK = (1L << TIME_BITS) - 1;
+    /** Marks the end of a chain of records */
+    private final static int NONE = -1;
+
+    /** The board being recorded */
+    private final PlaceBoard board;
+    /** The time the history started, in milliseconds */
+    private final long epoch;
+    /** The chunks as they were before their first recorded change */
+    private PlaceChunk[] base;
+    /** The records; queries and keyframes read them without the monitor */
+    private volatile Segments segments;
+    /** The last record in each chunk */
+    private int[] heads;
+    /** The number of records; a record is complete before this counts it */
+    private volatile int count;
+    /** The oldest record kept, always where a keyframe is */
+    private volatile int first;
+    /** The fewest records kept, a multiple of the keyframe interval */
+    private final int limit;
+    /** Queries hold this to read; dropping old records holds it alone */
+    private final ReentrantReadWriteLock dropLock;
+    /** The time of the last record, so record times never go backwards */
+    private long lastTime;
+    /** The keyframes kept, oldest first */
+    private volatile Keyframe[] keyframes;
+    /** Builds keyframes away from the threads that record changes */
+    private final ExecutorService keyframer;
+
+    /**
+     * The records, in segments of {@code 1 << SEGMENT_SHIFT}.  When there is
+     * no room for another segment a bigger copy replaces the whole thing, so
+     * a thread that reads the records without the monitor never sees arrays
+     * of different sizes, or one that isn't filled in yet.
+     */
+    private static class Segments {
+        /** The row, column and color of each record, in segments */
+        final long[][] places;
+        /** The owner and time of each record, in segments */
+        final long[][] stamps;
+        /** The previous record in the same chunk as each record, in segments */
+        final int[][] links;
+
+        /**
+         * Create room for some number of segments, copying the ones there are.
+         *
+         * @param old the segments there are, or null
+         * @param size the number of segments there is room for
+         */
+        Segments(Segments old, int size) {
+            this.places = old == null ? new long[size][] : Arrays.copyOf(old.places, size);
+            this.stamps = old == null ? new long[size][] : Arrays.copyOf(old.stamps, size);
+            this.links = old == null ? new int[size][] : Arrays.copyOf(old.links, size);
+        }
+    }
+
+    /**
+     * A copy of the board as it was after some number of records.
+     */
+    private static class Keyframe {
+        /** The number of records before the keyframe */
+        final int record;
+        /** The copied chunks; null for a chunk unchanged since the history started */
+        final PlaceChunk[] chunks;
+        /** The last record in each chunk before the keyframe */
+        final int[] heads;
+
+        /**
+         * Create a keyframe.
+         *
+         * @param record the number of records before the keyframe
+         * @param chunks the copied chunks
+         * @param heads the last record in each chunk
+         */
+        Keyframe(int record, PlaceChunk[] chunks, int[] heads) {
+            this.record = record;
+            this.chunks = chunks;
+            this.heads = heads;
+        }
+    }
+
+    /**
+     * Start recording the changes to a board, keeping the default number.
+     *
+     * @param board the board
+     */
+    public TileHistory(PlaceBoard board) {
+        this(board, DEFAULT_LIMIT);
+    }
+
+    /**
+     * Start recording the changes to a board.
+     *
+     * @param board the board
+     * @param limit the fewest records to keep, rounded up to a whole number
+     *              of keyframe intervals
+     */
+    public TileHistory(PlaceBoard board, int limit) {
+        this.board = board;
+        this.limit = Math.max(1, (limit + KEYFRAME_INTERVAL - 1) / KEYFRAME_INTERVAL) * KEYFRAME_INTERVAL;
+        this.dropLock = new ReentrantReadWriteLock();
+        this.epoch = System.currentTimeMillis();
+        this.lastTime = this.epoch;
+        this.base = new PlaceChunk[board.chunkCount()];
+        this.segments = new Segments(null, 16);
+        this.heads = new int[board.chunkCount()];
+        Arrays.fill(this.heads, NONE);
+        this.count = 0;
+        this.first = 0;
+        this.keyframes = new Keyframe[] {new Keyframe(0, new PlaceChunk[0], new int[0])};
+        this.keyframer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "TileHistory");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Keep a copy of the chunk a change is about to be made to, if the
+     * history hasn't kept one since it started.
+     *
+     * @param tile the new tile
+     * @rit.pre the tile is valid for the board, and not on it yet
+     */
+    public synchronized void preserve(PlaceTile tile) {
+        int chunk = PlaceBoard.chunkIndex(tile.getRow() / PlaceChunk.SIZE, tile.getCol() / PlaceChunk.SIZE);
+        if (chunk >= this.heads.length) {
+            grow(chunk + 1);
+        }
+        if (this.base[chunk] == null) {
+            this.base[chunk] = this.board.chunk(chunk).copy();
+        }
+    }
+
+    /**
+     * Record a change that has just been made to the board.  The time of
+     * the record is the tile's time, or the time of the previous record if
+     * that is later.
+     *
+     * @param tile the new tile
+     * @rit.pre the tile was preserved before it was put on the board
+     */
+    public synchronized void record(PlaceTile tile) {
+        int record = this.count;
+        int segment = record >>> SEGMENT_SHIFT;
+        int offset = record & SEGMENT_MASK;
+        if (offset == 0) {
+            addSegment(segment);
+        }
+        int chunk = PlaceBoard.chunkIndex(tile.getRow() / PlaceChunk.SIZE, tile.getCol() / PlaceChunk.SIZE);
+        if (chunk >= this.heads.length) {
+            grow(chunk + 1);
+        }
+        this.lastTime = Math.max(this.lastTime, tile.getTime());
+        int owner = this.board.getMetadata().getDictionary().intern(tile.getOwner());
+        Segments records = this.segments;
+        records.places[segment][offset] = ((long) tile.getRow() << 36) | ((long) tile.getCol() << 8)
+                | tile.getColor().getNumber();
+        records.stamps[segment][offset] = ((long) owner << TIME_BITS) | ((this.lastTime - this.epoch) & TIME_MASK);
+        records.links[segment][offset] = this.heads[chunk];
+        this.heads[chunk] = record;
+        this.count = record + 1;
+        if (this.count % KEYFRAME_INTERVAL == 0) {
+            this.keyframer.execute(this::buildKeyframe);
+        }
+    }
+
+    /**
+     * Get the number of changes recorded.
+     *
+     * @return the number of records, including the ones dropped
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Get the time of the oldest change kept.
+     *
+     * @return the time in milliseconds, or the time the history started
+     *      if nothing has been dropped
+     */
+    public long getStart() {
+        this.dropLock.readLock().lock();
+        try {
+            int oldest = this.first;
+            return oldest == 0 ? this.epoch : time(oldest);
+        } finally {
+            this.dropLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuild the board as it was at some time.
+     *
+     * @param time the time in milliseconds
+     * @return a new board with the changes recorded up to and including the
+     *      time, or the oldest board kept if the time is before it
+     */
+    public PlaceBoard boardAt(long time) {
+        this.dropLock.readLock().lock();
+        try {
+            int end = recordsUpTo(time);
+            Keyframe keyframe = keyframeAtOrBefore(end);
+            PlaceChunk[] chunks = new PlaceChunk[this.board.chunkCount()];
+            for (int chunk = 0; chunk < chunks.length; ++chunk) {
+                PlaceChunk source = chunk < keyframe.chunks.length ? keyframe.chunks[chunk] : null;
+                chunks[chunk] = source != null ? source.copy() : baseChunk(chunk);
+            }
+            for (int record = keyframe.record; record < end; ++record) {
+                long place = place(record);
+                int chunk = PlaceBoard.chunkIndex(row(place) / PlaceChunk.SIZE, col(place) / PlaceChunk.SIZE);
+                apply(chunks[chunk].getStore(), record);
+            }
+            return new PlaceBoard(this.board.DIM, this.board.getMetadata().getDictionary(), chunks);
+        } finally {
+            this.dropLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get every recorded change to one tile.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @return the changes kept, newest first
+     */
+    public List<PlaceTile> historyOf(int row, int col) {
+        return changesIn(row, col, row, col, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get the recorded changes to a region of the board during a span of
+     * time.  Only the records of the chunks that overlap the region are read.
+     *
+     * @param top the first row of the region
+     * @param left the first column of the region
+     * @param bottom the last row of the region
+     * @param right the last column of the region
+     * @param from the start of the span in milliseconds, inclusive
+     * @param to the end of the span in milliseconds, inclusive
+     * @return the changes kept, newest first within each chunk
+     */
+    public List<PlaceTile> changesIn(int top, int left, int bottom, int right, long from, long to) {
+        this.dropLock.readLock().lock();
+        try {
+            return changesKept(top, left, bottom, right, from, to);
+        } finally {
+            this.dropLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stop building keyframes.
+     */
+    public void close() {
+        this.keyframer.shutdownNow();
+    }
+
+    /**
+     * Get the changes to a region during a span of time, as
+     * {@link #changesIn(int, int, int, int, long, long)} does, while the
+     * records can't be dropped.
+     *
+     * @param top the first row of the region
+     * @param left the first column of the region
+     * @param bottom the last row of the region
+     * @param right the last column of the region
+     * @param from the start of the span in milliseconds, inclusive
+     * @param to the end of the span in milliseconds, inclusive
+     * @return the changes, newest first within each chunk
+     */
+    private List<PlaceTile> changesKept(int top, int left, int bottom, int right, long from, long to) {
+        int end = recordsUpTo(to);
+        int oldest = this.first;
+        Keyframe after = keyframeAtOrAfter(end);
+        int[] starts = new int[this.board.chunkCount()];
+        synchronized (this) {
+            for (int chunk = 0; chunk < starts.length; ++chunk) {
+                starts[chunk] = after != null ? headAt(after.heads, chunk)
+                        : chunk < this.heads.length ? this.heads[chunk] : NONE;
+            }
+        }
+        List<PlaceTile> changes = new ArrayList<>();
+        for (int chunkRow = top / PlaceChunk.SIZE; chunkRow <= bottom / PlaceChunk.SIZE; ++chunkRow) {
+            for (int chunkCol = left / PlaceChunk.SIZE; chunkCol <= right / PlaceChunk.SIZE; ++chunkCol) {
+                int chunk = PlaceBoard.chunkIndex(chunkRow, chunkCol);
+                for (int record = chunk < starts.length ? starts[chunk] : NONE; record >= oldest;
+                        record = link(record)) {
+                    if (record >= end) {
+                        continue;
+                    }
+                    long time = time(record);
+                    if (time < from) {
+                        break;
+                    }
+                    long place = place(record);
+                    int row = row(place);
+                    int col = col(place);
+                    if (row >= top && row <= bottom && col >= left && col <= right) {
+                        changes.add(new PlaceTile(row, col, this.board.getMetadata().getDictionary().nameOf(owner(record)),
+                                PlaceColor.fromNumber((int) (place & 0xF)), time));
+                    }
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Build the next keyframe from the last one and the records since.
+     * Only chunks with a record are copied; the rest are shared.
+     */
+    private void buildKeyframe() {
+        Keyframe[] built = this.keyframes;
+        Keyframe last = built[built.length - 1];
+        int end = last.record + KEYFRAME_INTERVAL;
+        int[] heads;
+        PlaceChunk[] chunks;
+        synchronized (this) {
+            chunks = Arrays.copyOf(last.chunks, this.heads.length);
+            heads = new int[this.heads.length];
+        }
+        boolean[] copied = new boolean[chunks.length];
+        for (int record = last.record; record < end; ++record) {
+            long place = place(record);
+            int chunk = PlaceBoard.chunkIndex(row(place) / PlaceChunk.SIZE, col(place) / PlaceChunk.SIZE);
+            if (!copied[chunk]) {
+                chunks[chunk] = chunks[chunk] != null ? chunks[chunk].copy() : baseChunk(chunk);
+                copied[chunk] = true;
+            }
+            apply(chunks[chunk].getStore(), record);
+            heads[chunk] = record;
+        }
+        for (int chunk = 0; chunk < heads.length; ++chunk) {
+            if (!copied[chunk]) {
+                heads[chunk] = headAt(last.heads, chunk);
+            }
+        }
+        Keyframe[] more = Arrays.copyOf(built, built.length + 1);
+        more[built.length] = new Keyframe(end, chunks, heads);
+        this.keyframes = more;
+        if (end - this.first > this.limit) {
+            drop(end - this.limit);
+        }
+    }
+
+    /**
+     * Drop the records and keyframes before a keyframe.  Waits for the
+     * queries that are reading them.
+     *
+     * @param oldest the first record to keep, where a keyframe is
+     */
+    private void drop(int oldest) {
+        this.dropLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                for (int segment = this.first >>> SEGMENT_SHIFT; segment < oldest >>> SEGMENT_SHIFT; ++segment) {
+                    Segments records = this.segments;
+                    records.places[segment] = null;
+                    records.stamps[segment] = null;
+                    records.links[segment] = null;
+                }
+                Keyframe[] built = this.keyframes;
+                int kept = (oldest - built[0].record) / KEYFRAME_INTERVAL;
+                this.keyframes = Arrays.copyOfRange(built, kept, built.length);
+                this.first = oldest;
+            }
+        } finally {
+            this.dropLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get a copy of a chunk as it was when the history started.
+     *
+     * @param chunk the chunk's index
+     * @return the copy
+     */
+    private synchronized PlaceChunk baseChunk(int chunk) {
+        PlaceChunk original = chunk < this.base.length ? this.base[chunk] : null;
+        return original != null ? original.copy() : this.board.chunk(chunk).copy();
+    }
+
+    /**
+     * Make room for another segment of records.
+     *
+     * @param segment the segment's number
+     */
+    private void addSegment(int segment) {
+        Segments records = this.segments;
+        if (segment == records.places.length) {
+            records = new Segments(records, segment * 2);
+        }
+        records.places[segment] = new long[1 << SEGMENT_SHIFT];
+        records.stamps[segment] = new long[1 << SEGMENT_SHIFT];
+        records.links[segment] = new int[1 << SEGMENT_SHIFT];
+        this.segments = records;
+    }
+
+    /**
+     * Make room for more chunks, after the board has grown.
+     *
+     * @param chunks the number of chunks
+     */
+    private void grow(int chunks) {
+        int old = this.heads.length;
+        this.heads = Arrays.copyOf(this.heads, chunks);
+        Arrays.fill(this.heads, old, chunks, NONE);
+        this.base = Arrays.copyOf(this.base, chunks);
+    }
+
+    /**
+     * Count the records made up to and including a time.  Record times never
+     * go backwards, so this is a binary search of the records kept.
+     *
+     * @param time the time in milliseconds
+     * @return the number of records
+     */
+    private int recordsUpTo(long time) {
+        int low = this.first;
+        int high = this.count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (time(middle) <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find the newest keyframe made at or before a record.
+     *
+     * @param record the number of records
+     * @return the keyframe
+     */
+    private Keyframe keyframeAtOrBefore(int record) {
+        Keyframe[] built = this.keyframes;
+        int index = Math.min(Math.max(0, record - built[0].record) / KEYFRAME_INTERVAL, built.length - 1);
+        return built[index];
+    }
+
+    /**
+     * Find the oldest keyframe made at or after a record.
+     *
+     * @param record the number of records
+     * @return the keyframe, or null if it hasn't been built yet
+     */
+    private Keyframe keyframeAtOrAfter(int record) {
+        Keyframe[] built = this.keyframes;
+        int index = (Math.max(0, record - built[0].record) + KEYFRAME_INTERVAL - 1) / KEYFRAME_INTERVAL;
+        return index < built.length ? built[index] : null;
+    }
+
+    /**
+     * Apply a record to a chunk's tiles.
+     *
+     * @param store the chunk's tiles
+     * @param record the record
+     */
+    private void apply(TileStore store, int record) {
+        long place = place(record);
+        store.set(PlaceChunk.tileIndex(row(place), col(place)), (int) (place & 0xF),
+                owner(record), TileMetadata.toSeconds(time(record)));
+    }
+
+    /**
+     * Get the last record in a chunk from a keyframe's heads.
+     *
+     * @param heads the heads
+     * @param chunk the chunk's index
+     * @return the record
+     */
+    private static int headAt(int[] heads, int chunk) {
+        return chunk < heads.length ? heads[chunk] : NONE;
+    }
+
+    /**
+     * Get the row, column and color of a record.
+     *
+     * @param record the record
+     * @return the packed row, column and color
+     */
+    private long place(int record) { return this.segments.places[record >>> SEGMENT_SHIFT][record & SEGMENT_MASK]; }
+
+    /**
+     * Get the previous record in the same chunk as a record.
+     *
+     * @param record the record
+     * @return the previous record, or NONE, or one that has been dropped
+     */
+    private int link(int record) { return this.segments.links[record >>> SEGMENT_SHIFT][record & SEGMENT_MASK]; }
+
+    /**
+     * Get the owner id of a record.
+     *
+     * @param record the record
+     * @return the owner id
+     */
+    private int owner(int record) {
+        return (int) (this.segments.stamps[record >>> SEGMENT_SHIFT][record & SEGMENT_MASK] >>> TIME_BITS);
+    }
+
+    /**
+     * Get the time of a record.
+     *
+     * @param record the record
+     * @return the time in milliseconds
+     */
+    private long time(int record) {
+        return this.epoch + (this.segments.stamps[record >>> SEGMENT_SHIFT][record & SEGMENT_MASK] & TIME_MASK);
+    }
+
+    /**
+     * Unpack the row from a record's place.
+     *
+     * @param place the packed row, column and color
+     * @return the row
+     */
+    private static int row(long place) { return (int) (place >>> 36); }
+
+    /**
+     * Unpack the column from a record's place.
+     *
+     * @param place the packed row, column and color
+     * @return the column
+     */
+    private static int col(long place) { return (int) ((place >>> 8) & 0xFFFFFFF); }
+}
@@ -0,0 +1,30 @@
+package place;
+
+/**
+ * Something that wants to know about each change made to a board.  It is
+ * told on the thread that made the change, so it should be quick.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public interface TileListener {
+    /**
+     * Called after a tile on the board changes.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @param oldColor the tile's previous color number
+     * @param oldOwner the tile's previous owner id
+     * @param newColor the tile's new color number
+     * @param newOwner the tile's new owner id
+     */
+    void tileChanged(int row, int col, int oldColor, int oldOwner, int newColor, int newOwner);
+
+    /**
+     * Called after the board grows.  The new tiles are white and have no
+     * owner.
+     *
+     * @param oldDim the board's previous square dimension
+     * @param newDim the board's new square dimension
+     */
+    default void boardResized(int oldDim, int newDim) { }
+}
@@ -0,0 +1,117 @@
+package place;
+
+import java.io.Serializable;
+
+/**
+ * The owner and change time of every tile on a board, stored as columns of
+ * ints rather than as fields of tile objects.  Owners are ids from an
+ * {@link OwnerDictionary}, and times are whole seconds since midnight,
+ * January 1, 1970 UTC, read back as an unsigned int.  A tile that has never
+ * been changed has owner id {@link OwnerDictionary#NO_OWNER} and time 0.
+ * The columns themselves live in the {@link TileStore} of each chunk.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public class TileMetadata implements Serializable {
+    /** The usernames the owner ids refer to */
+    private final OwnerDictionary dictionary;
+    /** The board whose chunks hold the owner and time columns */
+    private final PlaceBoard board;
+
+    /**
+     * Create the metadata for the tiles of a board.
+     *
+     * @param board the board
+     * @param dictionary the dictionary for owner ids
+     */
+    TileMetadata(PlaceBoard board, OwnerDictionary dictionary) {
+        this.board = board;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Get the dictionary for owner ids.
+     *
+     * @return the dictionary
+     */
+    public OwnerDictionary getDictionary() { return this.dictionary; }
+
+    /**
+     * Get the owner id of a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the owner id
+     */
+    public int getOwnerId(int row, int col) {
+        return this.board.chunkAt(row, col).getStore().getOwner(PlaceChunk.tileIndex(row, col));
+    }
+
+    /**
+     * Get the username of a tile's owner.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the username, empty if the tile has never been changed
+     */
+    public String getOwner(int row, int col) { return this.dictionary.nameOf(getOwnerId(row, col)); }
+
+    /**
+     * Get the time of a tile's last change.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the time in milliseconds, truncated to the second
+     */
+    public long getTime(int row, int col) {
+        return toMillis(this.board.chunkAt(row, col).getStore().getTime(PlaceChunk.tileIndex(row, col)));
+    }
+
+    /**
+     * Count the tiles that belong to an owner.  This walks the owner column
+     * of each chunk only, so it is a tight scan over ints.
+     *
+     * @param ownerId the owner id
+     * @return the number of tiles with that owner
+     */
+    public int countOwnedBy(int ownerId) {
+        int count = 0;
+        int dim = this.board.DIM;
+        for (PlaceChunk chunk : this.board.getChunks()) {
+            TileStore store = chunk.getStore();
+            int rows = Math.min(PlaceChunk.SIZE, dim - chunk.getRow() * PlaceChunk.SIZE);
+            int cols = Math.min(PlaceChunk.SIZE, dim - chunk.getCol() * PlaceChunk.SIZE);
+            for (int row = 0; row < rows; ++row) {
+                for (int col = 0; col < cols; ++col) {
+                    if (store.getOwner(row * PlaceChunk.SIZE + col) == ownerId) {
+                        ++count;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Convert a time in milliseconds to the stored seconds.
+     *
+     * @param millis the time in milliseconds
+     * @return the time in seconds, as an unsigned int
+     */
+    public static int toSeconds(long millis) {
+        return (int) (millis / 1000);
+    }
+
+    /**
+     * Convert a stored time in seconds back to milliseconds.
+     *
+     * @param seconds the time in seconds, as an unsigned int
+     * @return the time in milliseconds
+     */
+    public static long toMillis(int seconds) {
+        return Integer.toUnsignedLong(seconds) * 1000;
+    }
+}
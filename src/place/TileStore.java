@@ -0,0 +1,65 @@
+package place;
+
+/**
+ * The storage behind a board.  Tiles are addressed by index, and each one has
+ * a color number, an owner id and a time in seconds.  A store only keeps
+ * numbers; turning them into colors, usernames and tiles is up to the board.
+ * Different tiles may be changed by different threads at the same time.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+interface TileStore {
+    /**
+     * Get the number of tiles in the store.
+     *
+     * @return the number of tiles
+     */
+    int size();
+
+    /**
+     * Get the color number of a tile.
+     *
+     * @param index the tile's index
+     * @return the color number, 0-15
+     */
+    int getColor(int index);
+
+    /**
+     * Get the owner id of a tile.
+     *
+     * @param index the tile's index
+     * @return the owner id
+     */
+    int getOwner(int index);
+
+    /**
+     * Get the time of a tile's last change.
+     *
+     * @param index the tile's index
+     * @return the time in seconds, as an unsigned int
+     */
+    int getTime(int index);
+
+    /**
+     * Change a tile.
+     *
+     * @param index the tile's index
+     * @param color the color number, 0-15
+     * @param owner the owner id
+     * @param time the time in seconds, as an unsigned int
+     */
+    void set(int index, int color, int owner, int time);
+
+    /**
+     * Copy the store onto the heap.
+     *
+     * @return a heap store with the same tiles
+     */
+    HeapTileStore copy();
+
+    /**
+     * Write any changes out to the storage medium.  Stores on the heap have
+     * nothing to do.
+     */
+    default void flush() { }
+}
@@ -18,6 +18,8 @@ import place.PlaceColor;
 import place.PlaceTile;
 import place.client.model.PlaceModel;
 import place.client.ptui.NetworkClient;
+import place.network.ChangeReply;
+import place.network.LoginInfo;
 
 import java.util.List;
 import java.util.Observable;
@@ -37,6 +39,7 @@ public class PlaceGUI extends Application implements Observer {
     private Label label = new Label();
     private int colorNum;
     private Button[][] buttonGrid;
+    private GridPane gridPane;
 
     /**
      * init
@@ -50,9 +53,13 @@ public class PlaceGUI extends Application implements Observer {
         String hostname = args.get(0);
         int portNumber = Integer.parseInt(args.get(1));
         username = args.get(2);
+        String room = args.size() > 3 ? args.get(3) : null;
 
         localModel = new PlaceModel();
-        connection = new NetworkClient(hostname, portNumber, username, localModel);
+        //the board arrives a chunk at a time from the top left, so the window can be shown before it is all here, and
+        //the owners and times of tiles are only fetched when a tooltip first shows them
+        LoginInfo login = LoginInfo.joining(username, room, false).viewing(0, 0);
+        connection = new NetworkClient(hostname, portNumber, login, localModel);
         localModel.addObserver(this);
     }
 
@@ -63,7 +70,7 @@ public class PlaceGUI extends Application implements Observer {
      */
     public void start(Stage mainStage) {
         //initialize empty panes
-        GridPane gridPane = new GridPane();
+        gridPane = new GridPane();
         BorderPane borderPane = new BorderPane();
         VBox colorPanel = new VBox();
 
@@ -74,29 +81,7 @@ public class PlaceGUI extends Application implements Observer {
         //build the blank starting grid of buttons
         for (int row = 0; row < DIM; row++) {
             for (int col = 0; col < DIM; col++) {
-                //make a new button and set its size
-                Button button = new Button("");
-                button.setPadding(Insets.EMPTY);
-                button.setMinSize(60, 60);
-                button.setPrefSize(40, 40);
-
-                //get background color of the button from the tile in the model
-                PlaceTile tile = localModel.getBoard().getTile(row, col);
-                PlaceColor tileColor = tile.getColor();
-                Color color = Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue(), 1);
-                button.setBackground(new Background(new BackgroundFill(color, new CornerRadii(0), new Insets(0))));
-
-                //generate default tooltip
-                String tileInfo = "(" + tile.getRow() + ", " + tile.getCol() + ") " + tile.getColor().getName()
-                        + "Has not been changed";
-                //add tooltip to button
-                Tooltip tool = new Tooltip(tileInfo);
-                button.setTooltip(tool);
-                //add button press funcionality
-                button.setOnAction(new ButtonEventHandler(row, col));
-                //add button to the GUI
-                gridPane.add(button, row, col);
-                buttonGrid[row][col] = button;
+                addButton(row, col);
             }
         }
 
@@ -132,6 +117,63 @@ public class PlaceGUI extends Application implements Observer {
         mainStage.show();
     }
 
+    /**
+     * addButton
+     * Makes the grid button for a tile, colored from the model, and adds it to the GUI.
+     * @param row the row of the tile
+     * @param col the column of the tile
+     */
+    private void addButton(int row, int col) {
+        //make a new button and set its size
+        Button button = new Button("");
+        button.setPadding(Insets.EMPTY);
+        button.setMinSize(60, 60);
+        button.setPrefSize(40, 40);
+
+        //get background color of the button from the tile in the model
+        PlaceTile tile = localModel.getBoard().getTile(row, col);
+        PlaceColor tileColor = tile.getColor();
+        Color color = Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue(), 1);
+        button.setBackground(new Background(new BackgroundFill(color, new CornerRadii(0), new Insets(0))));
+
+        //add tooltip to button, which asks for the owners and times of the tile's chunk the first time it shows
+        Tooltip tool = new Tooltip(tileInfo(tile));
+        tool.setOnShowing(event -> connection.fetchMetadata(row, col));
+        button.setTooltip(tool);
+        //add button press funcionality
+        button.setOnAction(new ButtonEventHandler(row, col));
+        //add button to the GUI
+        gridPane.add(button, row, col);
+        buttonGrid[row][col] = button;
+    }
+
+    /**
+     * grow
+     * Adds buttons for the new tiles after the board grows. The existing buttons are kept.
+     * @param DIM the new dimension
+     */
+    private void grow(int DIM) {
+        //the board arrives while the window is being set up, and start draws whatever is in the model by then
+        if (buttonGrid == null) {
+            return;
+        }
+        int oldDim = buttonGrid.length;
+        if (DIM <= oldDim) {
+            return;
+        }
+        Button[][] grown = new Button[DIM][DIM];
+        for (int row = 0; row < oldDim; row++) {
+            System.arraycopy(buttonGrid[row], 0, grown[row], 0, oldDim);
+        }
+        buttonGrid = grown;
+        for (int row = 0; row < DIM; row++) {
+            for (int col = row < oldDim ? oldDim : 0; col < DIM; col++) {
+                addButton(row, col);
+            }
+        }
+        gridPane.getScene().getWindow().sizeToScene();
+    }
+
     /**
      * Class ButtonEventHandler
      * Handler class to recognize clicks on the grid buttons and change the tile accordingly.
@@ -153,12 +195,13 @@ public class PlaceGUI extends Application implements Observer {
         /**
          * handle
          * Implementation of parent class's handle() method. Sends tile change request to the network client when user
-         * clicks on a tile.
+         * clicks on a tile. Doesn't wait for the server's answer, so the window keeps responding; a change that is
+         * turned down is shown in the label once the answer arrives.
          * @param event not used
          */
         public void handle(ActionEvent event) {
             PlaceTile tile = new PlaceTile(row, col, username, PlaceColor.values()[colorNum]);
-            connection.tileChange(tile);
+            connection.submit(tile).thenAccept(reply -> Platform.runLater(() -> showReply(reply)));
         }
     }
 
@@ -195,33 +238,72 @@ public class PlaceGUI extends Application implements Observer {
      * @param tile the new tile
      */
     private void refresh(PlaceTile tile) {
+        //the board arrives while the window is being set up, and start draws whatever is in the model by then
+        if (buttonGrid == null) {
+            return;
+        }
         //make a new tile with the selected color
         PlaceColor tileColor = tile.getColor();
         Color color = Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue(), 1);
         buttonGrid[tile.getRow()][tile.getCol()].setBackground(
                 new Background(new BackgroundFill(color, new CornerRadii(0), new Insets(0))));
 
-        //generate a new tooltip for the tile
-        String tileInfo = "(" + tile.getRow() + ", " + tile.getCol() + ") " + tile.getColor().getName()
-                + "\nUpdated by " + tile.getOwner() + " at " + tile.getTime();
-        Tooltip toolTip = new Tooltip(tileInfo);
-        buttonGrid[tile.getRow()][tile.getCol()].setTooltip(toolTip);
+        //update the text of the tile's tooltip, keeping the tooltip so it still fetches the owners and times
+        buttonGrid[tile.getRow()][tile.getCol()].getTooltip().setText(tileInfo(tile));
+    }
+
+    /**
+     * tileInfo
+     * Helper method that makes the text of a tile's tooltip.
+     * @param tile the tile
+     * @return its position and color, and who changed it last and when, if anyone has
+     */
+    private static String tileInfo(PlaceTile tile) {
+        return "(" + tile.getRow() + ", " + tile.getCol() + ") " + tile.getColor().getName()
+                + (tile.getOwner().isEmpty() ? "\nHas not been changed"
+                : "\nUpdated by " + tile.getOwner() + " at " + tile.getTime());
     }
 
     /**
      * update
      * Called when local model is updated since this is an observer. Calls refresh with the new tile when an update is
-     * recognized on the model.
+     * recognized on the model, or grow with the new dimension when the board grows.
      * @param o not used
-     * @param arg
+     * @param arg the new tile, or the new dimension as an Integer
      */
     public void update(Observable o, Object arg) {
         assert this.localModel == o : "Update from non-model Observable";
-        PlaceTile updatedTile = (PlaceTile) arg;
+        Runnable change;
+        if (arg instanceof Integer) {
+            int DIM = (Integer) arg;
+            change = () -> this.grow(DIM);
+        } else {
+            PlaceTile updatedTile = (PlaceTile) arg;
+            change = () -> this.refresh(updatedTile);
+        }
+
         if (Platform.isFxApplicationThread()) {
-            this.refresh(updatedTile);
+            change.run();
+        } else {
+            Platform.runLater(change);
+        }
+    }
+
+    /**
+     * showReply
+     * Helper method to show the server's answer to a tile change in the label: the color, and why the change was
+     * turned down if it was.
+     * @param reply the answer, or null if the connection was lost first
+     */
+    private void showReply(ChangeReply reply) {
+        String color = "Color: " + PlaceColor.values()[colorNum].getName();
+        if (reply == null) {
+            label.setText(color + " - the change was lost with the connection");
+        } else if (!reply.isAccepted()) {
+            String wait = reply.getWait() > 0 ? ", wait " + (reply.getWait() + 999) / 1000 + " s" : "";
+            label.setText(color + " - " + reply.getReason() + wait);
         } else {
-            Platform.runLater(() -> this.refresh(updatedTile));
+            label.setText(color);
         }
     }
 
@@ -231,8 +313,8 @@ public class PlaceGUI extends Application implements Observer {
      * @param args arguments from the command line
      */
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.out.println("Usage: java PlaceGUI host port username");
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage: java PlaceGUI host port username [room]");
             System.exit(0);
         } else {
             Application.launch(args);
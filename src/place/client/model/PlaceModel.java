@@ -1,6 +1,8 @@
 package place.client.model;
 
+import place.ChunkTransfer;
 import place.PlaceBoard;
+import place.PlaceException;
 import place.PlaceTile;
 
 import java.util.Observable;
@@ -42,4 +44,60 @@ public class PlaceModel extends Observable {
         super.notifyObservers(tile);
     }
 
+    /**
+     * setTiles
+     * Sets several tiles on the board, as the server sends them when it batches tile changes. Observers are notified
+     * of each one.
+     * @param tiles the new tiles
+     */
+    public void setTiles(PlaceTile[] tiles) {
+        for (PlaceTile tile : tiles) {
+            setTile(tile);
+        }
+    }
+
+    /**
+     * resize
+     * Grows the board when the server says it has grown. Observers are notified with the new dimension.
+     * @param DIM the new dimension
+     */
+    public void resize(int DIM) {
+        try {
+            if (board.expand(DIM)) {
+                super.setChanged();
+                super.notifyObservers(DIM);
+            }
+        } catch (PlaceException e) {
+            System.err.println("Caught PlaceException");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * catchUp
+     * Brings the model up to date from a newer copy of the board, such as the one the server sends when it can't say
+     * what was missed while the connection was down. Observers are notified of each tile that changed.
+     * @param newer the newer copy of the board
+     * @param metadata does the copy have the owners and times of the tiles?
+     */
+    public void catchUp(PlaceBoard newer, boolean metadata) {
+        resize(newer.DIM);
+        int chunks = newer.getChunksPerSide() * newer.getChunksPerSide();
+        for (int index = 0; index < chunks; ++index) {
+            importChunk(newer.exportChunk(index, metadata));
+        }
+    }
+
+    /**
+     * importChunk
+     * Makes a chunk of the board match a copy from the server. Observers are notified of each tile that changed.
+     * @param transfer the copy of the chunk
+     */
+    public void importChunk(ChunkTransfer transfer) {
+        for (PlaceTile tile : board.importChunk(transfer)) {
+            super.setChanged();
+            super.notifyObservers(tile);
+        }
+    }
+
 }
@@ -99,7 +99,7 @@ public class DickBot {
     private static void protect(ArrayList<Coordinate> coords, PlaceColor tileColor, NetworkClient connection) {
         while (true) {
             for (Coordinate coord : coords) {
-                if (localModel.getBoard().getTile(coord.row, coord.col).getColor() != tileColor) {
+                if (localModel.getBoard().getColor(coord.row, coord.col) != tileColor) {
                     PlaceTile tile =
                             new PlaceTile(coord.row, coord.row, "DickBot", tileColor, System.currentTimeMillis());
                     connection.tileChange(tile); //send tile change to the server
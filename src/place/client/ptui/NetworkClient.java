@@ -1,16 +1,35 @@
 package place.client.ptui;
 
+import place.ChunkHashTree;
+import place.ChunkTransfer;
 import place.PlaceBoard;
 import place.PlaceTile;
 import place.client.model.PlaceModel;
+import place.network.ChangeReply;
+import place.network.LoginInfo;
+import place.network.PlaceExchange;
 import place.network.PlaceRequest;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.StreamCorruptedException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.lang.Thread.sleep;
 import static place.network.PlaceRequest.RequestType.*;
@@ -18,16 +37,82 @@ import static place.network.PlaceRequest.RequestType.*;
 /**
  * Class NetworkClient
  * This class is the network end of the client, which manages client-to-server interactions. Communicates the UI's
- * requests to the server and the server's responses to the UI.
+ * requests to the server and the server's responses to the UI. Every so often it checks its board against the
+ * server's by comparing chunk hashes, and asks for copies of any chunks that have drifted. A client can take the board
+ * with just its colors and fetch the owners and times of a chunk the first time it needs them, and can take the board
+ * a chunk at a time so it can show part of it before the rest arrives. If the connection drops, it keeps trying to
+ * log in again, waiting longer after each failure, and resumes from the last broadcast it applied, so it is sent just
+ * the changes it missed instead of the whole board. A UI that shows only part of a big board can subscribe to just the
+ * tile changes of that part, and the board is only checked there. Tile changes are numbered and the server answers
+ * each one, so several can be on the way at once. It talks to the server in the binary protocol, unless the system
+ * property place.protocol is set to "object" for Java serialization, and asks for what the server sends to be
+ * compressed, unless the system property place.compress is set to "false". A spectator only watches: it gets the board
+ * and the changes, and the server doesn't listen to it.
  */
 public class NetworkClient {
+    /** How often to check the board against the server's, in milliseconds */
+    private final static long VERIFY_PERIOD = 60000;
+    /** Use the binary protocol? */
+    private final static boolean BINARY = !"object".equals(System.getProperty("place.protocol"));
+    /** Ask the server to compress what it sends? */
+    private final static boolean COMPRESS = !"false".equals(System.getProperty("place.compress"));
+    /** The wait before the first try at reconnecting, in milliseconds */
+    private final static long MIN_BACKOFF = 250;
+    /** The longest wait between tries at reconnecting, in milliseconds */
+    private final static long MAX_BACKOFF = 30000;
+    /** The most nodes or chunks asked for in one request, which keeps it well under the server's limit */
+    private final static int MAX_INDICES = 1024;
+    /** How long tileChange waits for the server to answer a change, in milliseconds */
+    private final static long REPLY_TIMEOUT = 10000;
 
-    private Socket socket;
-    private ObjectOutputStream networkOut;
-    private ObjectInputStream networkIn;
+    private final String hostName;
+    private final int portNumber;
+    private final LoginInfo login;
+    private volatile Socket socket;
+    private volatile PlaceExchange exchange;
+    /** The sequence number of the last broadcast applied to the model */
+    private volatile long lastSequence;
+    /** The token the server sent at the last login, which lets a resume take the username over, or 0 for none */
+    private volatile long token;
+    /** Has the UI closed the connection, so it shouldn't be opened again? */
+    private volatile boolean closed;
+    /** The rectangles of tiles subscribed to, four ints each, or null for the whole board */
+    private volatile int[] regions;
+    /** The number of the last tile change sent */
+    private final AtomicLong changeIds = new AtomicLong();
+    /** The tile changes the server hasn't answered yet, by number */
+    private final Map<Long, PendingChange> pendingChanges = new ConcurrentHashMap<>();
+    /** The time between sending the last answered tile change and its answer, in milliseconds, or -1 */
+    private volatile long roundTrip = -1;
 
     private PlaceModel model;
 
+    /**
+     * A tile change on its way to the server.
+     */
+    private static class PendingChange {
+        /** When it was sent, from System.nanoTime */
+        private final long sent;
+        /** Completed with the server's answer, or with null if the connection is lost first */
+        private final CompletableFuture<ChangeReply> reply;
+
+        /**
+         * Constructor method.
+         * @param sent when the change was sent, from System.nanoTime
+         */
+        PendingChange(long sent) {
+            this.sent = sent;
+            this.reply = new CompletableFuture<>();
+        }
+    }
+
+    /** The hash tree nodes of each HASHES request still waiting for an answer, in the order they were sent */
+    private final Queue<int[]> pendingHashes = new ConcurrentLinkedQueue<>();
+    /** Is a check of the board under way? */
+    private volatile boolean verifying;
+    /** The chunks whose owners and times have been asked for, or null if they came with the board */
+    private final Set<Integer> fetchedChunks;
+
     /**
      * Constructor method. Gets the hostname, port number, username, and model from the UI and initializes I/O
      * streams. Also sends login request to the server and manages its responses. Ends by spawning a thread to send
@@ -38,10 +123,53 @@ public class NetworkClient {
      * @param model the client's copy of the model
      */
     public NetworkClient(String hostName, int portNumber, String username, PlaceModel model) {
+        this(hostName, portNumber, username, null, model);
+    }
+
+    /**
+     * Constructor method. Like the one above, but joins a room other than the server's default room.
+     * @param hostName hostname of the server
+     * @param portNumber port number to be connected to
+     * @param username username of the client
+     * @param room the name of the room to join, or null for the default room
+     * @param model the client's copy of the model
+     */
+    public NetworkClient(String hostName, int portNumber, String username, String room, PlaceModel model) {
+        this(hostName, portNumber, username, room, true, model);
+    }
+
+    /**
+     * Constructor method. Like the one above, but can take the board with just its colors, for a UI that shows the
+     * owners and times of tiles later, through fetchMetadata.
+     * @param hostName hostname of the server
+     * @param portNumber port number to be connected to
+     * @param username username of the client
+     * @param room the name of the room to join, or null for the default room
+     * @param metadata true to get the owners and times of the tiles with the board
+     * @param model the client's copy of the model
+     */
+    public NetworkClient(String hostName, int portNumber, String username, String room, boolean metadata,
+                         PlaceModel model) {
+        this(hostName, portNumber, LoginInfo.joining(username, room, metadata), model);
+    }
+
+    /**
+     * Constructor method. Like the ones above, but with everything the client wants from the login spelled out. If
+     * the login gives a viewport, the board arrives progressively: the constructor returns once a blank board of the
+     * right size is in the model, and the chunks are applied to the model as they arrive, nearest the viewport first.
+     * @param hostName hostname of the server
+     * @param portNumber port number to be connected to
+     * @param login the username, room, and how the board is to be sent
+     * @param model the client's copy of the model
+     */
+    public NetworkClient(String hostName, int portNumber, LoginInfo login, PlaceModel model) {
+        this.hostName = hostName;
+        this.portNumber = portNumber;
+        this.login = COMPRESS ? login.compressing(true) : login;
+        this.fetchedChunks = login.isMetadata() ? null : ConcurrentHashMap.newKeySet();
         try {
             this.socket = new Socket(hostName, portNumber);
-            this.networkOut = new ObjectOutputStream(socket.getOutputStream());
-            this.networkIn = new ObjectInputStream(socket.getInputStream());
+            this.exchange = PlaceExchange.connect(socket, BINARY);
             this.model = model;
         } catch (UnknownHostException e) {
             System.err.println("Caught UnknownHostException");
@@ -51,21 +179,33 @@ public class NetworkClient {
             e.printStackTrace();
         }
 
-        //send login request to server
-        PlaceRequest<String> loginRequest = new PlaceRequest<>(LOGIN, username);
+        //send login request to server, with just the username unless the client wants more than the default canvas
+        boolean plain = this.login.getRoom().equals(LoginInfo.DEFAULT_ROOM) && this.login.isMetadata()
+                && !this.login.isProgressive() && !this.login.isCompressed() && !this.login.isSpectator();
+        PlaceRequest<?> loginRequest = plain ? new PlaceRequest<>(LOGIN, this.login.getUsername())
+                : new PlaceRequest<>(LOGIN, this.login);
         sendRequest(loginRequest);
 
         //loop until login and board responses have been processed
         boolean receivedBoard = false;
         while (!receivedBoard) {
             try {
-                PlaceRequest<?> response = (PlaceRequest<?>) networkIn.readUnshared();
+                PlaceRequest<?> response = exchange.receive();
                 //check response type and handle accordingly
-                if (response.getType() == LOGIN_SUCCESS) {
+                if (response == null) {
+                    System.err.println("Error: The server closed the connection.");
+                    System.exit(1);
+                } else if (response.getType() == LOGIN_SUCCESS) {
                     String message = (String) response.getData();
                     System.out.println(message);
+                    if (this.login.isCompressed()) {
+                        exchange.compressReceiving();
+                    }
+                } else if (response.getType() == TOKEN) {
+                    this.token = (Long) response.getData();
                 } else if (response.getType() == BOARD) {
                     this.model.setBoard((PlaceBoard) response.getData());
+                    this.lastSequence = response.getSequence();
                     System.out.println("Successfully received board from server.");
                     receivedBoard = true;
                 } else if (response.getType() == ERROR) {
@@ -91,17 +231,28 @@ public class NetworkClient {
         //start thread that will process tile changes
         Thread netThread = new Thread(this::run);
         netThread.start();
+
+        //check the board against the server's from time to time, unless the server doesn't listen
+        if (this.login.isSpectator()) {
+            return;
+        }
+        Timer verifier = new Timer("BoardVerify", true);
+        verifier.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                verify();
+            }
+        }, VERIFY_PERIOD, VERIFY_PERIOD);
     }
 
     /**
      * sendRequest
-     * Helper method to send a request to the server thread with the client's output stream.
+     * Helper method to send a request to the server thread with the client's exchange.
      * @param request the request to be forwarded to the server
      */
     private void sendRequest(PlaceRequest request) {
         try{
-            networkOut.writeUnshared(request);
-            networkOut.flush();
+            exchange.send(request);
         } catch (IOException e) {
             System.err.println("Caught IOException");
             e.printStackTrace();
@@ -113,6 +264,7 @@ public class NetworkClient {
      * Simple function that closes the client's socket for shutdown.
      */
     void close() {
+        this.closed = true;
         try {
             this.socket.close();
         } catch (IOException e) {
@@ -124,45 +276,335 @@ public class NetworkClient {
     /**
      * run
      * The thread's looping method. Its purpose is to wait for tile change requests from the UI and forward them to
-     * the server thread.
+     * the server thread. When the connection is lost it reconnects, until the UI closes it.
      */
     private void run() {
-        try {
-            //get request from UI
-            Object inputObject;
-            while ((inputObject = networkIn.readUnshared()) != null) {
-                PlaceRequest<?> response = (PlaceRequest<?>) inputObject;
-                //check if request is tile change and handle accordingly
-                if (response.getType() == TILE_CHANGED) {
-                    System.out.println("A user changed a tile.");
-                    PlaceTile tile = (PlaceTile) response.getData();
-                    model.setTile(tile);
+        while (!closed) {
+            try {
+                //get request from UI
+                PlaceRequest<?> response;
+                while ((response = exchange.receive()) != null) {
+                    handle(response);
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Caught IOException");
+                    e.printStackTrace();
+                }
+            } catch (ClassNotFoundException e) {
+                System.err.println("Caught ClassNotFoundException");
+                e.printStackTrace();
+            }
+            if (!closed) {
+                reconnect();
+            }
+        }
+    }
+
+    /**
+     * handle
+     * Applies a request from the server to the model. Broadcasts the model already has, by their sequence numbers,
+     * are skipped: they can arrive twice just after resuming. So is a board sent again that is older than the model.
+     * @param response the request
+     */
+    private void handle(PlaceRequest<?> response) {
+        long sequence = response.getSequence();
+        if (sequence != 0) {
+            if (sequence <= lastSequence) {
+                return;
+            }
+            lastSequence = sequence;
+        }
+        //check if request is tile change and handle accordingly
+        if (response.getType() == TILE_CHANGED) {
+            System.out.println("A user changed a tile.");
+            PlaceTile tile = (PlaceTile) response.getData();
+            model.setTile(tile);
+        } else if (response.getType() == TILES_CHANGED) {
+            PlaceTile[] tiles = (PlaceTile[]) response.getData();
+            System.out.println("Users changed " + tiles.length + " tiles.");
+            model.setTiles(tiles);
+        } else if (response.getType() == RESIZE) {
+            int DIM = (Integer) response.getData();
+            System.out.println("The board grew to " + DIM + "x" + DIM + ".");
+            model.resize(DIM);
+            //the subscription was cut down to the old board
+            if (regions != null) {
+                sendRequest(new PlaceRequest<>(SUBSCRIBE, regions));
+            }
+        } else if (response.getType() == BOARD) {
+            //the server fell too far behind sending to this client, and sent the board instead of what was waiting
+            System.out.println("The server sent the board again.");
+            model.catchUp((PlaceBoard) response.getData(), login.isMetadata());
+            if (fetchedChunks != null) {
+                fetchedChunks.clear();
+            }
+        } else if (response.getType() == HASHES) {
+            compareHashes((long[]) response.getData());
+        } else if (response.getType() == CHUNK) {
+            ChunkTransfer transfer = (ChunkTransfer) response.getData();
+            System.out.println("Received chunk " + transfer.getIndex() + " of the board.");
+            model.importChunk(transfer);
+        } else if (response.getType() == ACK || response.getType() == NACK) {
+            ChangeReply reply = (ChangeReply) response.getData();
+            if (!reply.isAccepted()) {
+                System.err.println("Tile change turned down: " + reply.getReason());
+            }
+            PendingChange change = pendingChanges.remove(reply.getId());
+            if (change != null) {
+                roundTrip = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - change.sent);
+                change.reply.complete(reply);
+            }
+        } else if (response.getType() == ERROR) {
+            System.err.println("Error: " + response.getData());
+        } else {
+            System.err.println("Unexpected Error - Received unexpected response from server.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * reconnect
+     * Logs in again after the connection is lost, resuming from the last broadcast applied. Waits before each try,
+     * twice as long as the last time up to MAX_BACKOFF, with some randomness so clients that lost the same server
+     * don't all come back at once. If the server no longer has the broadcasts that were missed, it sends the board,
+     * and the model is brought up to date from it. Gives up if the server refuses the login. Tile changes still
+     * waiting for an answer get none.
+     */
+    private void reconnect() {
+        //changes on the way may or may not have been made, and won't be answered
+        for (Long id : pendingChanges.keySet()) {
+            PendingChange change = pendingChanges.remove(id);
+            if (change != null) {
+                change.reply.complete(null);
+            }
+        }
+        long backoff = MIN_BACKOFF;
+        while (!closed) {
+            long wait = backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            System.err.println("Lost the connection to the server, trying again in " + wait + " ms.");
+            try {
+                sleep(wait);
+            } catch (InterruptedException e) {
+                System.err.println("Caught InterruptedException");
+                e.printStackTrace();
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+
+            Socket socket = null;
+            try {
+                socket = new Socket(hostName, portNumber);
+                PlaceExchange exchange = PlaceExchange.connect(socket, BINARY);
+                exchange.send(new PlaceRequest<>(LOGIN, login.resuming(lastSequence, token)));
+                PlaceRequest<?> response = exchange.receive();
+                if (response == null) {
+                    socket.close();
+                    continue;
+                } else if (response.getType() == ERROR) {
+                    System.err.println("Error: " + response.getData());
+                    socket.close();
+                    closed = true;
+                    return;
+                }
+                if (login.isCompressed()) {
+                    exchange.compressReceiving();
+                }
+                PlaceRequest<?> issued = exchange.receive();
+                if (issued == null || issued.getType() != TOKEN) {
+                    socket.close();
+                    continue;
+                }
+                token = (Long) issued.getData();
+                //a number on the login means the missed broadcasts follow, otherwise the board does
+                if (response.getSequence() == 0) {
+                    PlaceRequest<?> board = exchange.receive();
+                    if (board == null || board.getType() != BOARD) {
+                        socket.close();
+                        continue;
+                    }
+                    model.catchUp((PlaceBoard) board.getData(), login.isMetadata());
+                    lastSequence = board.getSequence();
+                    if (fetchedChunks != null) {
+                        fetchedChunks.clear();
+                    }
+                    System.out.println("Reconnected, and received the board again.");
                 } else {
-                    System.err.println("Unexpected Error - Received unexpected response from server.");
-                    System.exit(1);
+                    System.out.println("Reconnected, and resumed from change " + lastSequence + ".");
+                }
+                pendingHashes.clear();
+                verifying = false;
+                this.socket = socket;
+                this.exchange = exchange;
+                if (regions != null) {
+                    sendRequest(new PlaceRequest<>(SUBSCRIBE, regions));
+                }
+                return;
+            } catch (IOException e) {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException closing) {
+                        //already broken
+                    }
                 }
+            } catch (ClassNotFoundException e) {
+                System.err.println("Caught ClassNotFoundException");
+                e.printStackTrace();
             }
-        } catch (IOException e) {
-            System.err.println("Caught IOException");
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            System.err.println("Caught ClassNotFoundException");
-            e.printStackTrace();
         }
-        this.close();
     }
 
+    /**
+     * verify
+     * Starts a check of the board against the server's by asking for the root of its hash tree, unless a check is
+     * already under way.
+     */
+    private void verify() {
+        if (!verifying) {
+            verifying = true;
+            requestHashes(new int[] {ChunkHashTree.ROOT});
+        }
+    }
+
+    /**
+     * requestHashes
+     * Helper method to ask the server for the hashes of some nodes of its hash tree, MAX_INDICES at a time.
+     * @param nodes the nodes
+     */
+    private void requestHashes(int[] nodes) {
+        for (int from = 0; from < nodes.length; from += MAX_INDICES) {
+            int[] some = Arrays.copyOfRange(nodes, from, Math.min(nodes.length, from + MAX_INDICES));
+            pendingHashes.add(some);
+            sendRequest(new PlaceRequest<>(HASHES, some));
+        }
+    }
+
+    /**
+     * compareHashes
+     * Compares the server's hashes for the nodes of the oldest HASHES request with the client's own. Goes down into
+     * the children of inner nodes that differ, and asks for copies of the chunks whose leaves differ. Tile changes
+     * still on the way can make a node look different for a moment; that only costs an extra chunk copy.
+     * @param hashes the server's hashes
+     */
+    private void compareHashes(long[] hashes) {
+        int[] nodes = pendingHashes.poll();
+        if (nodes == null) {
+            return;
+        }
+        PlaceBoard board = model.getBoard();
+        ChunkHashTree tree = board.getHashes();
+        int chunks = board.getChunksPerSide() * board.getChunksPerSide();
+        List<Integer> children = new ArrayList<>();
+        List<Integer> differing = new ArrayList<>();
+        for (int i = 0; i < nodes.length && i < hashes.length; ++i) {
+            if (tree.get(nodes[i]) != hashes[i]) {
+                if (!tree.isLeaf(nodes[i])) {
+                    children.add(nodes[i] * 2);
+                    children.add(nodes[i] * 2 + 1);
+                } else if (tree.chunkOf(nodes[i]) < chunks) {
+                    differing.add(tree.chunkOf(nodes[i]));
+                }
+            }
+        }
+        if (!children.isEmpty()) {
+            requestHashes(children.stream().mapToInt(Integer::intValue).toArray());
+        }
+        //the chunks outside the subscription aren't kept up to date
+        int[] subscribed = regions;
+        if (subscribed != null) {
+            int[] covered = board.chunksCovering(subscribed);
+            differing.removeIf(chunk -> Arrays.binarySearch(covered, chunk) < 0);
+        }
+        for (int from = 0; from < differing.size(); from += MAX_INDICES) {
+            List<Integer> some = differing.subList(from, Math.min(differing.size(), from + MAX_INDICES));
+            sendRequest(new PlaceRequest<>(CHUNK, some.stream().mapToInt(Integer::intValue).toArray()));
+        }
+        if (pendingHashes.isEmpty()) {
+            verifying = false;
+        }
+    }
+
+    /**
+     * fetchMetadata
+     * Asks the server for the owners and times of the chunk that holds a tile, unless they came with the board or
+     * have been asked for already. They arrive as a copy of the chunk, and the tiles are updated in the model.
+     * @param row the row of the tile
+     * @param col the column of the tile
+     */
+    public void fetchMetadata(int row, int col) {
+        if (!login.isSpectator() && fetchedChunks != null && fetchedChunks.add(PlaceBoard.chunkIndexOf(row, col))) {
+            sendRequest(new PlaceRequest<>(CHUNK, new int[] {PlaceBoard.chunkIndexOf(row, col)}));
+        }
+    }
+
+    /**
+     * subscribe
+     * Asks the server for just the tile changes in some rectangles of the board, such as the part the UI shows, and
+     * replaces any earlier subscription. The server sends copies of the chunks that weren't covered before, so the
+     * model is up to date in the rectangles once they arrive. Call it again as the view moves.
+     * @param regions four ints per rectangle: its top row, left column, height and width, in tiles, or null for the
+     *                whole board
+     */
+    public void subscribe(int[] regions) {
+        if (login.isSpectator()) {
+            System.err.println("Error: Spectators get the whole board.");
+            return;
+        }
+        this.regions = regions == null ? null : regions.clone();
+        sendRequest(new PlaceRequest<>(SUBSCRIBE, this.regions));
+    }
+
+    /**
+     * submit
+     * Sends a tile change to the server without waiting, numbered so the server answers it. Any number of changes can
+     * be on the way at once; the server turns down the ones the room's rate limit doesn't allow.
+     * @param tile the new tile to be sent
+     * @return completed with the server's answer, or with null if the connection is lost first
+     */
+    public CompletableFuture<ChangeReply> submit(PlaceTile tile) {
+        long id = changeIds.incrementAndGet();
+        if (login.isSpectator()) {
+            System.err.println("Error: Spectators can't change tiles.");
+            return CompletableFuture.completedFuture(new ChangeReply(id, "Spectators can't change tiles", 0));
+        }
+        PendingChange change = new PendingChange(System.nanoTime());
+        pendingChanges.put(id, change);
+        sendRequest(new PlaceRequest<>(CHANGE_TILE, tile, id));
+        return change.reply;
+    }
+
+    /**
+     * getRoundTrip
+     * @return the time between sending the last answered tile change and its answer, in milliseconds, or -1 if no
+     * change has been answered
+     */
+    public long getRoundTrip() { return roundTrip; }
+
     /**
      * tileChange
-     * Helper method to forward a tile change request to the server. Called by the UI when the user makes a tile
-     * change.
+     * Helper method to forward a tile change request to the server. Called by a text UI when the user makes a tile
+     * change. Waits for the server's answer, then for as long as the server says the user has to before their next
+     * change. A change that came too soon is sent again once the wait is over. Blocks all the while, so a UI thread
+     * that must keep responding, like the GUI's, uses submit instead.
      * @param tile the new tile to be sent
      */
     public void tileChange(PlaceTile tile) {
-        PlaceRequest<PlaceTile> tileChangeRequest = new PlaceRequest<>(CHANGE_TILE, tile);
-        sendRequest(tileChangeRequest);
         try {
-            sleep(500);
+            while (true) {
+                ChangeReply reply = submit(tile).get(REPLY_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (reply == null || reply.getWait() == 0) {
+                    return;
+                }
+                sleep(reply.getWait());
+                if (reply.isAccepted()) {
+                    return;
+                }
+            }
+        } catch (TimeoutException e) {
+            System.err.println("Error: The server didn't answer a tile change.");
+        } catch (ExecutionException e) {
+            System.err.println("Caught ExecutionException");
+            e.printStackTrace();
         } catch (InterruptedException e) {
             System.err.println("Caught InterruptedException");
             e.printStackTrace();
@@ -35,9 +35,10 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
         String hostName = args.get(0);
         int portNumber = Integer.parseInt(args.get(1));
         username = args.get(2);
+        String room = args.size() > 3 ? args.get(3) : null;
 
         localModel = new PlaceModel();
-        this.connection = new NetworkClient(hostName, portNumber, username, this.localModel);
+        this.connection = new NetworkClient(hostName, portNumber, username, room, this.localModel);
         this.localModel.addObserver(this);
     }
 
@@ -108,8 +109,8 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
      * @param args arguments from command line
      */
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.out.println("Usage java PlacePTUI host port username");
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage java PlacePTUI host port username [room]");
             System.exit(0);
         } else {
             ConsoleApplication.launch(PlacePTUI.class, args);
@@ -0,0 +1,635 @@
+package place.network;
+
+import place.ChunkTransfer;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.TileMetadata;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static place.network.PlaceRequest.RequestType.*;
+
+/**
+ * The binary protocol.  Every request is a frame that starts with a one byte
+ * code for its type.  CHANGE_TILE and TILE_CHANGED frames have a fixed size:
+ * after the code come the row, the column, the owner id shifted left 4 bits
+ * and or'ed with the color number, and the time in whole seconds, each a 4
+ * byte int, so a tile change is 17 bytes.  A TILES_CHANGED frame has a 4
+ * byte count after the code, then that many tiles, each 16 bytes laid out
+ * the same way.  Every other frame has a 4 byte
+ * length after the code, then that many bytes: a one byte tag for the kind of
+ * data, then the data.
+ *
+ * Usernames in tile frames are ids, from the {@link OwnerIds} of the room
+ * that broadcast the frame or of the exchange that sent it.  Whenever the
+ * username an id means isn't the one last sent for it in that direction, a
+ * NAME frame goes first, with the code 0xFF, the id as a 4 byte int, and the
+ * username in modified UTF-8.  So a broadcast is the same for every
+ * exchange it is sent to, and only the NAME frames before it differ.
+ *
+ * Sequence numbers are mostly left off too.  A TILE_CHANGED, TILES_CHANGED,
+ * RESIZE or CHANGE_TILE frame is numbered one past the last numbered frame
+ * in the same direction, and any other frame is numbered 0.  A frame
+ * numbered otherwise is preceded by a SEQUENCE frame with the code 0xFE and
+ * its number as an 8 byte long.
+ *
+ * A server's end accepts frames of at most {@link PlaceExchange#MAX_REQUEST}
+ * bytes, since clients only send small requests, and NAME frames for a few
+ * ids with usernames of at most {@link PlaceExchange#MAX_USERNAME}
+ * characters, since a client only sends its own; a client's end accepts the
+ * largest boards, and every id.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+class BinaryExchange implements PlaceExchange {
+    /** The request types in code order.  New types go at the end. */
+    private final static PlaceRequest.RequestType[] CODES = {
+            BOARD, CHANGE_TILE, CHUNK, ERROR, HASHES, LOGIN, LOGIN_SUCCESS, RESIZE, TILE_CHANGED, TOKEN, TILES_CHANGED,
+            SUBSCRIBE, ACK, NACK
+    };
+    /** The code of a frame that gives the username an id stands for */
+    private final static int NAME = 0xFF;
+    /** The code of a frame that gives the sequence number of the next frame */
+    private final static int SEQUENCE = 0xFE;
+    /** The largest frame a client accepts, in bytes */
+    private final static int MAX_FRAME = 1 << 30;
+    /** The most username ids a server accepts from one client */
+    private final static int CLIENT_IDS = 16;
+    /** The header a Java object stream starts with, which the server always sends first */
+    private final static int OBJECT_STREAM_HEADER = 0xACED0005;
+
+    /** Tag for no data */
+    private final static int NULL = 0;
+    /** Tag for a String */
+    private final static int STRING = 1;
+    /** Tag for an Integer */
+    private final static int INT = 2;
+    /** Tag for an int[] */
+    private final static int INTS = 3;
+    /** Tag for a long[] */
+    private final static int LONGS = 4;
+    /** Tag for a PlaceBoard */
+    private final static int BOARD_DATA = 5;
+    /** Tag for a ChunkTransfer */
+    private final static int CHUNK_DATA = 6;
+    /** Tag for a LoginInfo */
+    private final static int LOGIN_DATA = 7;
+    /** Tag for a Long */
+    private final static int LONG = 8;
+    /** Tag for a ChangeReply */
+    private final static int REPLY_DATA = 9;
+
+    /** The connection */
+    private final Closeable connection;
+    /** The stream to the other end, under any compression */
+    private final OutputStream sink;
+    /** Frames going out */
+    private DataOutputStream out;
+    /** The buffer under out, which frame bodies are written to directly: DataOutputStream holds its monitor while it
+     *  writes an array, and a virtual thread blocked on a slow client there would hold on to its carrier thread */
+    private OutputStream buffered;
+    /** Frames coming in */
+    private DataInputStream in;
+    /** The largest frame accepted, in bytes */
+    private final int maxFrame;
+    /** The most username ids accepted */
+    private final int maxIds;
+    /** The longest username accepted, in characters */
+    private final int maxName;
+    /** The ids of the usernames in tile frames this exchange sends that aren't broadcasts */
+    private final OwnerIds ids;
+    /** Held while sending */
+    private final ReentrantLock sendLock;
+    /** The username last sent for each id, or null */
+    private String[] sentNames;
+    /** The username last received for each id, or null */
+    private String[] receivedNames;
+    /** The number of the last numbered frame sent, or 0 */
+    private long sentSequence;
+    /** The number of the last numbered frame received, or 0 */
+    private long receivedSequence;
+
+    /**
+     * Create an exchange.
+     *
+     * @param connection the connection, closed with the exchange
+     * @param in the stream from the other end, past anything that chose the protocol
+     * @param out the stream to the other end
+     * @param server is this the server's end, which only accepts small frames?
+     */
+    BinaryExchange(Closeable connection, InputStream in, OutputStream out, boolean server) {
+        this.connection = connection;
+        this.sink = out;
+        this.buffered = new BufferedOutputStream(out);
+        this.out = new DataOutputStream(this.buffered);
+        this.in = new DataInputStream(in);
+        this.maxFrame = server ? MAX_REQUEST : MAX_FRAME;
+        this.maxIds = server ? CLIENT_IDS : OwnerIds.CAPACITY;
+        this.maxName = server ? MAX_USERNAME : Integer.MAX_VALUE;
+        this.ids = new OwnerIds();
+        this.sendLock = new ReentrantLock();
+        this.sentNames = new String[16];
+        this.receivedNames = new String[16];
+    }
+
+    /**
+     * Pick the binary protocol, from the client's end, and skip the server's
+     * object stream header.
+     *
+     * @throws IOException if the connection fails or the other end isn't a server
+     */
+    void greet() throws IOException {
+        this.out.writeInt(BINARY_MAGIC);
+        this.out.flush();
+        if (this.in.readInt() != OBJECT_STREAM_HEADER) {
+            throw new StreamCorruptedException("Not a Place server");
+        }
+    }
+
+    @Override
+    public void send(PlaceRequest<?> request) throws IOException {
+        send(new EncodedRequest(request, this.ids));
+    }
+
+    @Override
+    public void send(EncodedRequest request) throws IOException {
+        Frame frame = request.getBinary();
+        this.sendLock.lock();
+        try {
+            for (int i = 0; i < frame.ids.length; ++i) {
+                int id = frame.ids[i];
+                if (id >= this.sentNames.length) {
+                    this.sentNames = Arrays.copyOf(this.sentNames, Math.max(id + 1, this.sentNames.length * 2));
+                }
+                if (!frame.names[i].equals(this.sentNames[id])) {
+                    this.sentNames[id] = frame.names[i];
+                    this.out.writeByte(NAME);
+                    this.out.writeInt(id);
+                    this.out.writeUTF(frame.names[i]);
+                }
+            }
+            if (frame.sequence != implied(frame.type, this.sentSequence)) {
+                this.out.writeByte(SEQUENCE);
+                this.out.writeLong(frame.sequence);
+            }
+            if (frame.sequence != 0) {
+                this.sentSequence = frame.sequence;
+            }
+            this.buffered.write(frame.body);
+            this.buffered.flush();
+        } finally {
+            this.sendLock.unlock();
+        }
+    }
+
+    @Override
+    public Lock getSendLock() {
+        return this.sendLock;
+    }
+
+    @Override
+    public PlaceRequest<?> receive() throws IOException {
+        boolean numbered = false;
+        long sequence = 0;
+        while (true) {
+            int code;
+            try {
+                code = this.in.readUnsignedByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (code == NAME) {
+                int id = this.in.readInt();
+                if (id < 0 || id >= this.maxIds) {
+                    throw new StreamCorruptedException("Bad username id " + id);
+                }
+                if (id >= this.receivedNames.length) {
+                    this.receivedNames = Arrays.copyOf(this.receivedNames,
+                            Math.max(id + 1, this.receivedNames.length * 2));
+                }
+                String name = this.in.readUTF();
+                if (name.length() > this.maxName) {
+                    throw new StreamCorruptedException("Username too long");
+                }
+                this.receivedNames[id] = name;
+                continue;
+            }
+            if (code == SEQUENCE) {
+                numbered = true;
+                sequence = this.in.readLong();
+                continue;
+            }
+            if (code >= CODES.length) {
+                throw new StreamCorruptedException("Unknown frame code " + code);
+            }
+            PlaceRequest.RequestType type = CODES[code];
+            if (!numbered) {
+                sequence = implied(type, this.receivedSequence);
+            }
+            if (sequence != 0) {
+                this.receivedSequence = sequence;
+            }
+            if (type == CHANGE_TILE || type == TILE_CHANGED) {
+                return new PlaceRequest<>(type, readTile(), sequence);
+            }
+            if (type == TILES_CHANGED) {
+                int count = this.in.readInt();
+                if (count < 0 || count > this.maxFrame / 16) {
+                    throw new StreamCorruptedException("Bad tile count " + count);
+                }
+                PlaceTile[] tiles = new PlaceTile[count];
+                for (int i = 0; i < count; ++i) {
+                    tiles[i] = readTile();
+                }
+                return new PlaceRequest<>(type, tiles, sequence);
+            }
+            int length = this.in.readInt();
+            if (length < 1 || length > this.maxFrame) {
+                throw new StreamCorruptedException("Bad frame length " + length);
+            }
+            byte[] frame = new byte[length];
+            this.in.readFully(frame);
+            return new PlaceRequest<>(type, readData(new DataInputStream(new ByteArrayInputStream(frame))), sequence);
+        }
+    }
+
+    @Override
+    public void compressSending() throws IOException {
+        this.sendLock.lock();
+        try {
+            this.out.flush();
+            this.buffered = new BufferedOutputStream(Compression.deflating(this.sink));
+            this.out = new DataOutputStream(this.buffered);
+        } finally {
+            this.sendLock.unlock();
+        }
+    }
+
+    @Override
+    public void compressReceiving() {
+        this.in = new DataInputStream(Compression.inflating(this.in));
+    }
+
+    @Override
+    public boolean isBinary() { return true; }
+
+    @Override
+    public void close() throws IOException {
+        this.connection.close();
+    }
+
+    /**
+     * Find how many bytes make up the next request from a client, with the
+     * NAME and SEQUENCE frames before it, without decoding it.
+     *
+     * @param bytes the bytes not yet received, from position to limit
+     * @return the number of bytes, or 0 if they aren't all there yet
+     * @throws StreamCorruptedException if the bytes aren't frames, or a frame
+     *      is bigger than {@link PlaceExchange#MAX_REQUEST}
+     */
+    static int length(ByteBuffer bytes) throws StreamCorruptedException {
+        int start = bytes.position();
+        int at = start;
+        while (at < bytes.limit()) {
+            int available = bytes.limit() - at;
+            int code = bytes.get(at) & 0xFF;
+            long size;
+            if (code == NAME) {
+                if (available < 7) {
+                    return 0;
+                }
+                //modified UTF-8 takes at most 3 bytes a character
+                int nameLength = bytes.getShort(at + 5) & 0xFFFF;
+                if (nameLength > 3 * MAX_USERNAME) {
+                    throw new StreamCorruptedException("Username too long");
+                }
+                size = 7 + nameLength;
+            } else if (code == SEQUENCE) {
+                size = 9;
+            } else if (code >= CODES.length) {
+                throw new StreamCorruptedException("Unknown frame code " + code);
+            } else if (CODES[code] == CHANGE_TILE || CODES[code] == TILE_CHANGED) {
+                size = 17;
+            } else {
+                if (available < 5) {
+                    return 0;
+                }
+                int count = bytes.getInt(at + 1);
+                if (CODES[code] == TILES_CHANGED) {
+                    if (count < 0 || count > MAX_REQUEST / 16) {
+                        throw new StreamCorruptedException("Bad tile count " + count);
+                    }
+                    size = 5 + 16L * count;
+                } else {
+                    if (count < 1 || count > MAX_REQUEST) {
+                        throw new StreamCorruptedException("Bad frame length " + count);
+                    }
+                    size = 5 + (long) count;
+                }
+            }
+            if (available < size) {
+                return 0;
+            }
+            at += (int) size;
+            if (code != NAME && code != SEQUENCE) {
+                return at - start;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Read the row, column, owner id and color, and time of a tile.
+     *
+     * @return the tile
+     * @throws IOException if reading fails or the owner id hasn't been given a username
+     */
+    private PlaceTile readTile() throws IOException {
+        int row = this.in.readInt();
+        int col = this.in.readInt();
+        int ownerAndColor = this.in.readInt();
+        long time = TileMetadata.toMillis(this.in.readInt());
+        int id = ownerAndColor >>> 4;
+        String owner = id < this.receivedNames.length ? this.receivedNames[id] : null;
+        if (owner == null) {
+            throw new StreamCorruptedException("Unknown username id " + (ownerAndColor >>> 4));
+        }
+        return new PlaceTile(row, col, owner, PlaceColor.fromNumber(ownerAndColor & 0xF), time);
+    }
+
+    /**
+     * A request encoded as a frame, without the NAME and SEQUENCE frames
+     * that may have to go before it.
+     */
+    static class Frame {
+        /** The request type */
+        private final PlaceRequest.RequestType type;
+        /** The request's sequence number */
+        private final long sequence;
+        /** The frame */
+        private final byte[] body;
+        /** The ids of the usernames in the frame */
+        private final int[] ids;
+        /** The usernames in the frame, in the same order as their ids */
+        private final String[] names;
+
+        /**
+         * Create a frame.
+         *
+         * @param request the request encoded
+         * @param body the frame
+         * @param names the usernames in the frame, by id
+         */
+        private Frame(PlaceRequest<?> request, byte[] body, Map<Integer, String> names) {
+            this.type = request.getType();
+            this.sequence = request.getSequence();
+            this.body = body;
+            this.ids = new int[names.size()];
+            this.names = new String[names.size()];
+            int i = 0;
+            for (Map.Entry<Integer, String> name : names.entrySet()) {
+                this.ids[i] = name.getKey();
+                this.names[i] = name.getValue();
+                ++i;
+            }
+        }
+
+        /**
+         * Write the frame, without any NAME or SEQUENCE frames.
+         *
+         * @param out where to write
+         * @throws IOException if writing fails
+         */
+        void writeBody(OutputStream out) throws IOException {
+            out.write(this.body);
+        }
+    }
+
+    /**
+     * Encode a request as a frame.
+     *
+     * @param request the request
+     * @param ids the ids to send the usernames in tile frames as
+     * @return the frame
+     * @throws IOException if the request's data is of a kind the protocol doesn't carry
+     */
+    static Frame encode(PlaceRequest<?> request, OwnerIds ids) throws IOException {
+        PlaceRequest.RequestType type = request.getType();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<Integer, String> names = new LinkedHashMap<>();
+        if (type == CHANGE_TILE || type == TILE_CHANGED) {
+            out.writeByte(code(type));
+            writeTile(out, (PlaceTile) request.getData(), ids, names);
+        } else if (type == TILES_CHANGED) {
+            PlaceTile[] tiles = (PlaceTile[]) request.getData();
+            out.writeByte(code(type));
+            out.writeInt(tiles.length);
+            for (PlaceTile tile : tiles) {
+                writeTile(out, tile, ids, names);
+            }
+        } else {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            writeData(new DataOutputStream(data), request.getData());
+            out.writeByte(code(type));
+            out.writeInt(data.size());
+            data.writeTo(out);
+        }
+        return new Frame(request, bytes.toByteArray(), names);
+    }
+
+    /**
+     * Write the row, column, owner id and color, and time of a tile.
+     *
+     * @param out where to write
+     * @param tile the tile
+     * @param ids the ids to send usernames as
+     * @param names the usernames written so far in the frame, by id, which the tile's owner is added to
+     * @throws IOException if writing fails
+     */
+    private static void writeTile(DataOutputStream out, PlaceTile tile, OwnerIds ids, Map<Integer, String> names)
+            throws IOException {
+        String name = tile.getOwner() != null ? tile.getOwner() : "";
+        int owner = ids.intern(name, names);
+        names.put(owner, name);
+        out.writeInt(tile.getRow());
+        out.writeInt(tile.getCol());
+        out.writeInt(owner << 4 | tile.getColor().getNumber());
+        out.writeInt(TileMetadata.toSeconds(tile.getTime()));
+    }
+
+    /**
+     * Get the sequence number a frame has when no SEQUENCE frame comes before it.
+     *
+     * @param type the frame's request type
+     * @param last the number of the last numbered frame in the same direction, or 0
+     * @return the number
+     */
+    private static long implied(PlaceRequest.RequestType type, long last) {
+        return (type == TILE_CHANGED || type == TILES_CHANGED || type == RESIZE || type == CHANGE_TILE) && last != 0
+                ? last + 1 : 0;
+    }
+
+    /**
+     * Get the code of a request type.
+     *
+     * @param type the request type
+     * @return the code
+     */
+    private static int code(PlaceRequest.RequestType type) {
+        for (int code = 0; code < CODES.length; ++code) {
+            if (CODES[code] == type) {
+                return code;
+            }
+        }
+        throw new IllegalArgumentException("No code for " + type);
+    }
+
+    /**
+     * Write the data of a request, tagged with its kind.
+     *
+     * @param out where to write
+     * @param data the data
+     * @throws IOException if writing fails, or the data is of a kind the protocol doesn't carry
+     */
+    private static void writeData(DataOutputStream out, Serializable data) throws IOException {
+        if (data == null) {
+            out.writeByte(NULL);
+        } else if (data instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String) data);
+        } else if (data instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) data);
+        } else if (data instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) data);
+        } else if (data instanceof int[]) {
+            int[] values = (int[]) data;
+            out.writeByte(INTS);
+            out.writeInt(values.length);
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        } else if (data instanceof long[]) {
+            long[] values = (long[]) data;
+            out.writeByte(LONGS);
+            out.writeInt(values.length);
+            for (long value : values) {
+                out.writeLong(value);
+            }
+        } else if (data instanceof PlaceBoard) {
+            out.writeByte(BOARD_DATA);
+            ((PlaceBoard) data).write(out);
+        } else if (data instanceof ChunkTransfer) {
+            out.writeByte(CHUNK_DATA);
+            ((ChunkTransfer) data).write(out);
+        } else if (data instanceof LoginInfo) {
+            LoginInfo info = (LoginInfo) data;
+            out.writeByte(LOGIN_DATA);
+            out.writeUTF(info.getUsername());
+            out.writeUTF(info.getRoom());
+            out.writeBoolean(info.isMetadata());
+            out.writeInt(info.getViewRow());
+            out.writeInt(info.getViewCol());
+            out.writeLong(info.getResumeFrom());
+            out.writeLong(info.getToken());
+            out.writeBoolean(info.isCompressed());
+            out.writeBoolean(info.isSpectator());
+        } else if (data instanceof ChangeReply) {
+            ChangeReply reply = (ChangeReply) data;
+            out.writeByte(REPLY_DATA);
+            out.writeLong(reply.getId());
+            out.writeBoolean(reply.isAccepted());
+            if (!reply.isAccepted()) {
+                out.writeUTF(reply.getReason());
+            }
+            out.writeLong(reply.getWait());
+        } else {
+            throw new IOException("The binary protocol can't send a " + data.getClass().getName());
+        }
+    }
+
+    /**
+     * Read the data of a request written by {@link #writeData(DataOutputStream, Serializable)}.
+     *
+     * @param in where to read from
+     * @return the data
+     * @throws IOException if reading fails or the tag is unknown
+     */
+    private static Serializable readData(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readUTF();
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case INTS: {
+                int[] values = new int[count(in, Integer.BYTES)];
+                for (int i = 0; i < values.length; ++i) {
+                    values[i] = in.readInt();
+                }
+                return values;
+            }
+            case LONGS: {
+                long[] values = new long[count(in, Long.BYTES)];
+                for (int i = 0; i < values.length; ++i) {
+                    values[i] = in.readLong();
+                }
+                return values;
+            }
+            case BOARD_DATA:
+                return PlaceBoard.read(in);
+            case CHUNK_DATA:
+                return ChunkTransfer.read(in);
+            case LOGIN_DATA:
+                return new LoginInfo(in.readUTF(), in.readUTF(), in.readBoolean(), in.readInt(), in.readInt(),
+                        in.readLong(), in.readLong(), in.readBoolean(), in.readBoolean());
+            case REPLY_DATA: {
+                long id = in.readLong();
+                String reason = in.readBoolean() ? null : in.readUTF();
+                return new ChangeReply(id, reason, in.readLong());
+            }
+            default:
+                throw new StreamCorruptedException("Unknown data tag " + tag);
+        }
+    }
+
+    /**
+     * Read the length of an array, checking that the frame is big enough to hold it.
+     *
+     * @param in where to read from
+     * @param size the bytes per element
+     * @return the length
+     * @throws IOException if reading fails or the length is impossible
+     */
+    private static int count(DataInputStream in, int size) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || (long) count * size > in.available()) {
+            throw new StreamCorruptedException("Bad array length " + count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,86 @@
+package place.network;
+
+import java.io.Serializable;
+
+/**
+ * The server's answer to a CHANGE_TILE that the client numbered, sent in an
+ * ACK once the change is on the board or a NACK when it was turned down.
+ * It names the change by the client's number, so a client can have several
+ * changes on the way at once and match each answer to its change.
+ *
+ * It also says how long the user has to wait before their next change will
+ * be taken, after an ACK or a NACK for changing too soon or while the server
+ * was too busy to take the change: 0 while a room that lets users make
+ * several changes at once has some left for them, otherwise what is left of
+ * the cooldown.  A change turned down for any other reason has a wait of 0,
+ * and sending it again won't help.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public class ChangeReply implements Serializable {
+    /** The number the client gave the change */
+    private final long id;
+    /** Why the change was turned down, or null if it was made */
+    private final String reason;
+    /** How long until the user's next change will be taken, in milliseconds */
+    private final long wait;
+
+    /**
+     * Create an answer.
+     *
+     * @param id the number the client gave the change
+     * @param reason why the change was turned down, or null if it was made
+     * @param wait how long until the user's next change will be taken, in
+     *             milliseconds
+     */
+    public ChangeReply(long id, String reason, long wait) {
+        this.id = id;
+        this.reason = reason;
+        this.wait = wait;
+    }
+
+    /**
+     * Get the number the client gave the change.
+     *
+     * @return the number
+     */
+    public long getId() {
+        return this.id;
+    }
+
+    /**
+     * Was the change made?
+     *
+     * @return true if it was made, false if it was turned down
+     */
+    public boolean isAccepted() {
+        return this.reason == null;
+    }
+
+    /**
+     * Get why the change was turned down.
+     *
+     * @return the reason, or null if it was made
+     */
+    public String getReason() {
+        return this.reason;
+    }
+
+    /**
+     * Get how long until the user's next change will be taken.
+     *
+     * @return the time in milliseconds
+     */
+    public long getWait() {
+        return this.wait;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeReply{" +
+                "id=" + id +
+                ", reason=" + reason +
+                ", wait=" + wait +
+                '}';
+    }
+}
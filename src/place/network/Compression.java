@@ -0,0 +1,141 @@
+package place.network;
+
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static place.network.PlaceRequest.RequestType.*;
+
+/**
+ * The compression a client can ask for at login.  Everything the server
+ * sends after LOGIN_SUCCESS goes through one deflate stream, which is
+ * flushed after every request, so a request is never held back waiting for
+ * more.  Since the stream lasts as long as the connection, later requests
+ * are compressed against the earlier ones.
+ *
+ * Both ends start the stream with a preset dictionary made of sample
+ * requests in both protocols, so even the first requests compress well.
+ * The stream is in zlib format, which names its dictionary by checksum, and
+ * an end that finds a different dictionary named stops with an error
+ * instead of reading garbage.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+final class Compression {
+    /** The preset dictionary */
+    private final static byte[] DICTIONARY = dictionary();
+    /** The checksum that names the dictionary in a zlib stream */
+    private final static long DICTIONARY_ID = checksum(DICTIONARY);
+    /** The size of the buffers on either side of the deflate stream */
+    private final static int BUFFER = 8192;
+
+    /**
+     * Not to be made.
+     */
+    private Compression() {
+    }
+
+    /**
+     * Compress what is written to a stream.
+     *
+     * @param out the stream to write compressed data to
+     * @return a stream that compresses what is written to it, and flushes
+     *         everything so far through to out when it is flushed
+     */
+    static OutputStream deflating(OutputStream out) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        deflater.setDictionary(DICTIONARY);
+        return new DeflaterOutputStream(out, deflater, BUFFER, true);
+    }
+
+    /**
+     * Decompress what is read from a stream.
+     *
+     * @param in the stream of compressed data
+     * @return a stream of the data decompressed
+     */
+    static InputStream inflating(InputStream in) {
+        return new BufferedInputStream(new Inflating(in), BUFFER);
+    }
+
+    /**
+     * A stream that decompresses, giving the inflater the preset dictionary
+     * when the stream names it.
+     */
+    private static class Inflating extends InflaterInputStream {
+        /**
+         * Create the stream.
+         *
+         * @param in the stream of compressed data
+         */
+        Inflating(InputStream in) {
+            super(in, new Inflater(), BUFFER);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                int read = super.read(b, off, len);
+                if (read != -1 || !this.inf.needsDictionary()) {
+                    return read;
+                }
+                if (this.inf.getAdler() != DICTIONARY_ID) {
+                    throw new StreamCorruptedException("The other end compresses with a different dictionary");
+                }
+                this.inf.setDictionary(DICTIONARY);
+            }
+        }
+    }
+
+    /**
+     * Make the preset dictionary from requests like the ones most often
+     * sent, with the most common last, since deflate finds nearer matches
+     * for less.
+     *
+     * @return the dictionary
+     */
+    private static byte[] dictionary() {
+        PlaceTile tile = new PlaceTile(0, 0, "", PlaceColor.WHITE, 0);
+        PlaceRequest<?>[] samples = {
+                new PlaceRequest<>(ACK, new ChangeReply(1, null, 0)),
+                new PlaceRequest<>(TILES_CHANGED, new PlaceTile[] {tile, tile}, 1),
+                new PlaceRequest<>(TILE_CHANGED, tile, 1)
+        };
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (PlaceRequest<?> sample : samples) {
+                BinaryExchange.encode(sample, new OwnerIds()).writeBody(bytes);
+            }
+            for (PlaceRequest<?> sample : samples) {
+                bytes.write(ObjectExchange.encode(sample));
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Get the Adler-32 checksum of some bytes.
+     *
+     * @param bytes the bytes
+     * @return the checksum
+     */
+    private static long checksum(byte[] bytes) {
+        Adler32 adler = new Adler32();
+        adler.update(bytes);
+        return adler.getValue();
+    }
+}
@@ -0,0 +1,92 @@
+package place.network;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A request that is sent to many exchanges, such as a broadcast to a room.
+ * It is encoded for each protocol the first time it is sent with that
+ * protocol, and from then on every exchange writes the same bytes, so
+ * sending it to another user costs a copy instead of encoding it again.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public final class EncodedRequest {
+    /** The request */
+    private final PlaceRequest<?> request;
+    /** The request as Java serialization, or null until it is needed */
+    private byte[] object;
+    /** The request as a binary frame, or null until it is needed */
+    private BinaryExchange.Frame binary;
+    /** The ids to send the usernames in the binary frame as, or null for ids of its own */
+    private final OwnerIds ids;
+    /** Held while encoding */
+    private final ReentrantLock lock;
+
+    /**
+     * Wrap a request to be encoded.
+     *
+     * @param request the request
+     */
+    public EncodedRequest(PlaceRequest<?> request) {
+        this(request, null);
+    }
+
+    /**
+     * Wrap a request to be encoded, sending the usernames in it as ids that
+     * other requests share, such as the broadcasts to a room.
+     *
+     * @param request the request
+     * @param ids the ids, or null for ids of its own
+     */
+    public EncodedRequest(PlaceRequest<?> request, OwnerIds ids) {
+        this.request = request;
+        this.ids = ids;
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Get the request.
+     *
+     * @return the request
+     */
+    public PlaceRequest<?> getRequest() {
+        return this.request;
+    }
+
+    /**
+     * Get the request as Java serialization, encoding it the first time.
+     *
+     * @return the bytes, which must not be changed
+     * @throws IOException if the request can't be serialized
+     */
+    byte[] getObject() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.object == null) {
+                this.object = ObjectExchange.encode(this.request);
+            }
+            return this.object;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the request as a binary frame, encoding it the first time.
+     *
+     * @return the frame
+     * @throws IOException if the binary protocol can't carry the request
+     */
+    BinaryExchange.Frame getBinary() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.binary == null) {
+                this.binary = BinaryExchange.encode(this.request, this.ids != null ? this.ids : new OwnerIds());
+            }
+            return this.binary;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
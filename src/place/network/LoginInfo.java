@@ -0,0 +1,239 @@
+package place.network;
+
+import java.io.Serializable;
+
+/**
+ * What a client sends with a LOGIN request when it wants more than the
+ * default canvas.  A LOGIN containing just a username String still works,
+ * joins the default room, and gets the owners and times of the tiles along
+ * with the board.
+ *
+ * A client that gives a viewport gets the board progressively: a blank board
+ * of the right size first, then a CHUNK for every chunk, starting with the
+ * one under the viewport and working outward, with tile changes in between.
+ *
+ * A client that lost its connection can resume: it gives the sequence number
+ * of the last broadcast it applied, and is sent only the broadcasts since,
+ * or the whole board if they are too many.  A resuming client that gives the
+ * token the server sent it at its last login (see TOKEN) takes over its
+ * username from a connection the server hasn't noticed is dead.  Without the
+ * token, the username has to be free.
+ *
+ * A client can ask for everything the server sends after LOGIN_SUCCESS to
+ * be compressed, which saves most of the bandwidth of a long session.
+ *
+ * A spectator only watches: it takes no username, and after it has the
+ * board the server never reads from it again, so it can't change tiles,
+ * check its board, fetch chunks or subscribe.  It gets the board all at
+ * once, then the room's broadcasts.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public class LoginInfo implements Serializable {
+    /** The name of the default room */
+    public final static String DEFAULT_ROOM = "";
+
+    /** The desired username */
+    private final String username;
+    /** The name of the room whose board the client wants */
+    private final String room;
+    /** Does the client want the owners and times of the tiles with the board? */
+    private final boolean metadata;
+    /** The row of the tile the client shows first, or -1 to get the board all at once */
+    private final int viewRow;
+    /** The column of the tile the client shows first, or -1 to get the board all at once */
+    private final int viewCol;
+    /** The sequence number of the last broadcast the client applied, or 0 for a new client */
+    private final long resumeFrom;
+    /** The token the server sent at the client's last login, or 0 for none */
+    private final long token;
+    /** Does the client want what the server sends compressed? */
+    private final boolean compressed;
+    /** Is the client a spectator? */
+    private final boolean spectator;
+
+    /**
+     * Create the login information.
+     *
+     * @param username the desired username, ignored for a spectator
+     * @param room the name of the room, or null for the default room
+     * @param metadata true to get the owners and times of the tiles with the board
+     * @param viewRow the row of the tile the client shows first, or -1 to get the board all at once
+     * @param viewCol the column of the tile the client shows first, or -1 to get the board all at once
+     * @param resumeFrom the sequence number of the last broadcast the client applied, or 0 for a new client
+     * @param token the token the server sent at the client's last login, or 0 for none
+     * @param compressed true to have what the server sends after LOGIN_SUCCESS compressed
+     * @param spectator true to only watch the room
+     */
+    public LoginInfo(String username, String room, boolean metadata, int viewRow, int viewCol, long resumeFrom,
+                     long token, boolean compressed, boolean spectator) {
+        this.username = username;
+        this.room = room != null ? room : DEFAULT_ROOM;
+        this.metadata = metadata;
+        this.viewRow = viewRow;
+        this.viewCol = viewCol;
+        this.resumeFrom = resumeFrom;
+        this.token = token;
+        this.compressed = compressed;
+        this.spectator = spectator;
+    }
+
+    /**
+     * Make the login information of a user joining a room, who gets the
+     * board all at once.
+     *
+     * @param username the desired username
+     * @param room the name of the room, or null for the default room
+     * @param metadata true to get the owners and times of the tiles with the
+     *                 board, false to fetch them later a chunk at a time
+     * @return the login information
+     */
+    public static LoginInfo joining(String username, String room, boolean metadata) {
+        return new LoginInfo(username, room, metadata, -1, -1, 0L, 0L, false, false);
+    }
+
+    /**
+     * Make the same login information, for a client that gets the board
+     * progressively.
+     *
+     * @param viewRow the row of the tile the client shows first, or -1 to get the board all at once
+     * @param viewCol the column of the tile the client shows first, or -1 to get the board all at once
+     * @return the login information
+     */
+    public LoginInfo viewing(int viewRow, int viewCol) {
+        return new LoginInfo(this.username, this.room, this.metadata, viewRow, viewCol, this.resumeFrom,
+                this.token, this.compressed, this.spectator);
+    }
+
+    /**
+     * Make the login information for resuming after a lost connection.  A
+     * board that has to be sent again is sent all at once.
+     *
+     * @param resumeFrom the sequence number of the last broadcast the client applied
+     * @param token the token the server sent at the client's last login, or 0 for none
+     * @return the login information
+     */
+    public LoginInfo resuming(long resumeFrom, long token) {
+        return new LoginInfo(this.username, this.room, this.metadata, -1, -1, resumeFrom, token, this.compressed,
+                this.spectator);
+    }
+
+    /**
+     * Make the same login information, asking or not asking for compression.
+     *
+     * @param compressed true to have what the server sends after LOGIN_SUCCESS compressed
+     * @return the login information
+     */
+    public LoginInfo compressing(boolean compressed) {
+        return new LoginInfo(this.username, this.room, this.metadata, this.viewRow, this.viewCol, this.resumeFrom,
+                this.token, compressed, this.spectator);
+    }
+
+    /**
+     * Make the login information of a spectator of a room.
+     *
+     * @param room the name of the room, or null for the default room
+     * @param metadata true to get the owners and times of the tiles with the board
+     * @return the login information
+     */
+    public static LoginInfo spectating(String room, boolean metadata) {
+        return new LoginInfo("", room, metadata, -1, -1, 0L, 0L, false, true);
+    }
+
+    /**
+     * Get the desired username.
+     *
+     * @return the username
+     */
+    public String getUsername() { return this.username; }
+
+    /**
+     * Get the name of the room whose board the client wants.
+     *
+     * @return the room name, empty for the default room
+     */
+    public String getRoom() { return this.room; }
+
+    /**
+     * Does the client want the owners and times of the tiles with the board?
+     *
+     * @return true if they are sent with the board
+     */
+    public boolean isMetadata() { return this.metadata; }
+
+    /**
+     * Does the client get the board progressively, a chunk at a time?
+     *
+     * @return true if the client gave a viewport
+     */
+    public boolean isProgressive() { return this.viewRow >= 0 && this.viewCol >= 0; }
+
+    /**
+     * Get the row of the tile the client shows first.
+     *
+     * @return the row, or -1 if the board is sent all at once
+     */
+    public int getViewRow() { return this.viewRow; }
+
+    /**
+     * Get the column of the tile the client shows first.
+     *
+     * @return the column, or -1 if the board is sent all at once
+     */
+    public int getViewCol() { return this.viewCol; }
+
+    /**
+     * Is the client resuming after a lost connection?
+     *
+     * @return true if it gave the number of the last broadcast it applied
+     */
+    public boolean isResuming() { return this.resumeFrom != 0; }
+
+    /**
+     * Get the sequence number of the last broadcast the client applied.
+     *
+     * @return the number, or 0 for a new client
+     */
+    public long getResumeFrom() { return this.resumeFrom; }
+
+    /**
+     * Get the token the server sent at the client's last login, which lets
+     * it take its username over when it resumes.
+     *
+     * @return the token, or 0 for none
+     */
+    public long getToken() { return this.token; }
+
+    /**
+     * Does the client want what the server sends after LOGIN_SUCCESS
+     * compressed?
+     *
+     * @return true if it is compressed
+     */
+    public boolean isCompressed() { return this.compressed; }
+
+    /**
+     * Is the client a spectator, who only watches?
+     *
+     * @return true for a spectator
+     */
+    public boolean isSpectator() { return this.spectator; }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the login information as a string
+     */
+    @Override
+    public String toString() {
+        return "LoginInfo{" +
+                "username=" + username +
+                ", room=" + room +
+                ", metadata=" + metadata +
+                ", view=(" + viewRow + ", " + viewCol + ")" +
+                ", resumeFrom=" + resumeFrom +
+                ", compressed=" + compressed +
+                ", spectator=" + spectator +
+                '}';
+    }
+}
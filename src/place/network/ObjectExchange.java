@@ -0,0 +1,153 @@
+package place.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The original protocol: each request is a Java serialized object.
+ *
+ * An encoded request is serialized on its own stream, so it can be written to
+ * any number of exchanges.  It starts with a reset, so the other end forgets
+ * the classes and objects it has read so far, and this end resets its own
+ * object stream before writing to it again.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+class ObjectExchange implements PlaceExchange {
+    /** The connection */
+    private final Closeable connection;
+    /** The stream to the other end, under any compression */
+    private final OutputStream sink;
+    /** Requests going out */
+    private ObjectOutputStream out;
+    /** The stream under out, for encoded requests */
+    private OutputStream raw;
+    /** The stream under in */
+    private final InputStream source;
+    /** Requests coming in */
+    private ObjectInputStream in;
+    /** Held while sending */
+    private final ReentrantLock sendLock;
+    /** Has an encoded request been sent since out was last reset? */
+    private boolean stale;
+
+    /**
+     * Create an exchange over streams whose headers have been sent.  Waits
+     * for the other end's header.
+     *
+     * @param connection the connection, closed with the exchange
+     * @param out the object stream to the other end
+     * @param raw the stream under out
+     * @param in the stream from the other end, positioned at its header
+     * @throws IOException if the other end's header can't be read
+     */
+    ObjectExchange(Closeable connection, ObjectOutputStream out, OutputStream raw, InputStream in)
+            throws IOException {
+        this.connection = connection;
+        this.sink = raw;
+        this.out = out;
+        this.raw = raw;
+        this.source = in;
+        this.sendLock = new ReentrantLock();
+        this.in = new ObjectInputStream(in);
+    }
+
+    @Override
+    public void send(PlaceRequest<?> request) throws IOException {
+        this.sendLock.lock();
+        try {
+            if (this.stale) {
+                this.out.reset();
+                this.stale = false;
+            }
+            this.out.writeUnshared(request);
+            this.out.flush();
+        } finally {
+            this.sendLock.unlock();
+        }
+    }
+
+    @Override
+    public void send(EncodedRequest request) throws IOException {
+        byte[] bytes = request.getObject();
+        this.sendLock.lock();
+        try {
+            this.out.flush();
+            this.raw.write(bytes);
+            this.raw.flush();
+            this.stale = true;
+        } finally {
+            this.sendLock.unlock();
+        }
+    }
+
+    @Override
+    public Lock getSendLock() {
+        return this.sendLock;
+    }
+
+    @Override
+    public PlaceRequest<?> receive() throws IOException, ClassNotFoundException {
+        return (PlaceRequest<?>) this.in.readUnshared();
+    }
+
+    /**
+     * A new object stream goes on top of the compression, so it starts with a
+     * header and forgets what was sent before, like the other end's new one.
+     */
+    @Override
+    public void compressSending() throws IOException {
+        this.sendLock.lock();
+        try {
+            this.out.flush();
+            this.raw = Compression.deflating(this.sink);
+            this.out = new ObjectOutputStream(this.raw);
+            this.out.flush();
+            this.stale = false;
+        } finally {
+            this.sendLock.unlock();
+        }
+    }
+
+    @Override
+    public void compressReceiving() throws IOException {
+        this.in = new ObjectInputStream(Compression.inflating(this.source));
+    }
+
+    @Override
+    public boolean isBinary() { return false; }
+
+    @Override
+    public void close() throws IOException {
+        this.connection.close();
+    }
+
+    /**
+     * Serialize a request so it can be written to any object stream.
+     *
+     * @param request the request
+     * @return a reset, then the request
+     * @throws IOException if the request can't be serialized
+     */
+    static byte[] encode(PlaceRequest<?> request) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(ObjectStreamConstants.TC_RESET);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeUnshared(request);
+        out.flush();
+        byte[] stream = bytes.toByteArray();
+        //drop the stream header, which goes after the reset
+        byte[] encoded = new byte[stream.length - 4];
+        encoded[0] = stream[0];
+        System.arraycopy(stream, 5, encoded, 1, encoded.length - 1);
+        return encoded;
+    }
+}
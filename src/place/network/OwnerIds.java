@@ -0,0 +1,78 @@
+package place.network;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The ids the usernames in binary tile frames are sent as.  There are at
+ * most {@link #CAPACITY} of them; once they have all been handed out, the
+ * id handed out longest ago goes to the next new username.  That is safe
+ * because an exchange sends a NAME frame whenever the username it last sent
+ * for an id isn't the one a frame means, so the ids only have to stay put
+ * while a frame is being encoded.
+ *
+ * A room shares one set of ids among its broadcasts, so a user hears each
+ * username once for as long as it keeps its id; each exchange has its own
+ * for everything else it sends.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public final class OwnerIds {
+    /** The most ids, well below the 2^28 a tile frame has room for */
+    final static int CAPACITY = 1 << 16;
+
+    /** Username to id */
+    private final Map<String, Integer> ids;
+    /** Id to username, only the first size entries are used */
+    private String[] names;
+    /** The number of ids handed out, at most CAPACITY */
+    private int size;
+    /** Once every id is handed out, the id to hand out next */
+    private int next;
+
+    /**
+     * Create a set of ids with none handed out.
+     */
+    public OwnerIds() {
+        this.ids = new HashMap<>();
+        this.names = new String[16];
+    }
+
+    /**
+     * Get the id of a username, handing it one if it doesn't have one.  An id
+     * already used in the frame being encoded is never handed out again.
+     *
+     * @param name the username
+     * @param frame the ids used so far in the frame, by id
+     * @return the id
+     * @throws IOException if the frame already uses every id
+     */
+    synchronized int intern(String name, Map<Integer, String> frame) throws IOException {
+        Integer id = this.ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        int given;
+        if (this.size < CAPACITY) {
+            if (this.size == this.names.length) {
+                this.names = Arrays.copyOf(this.names, this.size * 2);
+            }
+            given = this.size++;
+        } else {
+            if (frame.size() >= CAPACITY) {
+                throw new IOException("Too many usernames in one frame");
+            }
+            while (frame.containsKey(this.next)) {
+                this.next = (this.next + 1) % CAPACITY;
+            }
+            given = this.next;
+            this.next = (this.next + 1) % CAPACITY;
+            this.ids.remove(this.names[given]);
+        }
+        this.names[given] = name;
+        this.ids.put(name, given);
+        return given;
+    }
+}
@@ -0,0 +1,194 @@
+package place.network;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * One end of a connection between the server and a client, over which
+ * PlaceRequests are sent and received.  There are two ways to put a request
+ * on the wire: Java object serialization, which every client understands,
+ * and a compact binary protocol.  The client picks one with the first bytes
+ * it sends.
+ *
+ * The server always starts by sending the header of a Java object stream,
+ * so a client that opens its object input stream before sending anything
+ * still works.  A binary client skips it.
+ *
+ * Sending is thread safe.  To send several requests with nothing from
+ * another thread in between, send them while holding the exchange's send
+ * lock.
+ *
+ * An exchange doesn't need a socket of its own.  A server that reads without
+ * waiting can give it streams over its own buffers, and only receive once
+ * binaryLength says a whole request has arrived.
+ *
+ * @author Sean Strout @ RIT CS
+ */
+public interface PlaceExchange extends Closeable {
+    /** The first bytes a binary client sends ("PLCB") */
+    int BINARY_MAGIC = 0x504C4342;
+    /**
+     * The size of the buffer the server reads a client through, in bytes.
+     * Clients send little, and a server can have a great many of them idle.
+     */
+    int SERVER_BUFFER = 1024;
+    /**
+     * The largest request the server accepts in the binary protocol, in
+     * bytes.  It has room for a few thousand chunk indices or hash tree nodes,
+     * more than a client asks for at once.
+     */
+    int MAX_REQUEST = 1 << 14;
+    /**
+     * The longest username the server accepts, in characters.
+     */
+    int MAX_USERNAME = 64;
+
+    /**
+     * Send a request.
+     *
+     * @param request the request
+     * @throws IOException if the connection fails
+     */
+    void send(PlaceRequest<?> request) throws IOException;
+
+    /**
+     * Send a request that is being sent to other exchanges too, using the
+     * bytes it was encoded to for this protocol.
+     *
+     * @param request the encoded request
+     * @throws IOException if the connection fails
+     */
+    void send(EncodedRequest request) throws IOException;
+
+    /**
+     * Get the lock that sending holds.  It is a lock rather than the
+     * exchange's monitor, so a virtual thread that blocks on the connection
+     * while holding it doesn't hold on to its carrier thread too.
+     *
+     * @return the lock
+     */
+    Lock getSendLock();
+
+    /**
+     * Wait for the next request from the other end.
+     *
+     * @return the request, or null if the other end has finished sending
+     * @throws IOException if the connection fails or what arrives isn't a request
+     * @throws ClassNotFoundException if a serialized request refers to a missing class
+     */
+    PlaceRequest<?> receive() throws IOException, ClassNotFoundException;
+
+    /**
+     * Compress everything this end sends from now on.  The server does this
+     * right after sending LOGIN_SUCCESS to a client that asked for it.
+     *
+     * @throws IOException if the connection fails
+     */
+    void compressSending() throws IOException;
+
+    /**
+     * Decompress everything this end receives from now on.  The client does
+     * this right after receiving LOGIN_SUCCESS, if it asked for compression.
+     *
+     * @throws IOException if the connection fails
+     */
+    void compressReceiving() throws IOException;
+
+    /**
+     * Does this exchange use the binary protocol?
+     *
+     * @return true for the binary protocol, false for Java serialization
+     */
+    boolean isBinary();
+
+    /**
+     * Set up the server's end of a new connection, using whichever protocol
+     * the client picked.
+     *
+     * @param socket the client's socket
+     * @return the exchange
+     * @throws IOException if the connection fails or the client's first bytes are not understood
+     */
+    static PlaceExchange accept(Socket socket) throws IOException {
+        ObjectOutputStream header = new ObjectOutputStream(socket.getOutputStream());
+        header.flush();
+        return accept(socket, new BufferedInputStream(socket.getInputStream(), SERVER_BUFFER),
+                socket.getOutputStream());
+    }
+
+    /**
+     * Set up the server's end of a new connection that has already been sent
+     * the header of a Java object stream, using whichever protocol the
+     * client picked.
+     *
+     * @param connection the connection, closed with the exchange
+     * @param in the stream from the client, from the first byte it sent,
+     *           which must support mark
+     * @param out the stream to the client
+     * @return the exchange
+     * @throws IOException if the connection fails or the client's first bytes are not understood
+     */
+    static PlaceExchange accept(Closeable connection, InputStream in, OutputStream out) throws IOException {
+        in.mark(4);
+        int first = in.read();
+        int second = in.read();
+        if (first == 0xAC && second == 0xED) {
+            in.reset();
+            //the header is already on its way
+            ObjectOutputStream objects = new ObjectOutputStream(out) {
+                @Override
+                protected void writeStreamHeader() {
+                }
+            };
+            return new ObjectExchange(connection, objects, out, in);
+        }
+        int third = in.read();
+        int fourth = in.read();
+        if ((first << 24 | second << 16 | third << 8 | fourth) == BINARY_MAGIC) {
+            return new BinaryExchange(connection, in, out, true);
+        }
+        throw new StreamCorruptedException("Unknown protocol from " + connection);
+    }
+
+    /**
+     * Find how many bytes make up the next request in the binary protocol,
+     * so a server that reads without waiting knows when it can receive.
+     *
+     * @param bytes the bytes the exchange hasn't received yet, from position
+     *              to limit, which are left as they are
+     * @return the number of bytes, or 0 if the request hasn't all arrived
+     * @throws StreamCorruptedException if the bytes aren't the binary protocol
+     */
+    static int binaryLength(ByteBuffer bytes) throws StreamCorruptedException {
+        return BinaryExchange.length(bytes);
+    }
+
+    /**
+     * Set up a client's end of a new connection.
+     *
+     * @param socket the socket connected to the server
+     * @param binary true for the binary protocol, false for Java serialization
+     * @return the exchange
+     * @throws IOException if the connection fails
+     */
+    static PlaceExchange connect(Socket socket, boolean binary) throws IOException {
+        if (!binary) {
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            out.flush();
+            return new ObjectExchange(socket, out, socket.getOutputStream(),
+                    new BufferedInputStream(socket.getInputStream()));
+        }
+        BinaryExchange exchange = new BinaryExchange(socket, new BufferedInputStream(socket.getInputStream()),
+                socket.getOutputStream(), false);
+        exchange.greet();
+        return exchange;
+    }
+}
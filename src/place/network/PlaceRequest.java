@@ -8,21 +8,48 @@ import java.io.Serializable;
  * PlaceExchange.
  *
  * @param <E> the data type (depends on the request type):<br>
+ *      ACK: ChangeReply object<br>
  *      BOARD: PlaceBoard object<br>
  *      CHANGE_TILE: PlaceTile object<br>
+ *      CHUNK: int[] from the client, ChunkTransfer object from the server<br>
  *      ERROR: String<br>
- *      LOGIN: String<br>
+ *      HASHES: int[] from the client, long[] from the server<br>
+ *      LOGIN: String or LoginInfo object<br>
  *      LOGIN_SUCCESS: String<br>
+ *      NACK: ChangeReply object<br>
+ *      RESIZE: Integer<br>
+ *      SUBSCRIBE: int[], or null<br>
  *      TILE_CHANGED: PlaceTile object<br>
+ *      TILES_CHANGED: PlaceTile[]<br>
+ *      TOKEN: Long<br>
+ *
+ * The server numbers every broadcast in a room, TILE_CHANGED and RESIZE, in
+ * the order it is sent, so a client that loses its connection can log in
+ * again with the number of the last one it applied and be sent just the ones
+ * it missed.  Other requests have the number 0, apart from the ones that say
+ * where a client's numbering starts: see BOARD and LOGIN_SUCCESS.  A
+ * TILES_CHANGED stands for a run of TILE_CHANGED and has the number of the
+ * last one.  A client can number its CHANGE_TILE requests itself, so the
+ * server answers them: see ACK and NACK.
  *
  * @author Sean Strout @ RIT CS
  */
 public class PlaceRequest<E extends Serializable> implements Serializable {
     public enum RequestType {
+        /**
+         * Used by the server to tell a client a tile change it numbered was
+         * made, once the change is on the board.  It will contain a
+         * ChangeReply object with the client's number.  It can arrive
+         * before the TILE_CHANGED of the change.
+         */
+        ACK,
+
         /**
          * After a successful client login, the server will send the current
          * Board to the client.  This is only sent once - afterwards the
-         * only information transmitted are the tile changes.
+         * only information transmitted are the tile changes.  Its sequence
+         * number is that of the last broadcast already on the board, so
+         * broadcasts numbered up to it can be skipped.
          */
         BOARD,
 
@@ -30,10 +57,21 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
          * A client's request to the server to change a tile.  It will contain
          * a Tile object.  It is important to note that the client should not
          * change the tile in their board until it is acknowledged by the server
-         * via the TILE_CHANGED request.
+         * via the TILE_CHANGED request.  A client that gives it a sequence
+         * number of its own, increasing from 1, is answered with an ACK or a
+         * NACK with that number; one numbered 0 gets no answer.
          */
         CHANGE_TILE,
 
+        /**
+         * Used by a client to ask for copies of chunks of the board, usually
+         * the ones its hashes showed to be different.  It will contain an
+         * int[] of chunk indices.  The server answers with one CHUNK per
+         * index, each containing a ChunkTransfer object, and later
+         * TILE_CHANGED requests apply on top of it.
+         */
+        CHUNK,
+
         /**
          * Used for the server to tell the client there was an error.  It will
          * contain a message about the error. One place this is used is to tell
@@ -43,31 +81,94 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
          */
         ERROR,
 
+        /**
+         * Used by a client to check its board against the server's.  It will
+         * contain an int[] of nodes of the ChunkHashTree.  The server answers
+         * in order, with a long[] of the hashes of those nodes on its board.
+         * The client goes down into the children of the nodes that differ
+         * from its own until it reaches chunks, which it asks for with CHUNK.
+         */
+        HASHES,
+
         /**
          * Used by the client to login to the server.  It will contain a string
-         * that is the desired username for the client.
+         * that is the desired username for the client, or a LoginInfo object
+         * with the username and the name of the room to join.
          */
         LOGIN,
 
         /**
          * Used by the server to indicate to the client the login succeeded.
-         * It will contain a string indicating this.
+         * It will contain a string indicating this.  When a client resumes
+         * and the broadcasts it missed are still at hand, its sequence number
+         * is the one the client gave, and the missed broadcasts follow instead
+         * of the BOARD.  Otherwise it is 0 and the BOARD follows.
          */
         LOGIN_SUCCESS,
 
+        /**
+         * Used by the server to tell a client a tile change it numbered was
+         * turned down.  It will contain a ChangeReply object with the
+         * client's number, the reason, and how long to wait if the change
+         * came too soon after the last one.
+         */
+        NACK,
+
+        /**
+         * Used by the server to tell all clients the board has grown.  It
+         * will contain the new dimension as an Integer.  The new tiles are
+         * white, so the clients grow their boards themselves, and tile
+         * changes in the new area only arrive after this.
+         */
+        RESIZE,
+
+        /**
+         * Used by a client to say which parts of the board it wants tile
+         * changes for.  It will contain an int[] of rectangles, four ints
+         * each: the top row, left column, height and width in tiles, or
+         * null for the whole board, which is what a client gets until it
+         * subscribes.  It replaces the client's last subscription.  The
+         * server answers with a CHUNK for each chunk newly covered, and
+         * from then on only sends the TILE_CHANGED and TILES_CHANGED of
+         * the chunks the rectangles cover.  Rectangles are cut down to the
+         * board, so a client subscribes again after a RESIZE to see the new
+         * area.
+         */
+        SUBSCRIBE,
+
+        /**
+         * Used by the server to tell all clients about several tile changes
+         * at once.  It will contain a PlaceTile[] with the last change to
+         * each tile, and has the sequence number of the last change.  The
+         * server gathers changes for a few milliseconds when it is busy, so
+         * it can send them this way.
+         */
+        TILES_CHANGED,
+
         /**
          * Used by the server to indicate to all clients that a tile has
          * officially been changed.  It will contain the new Tile object.
          * The clients should update their view of the board each time
          * a tile change arrives.
          */
-        TILE_CHANGED
+        TILE_CHANGED,
+
+        /**
+         * Used by the server, right after LOGIN_SUCCESS, to give a client
+         * that logged in with a LoginInfo object its resume token.  It will
+         * contain the token as a Long.  Only a client that resumes with the
+         * token from its last login can take its username over from a
+         * connection the server still thinks is open.
+         */
+        TOKEN
     }
 
     /** The request type */
     private RequestType type;
     /** The data associated with the request */
     private E data;
+    /** The number of the broadcast, or 0 */
+    private long sequence;
 
     /**
      * Create a new request.
@@ -76,8 +177,20 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
      * @param data the data
      */
     public PlaceRequest(RequestType type, E data) {
+        this(type, data, 0L);
+    }
+
+    /**
+     * Create a new request with a sequence number.
+     *
+     * @param type request type
+     * @param data the data
+     * @param sequence the number of the broadcast, or 0
+     */
+    public PlaceRequest(RequestType type, E data, long sequence) {
         this.type = type;
         this.data = data;
+        this.sequence = sequence;
     }
 
     /**
@@ -94,6 +207,23 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
      */
     public E getData() { return data; }
 
+    /**
+     * Get the sequence number of the request.
+     *
+     * @return the number of the broadcast, or 0
+     */
+    public long getSequence() { return sequence; }
+
+    /**
+     * Make a copy of the request with a sequence number.
+     *
+     * @param sequence the number
+     * @return the copy
+     */
+    public PlaceRequest<E> withSequence(long sequence) {
+        return new PlaceRequest<>(this.type, this.data, sequence);
+    }
+
     /**
      * Utility method for debugging only.
      *
@@ -104,6 +234,7 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
         return "PlaceRequest{" +
                 "type=" + type +
                 ", data=" + data +
+                (sequence != 0 ? ", sequence=" + sequence : "") +
                 '}';
     }
 }
@@ -0,0 +1,175 @@
+package place.network.test;
+
+import place.ChunkTransfer;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.ChangeReply;
+import place.network.LoginInfo;
+import place.network.PlaceExchange;
+import place.network.PlaceRequest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.FutureTask;
+
+import static place.network.PlaceRequest.RequestType.*;
+
+/**
+ * Checks that requests come out of the binary protocol the same as they went in: a request of every type, both ways,
+ * before and after compression. Also checks that a server's end turns down usernames longer than a client may send.
+ * Prints each failure and exits with 1 if there is any.
+ */
+public class ExchangeTest {
+    private final static int DIM = 150;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        PlaceBoard board = new PlaceBoard(DIM);
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; ++i) {
+            board.setTile(new PlaceTile(random.nextInt(DIM), random.nextInt(DIM), "user" + random.nextInt(40),
+                    PlaceColor.values()[random.nextInt(PlaceColor.values().length)], 1000L * random.nextInt(1 << 20)));
+        }
+
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            PlaceExchange[] ends = connect(serverSocket);
+            PlaceExchange client = ends[0];
+            PlaceExchange server = ends[1];
+
+            LoginInfo login = LoginInfo.joining("tester", "room", false).viewing(3, 4).resuming(77, 123456789L);
+            client.send(new PlaceRequest<>(LOGIN, login));
+            LoginInfo received = (LoginInfo) server.receive().getData();
+            check("login", received.toString().equals(login.toString()) && received.getToken() == login.getToken());
+
+            server.send(new PlaceRequest<>(LOGIN_SUCCESS, "welcome", 77));
+            PlaceRequest<?> success = client.receive();
+            check("login success", success.getData().equals("welcome") && success.getSequence() == 77);
+
+            for (boolean compressed : new boolean[] {false, true}) {
+                if (compressed) {
+                    server.compressSending();
+                    client.compressReceiving();
+                }
+                sameRequests(compressed ? " compressed" : "", client, server, board);
+            }
+            client.close();
+            server.close();
+
+            //a client only sends its own username, so a longer one is turned down
+            ends = connect(serverSocket);
+            char[] name = new char[PlaceExchange.MAX_USERNAME + 1];
+            Arrays.fill(name, 'x');
+            ends[0].send(new PlaceRequest<>(CHANGE_TILE, new PlaceTile(1, 1, new String(name), PlaceColor.RED, 0)));
+            try {
+                ends[1].receive();
+                check("long username turned down", false);
+            } catch (IOException e) {
+                //expected
+            }
+            ends[0].close();
+            ends[1].close();
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+        System.out.println("All exchanges passed.");
+    }
+
+    private static PlaceExchange[] connect(ServerSocket serverSocket) throws Exception {
+        //the client waits for the server's greeting, so the server accepts on its own thread
+        FutureTask<PlaceExchange> accepted = new FutureTask<>(() -> PlaceExchange.accept(serverSocket.accept()));
+        new Thread(accepted).start();
+        PlaceExchange client = PlaceExchange.connect(new Socket("localhost", serverSocket.getLocalPort()), true);
+        return new PlaceExchange[] {client, accepted.get()};
+    }
+
+    private static void sameRequests(String label, PlaceExchange client, PlaceExchange server, PlaceBoard board)
+            throws Exception {
+        //from the client
+        PlaceTile tile = new PlaceTile(5, 6, "tester", PlaceColor.RED, 42000);
+        client.send(new PlaceRequest<>(CHANGE_TILE, tile, 9));
+        PlaceRequest<?> change = server.receive();
+        check("change tile" + label, change.getData().toString().equals(tile.toString()) && change.getSequence() == 9);
+        int[] indices = {0, 3, 8};
+        client.send(new PlaceRequest<>(HASHES, indices));
+        check("hashes request" + label, Arrays.equals(indices, (int[]) server.receive().getData()));
+        client.send(new PlaceRequest<>(CHUNK, indices));
+        check("chunk request" + label, Arrays.equals(indices, (int[]) server.receive().getData()));
+        client.send(new PlaceRequest<>(SUBSCRIBE, null));
+        PlaceRequest<?> subscribe = server.receive();
+        check("subscribe" + label, subscribe.getType() == SUBSCRIBE && subscribe.getData() == null);
+
+        //from the server
+        server.send(new PlaceRequest<>(TOKEN, 987654321L));
+        check("token" + label, client.receive().getData().equals(987654321L));
+        server.send(new PlaceRequest<>(BOARD, board, 12));
+        PlaceRequest<?> sent = client.receive();
+        check("board" + label, sameTiles(board, (PlaceBoard) sent.getData()) && sent.getSequence() == 12);
+        server.send(new PlaceRequest<>(CHUNK, board.exportChunk(2, true)));
+        PlaceBoard chunked = new PlaceBoard(DIM);
+        chunked.importChunk((ChunkTransfer) client.receive().getData());
+        check("chunk" + label, sameChunk(board, chunked, 2));
+        long[] hashes = {1L, -2L, Long.MAX_VALUE};
+        server.send(new PlaceRequest<>(HASHES, hashes));
+        check("hashes" + label, Arrays.equals(hashes, (long[]) client.receive().getData()));
+        server.send(new PlaceRequest<>(TILE_CHANGED, tile, 13));
+        PlaceRequest<?> changed = client.receive();
+        check("tile changed" + label, changed.getData().toString().equals(tile.toString())
+                && changed.getSequence() == 13);
+        PlaceTile[] tiles = {tile, new PlaceTile(1, 2, "other", PlaceColor.BLUE, 43000)};
+        server.send(new PlaceRequest<>(TILES_CHANGED, tiles, 15));
+        PlaceRequest<?> batch = client.receive();
+        check("tiles changed" + label, Arrays.toString((PlaceTile[]) batch.getData()).equals(Arrays.toString(tiles))
+                && batch.getSequence() == 15);
+        server.send(new PlaceRequest<>(RESIZE, DIM * 2));
+        check("resize" + label, client.receive().getData().equals(DIM * 2));
+        ChangeReply ack = new ChangeReply(9, null, 250);
+        server.send(new PlaceRequest<>(ACK, ack));
+        check("ack" + label, client.receive().getData().toString().equals(ack.toString()));
+        ChangeReply nack = new ChangeReply(10, "Too soon after the last change", 100);
+        server.send(new PlaceRequest<>(NACK, nack));
+        check("nack" + label, client.receive().getData().toString().equals(nack.toString()));
+        server.send(new PlaceRequest<>(ERROR, "error"));
+        check("error" + label, client.receive().getData().equals("error"));
+    }
+
+    private static boolean sameTiles(PlaceBoard expected, PlaceBoard actual) {
+        for (int row = 0; row < expected.DIM; ++row) {
+            for (int col = 0; col < expected.DIM; ++col) {
+                if (!expected.getTile(row, col).toString().equals(actual.getTile(row, col).toString())) {
+                    return false;
+                }
+            }
+        }
+        return expected.DIM == actual.DIM;
+    }
+
+    private static boolean sameChunk(PlaceBoard expected, PlaceBoard actual, int index) {
+        boolean any = false;
+        for (int row = 0; row < expected.DIM; ++row) {
+            for (int col = 0; col < expected.DIM; ++col) {
+                if (PlaceBoard.chunkIndexOf(row, col) == index) {
+                    any = true;
+                    if (!expected.getTile(row, col).toString().equals(actual.getTile(row, col).toString())) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return any;
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            System.out.println("FAILED: " + name);
+            ++failures;
+        }
+    }
+}
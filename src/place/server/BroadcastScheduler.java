@@ -0,0 +1,91 @@
+package place.server;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class BroadcastScheduler
+ * Sends the broadcasts of every room from a small, shared pool of threads. Rooms with broadcasts waiting take turns:
+ * a thread sends at most QUANTUM of one room's broadcasts and then puts the room at the back of the line, so a busy
+ * room can't keep the threads from the others. A room is only ever handled by one thread at a time, so its users get
+ * its broadcasts in order. A room can ask to wait a little before its turn, so its broadcasts pile up and go out
+ * together.
+ */
+class BroadcastScheduler {
+    /** The most broadcasts sent from one room before the next room gets a turn */
+    private final static int QUANTUM = 4096;
+
+    private BlockingQueue<Turn> ready;
+
+    /**
+     * A room's place in line, which comes up once its wait is over.
+     */
+    private static class Turn implements Delayed {
+        private final ServerLog log;
+        private final long due;
+
+        /**
+         * Constructor method.
+         * @param log the room's log
+         * @param delay how long to wait, in milliseconds
+         */
+        Turn(ServerLog log, long delay) {
+            this.log = log;
+            this.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(due, ((Turn) other).due);
+        }
+    }
+
+    /**
+     * Constructor method. Starts the sending threads.
+     * @param threads the number of threads
+     */
+    BroadcastScheduler(int threads) {
+        ready = new DelayQueue<>();
+        for (int i = 0; i < threads; ++i) {
+            Thread thread = new Thread(this::run, "Broadcaster-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * schedule
+     * Puts a room's log in line to have its broadcasts sent. The log makes sure it is only in line once.
+     * @param log the room's log
+     * @param delay how long to wait before the log's turn, in milliseconds
+     */
+    void schedule(ServerLog log, long delay) {
+        ready.add(new Turn(log, delay));
+    }
+
+    /**
+     * run
+     * The sending threads' loop. Takes the next room in line and gives it a turn.
+     */
+    private void run() {
+        try {
+            while (true) {
+                ServerLog log = ready.take().log;
+                long delay = log.deliver(QUANTUM);
+                if (delay >= 0) {
+                    schedule(log, delay);
+                }
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Caught InterruptedException");
+            e.printStackTrace();
+        }
+    }
+}
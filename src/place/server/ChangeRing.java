@@ -0,0 +1,68 @@
+package place.server;
+
+import place.network.PlaceRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class ChangeRing
+ * Keeps the most recent broadcasts of a room, so a user who lost their connection can be sent just the ones they
+ * missed. Broadcasts are numbered one after another and kept in a fixed array, each overwriting the one CAPACITY
+ * numbers before it. Not thread safe; the room's ServerLog guards it.
+ */
+class ChangeRing {
+    /** The number of broadcasts kept */
+    final static int CAPACITY = 1 << 16;
+
+    private final PlaceRequest<?>[] ring;
+    private long last;
+
+    /**
+     * Constructor method. Numbering continues after the given number.
+     * @param last the number before the first broadcast's
+     */
+    ChangeRing(long last) {
+        this.ring = new PlaceRequest<?>[CAPACITY];
+        this.last = last;
+    }
+
+    /**
+     * add
+     * Numbers a broadcast and keeps it.
+     * @param request the broadcast
+     * @return the broadcast with its number
+     */
+    PlaceRequest<?> add(PlaceRequest<?> request) {
+        PlaceRequest<?> numbered = request.withSequence(++last);
+        ring[(int) (last % CAPACITY)] = numbered;
+        return numbered;
+    }
+
+    /**
+     * getLast
+     * @return the number of the last broadcast
+     */
+    long getLast() { return last; }
+
+    /**
+     * since
+     * Gets the broadcasts after a given one, if they are all still kept.
+     * @param sequence the number of the last broadcast already had
+     * @return the broadcasts in order, or null if some have been overwritten or the number was never handed out
+     */
+    List<PlaceRequest<?>> since(long sequence) {
+        if (sequence > last || last - sequence > CAPACITY) {
+            return null;
+        }
+        List<PlaceRequest<?>> missed = new ArrayList<>((int) (last - sequence));
+        for (long next = sequence + 1; next <= last; ++next) {
+            PlaceRequest<?> request = ring[(int) (next % CAPACITY)];
+            if (request == null || request.getSequence() != next) {
+                return null;
+            }
+            missed.add(request);
+        }
+        return missed;
+    }
+}
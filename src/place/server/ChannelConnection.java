@@ -0,0 +1,412 @@
+package place.server;
+
+import place.network.EncodedRequest;
+import place.network.PlaceExchange;
+import place.network.PlaceRequest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class ChannelConnection
+ * One client of an EventLoop: its socket channel, the bytes read from it that don't make a whole request yet, and the
+ * bytes waiting to be written to it. The client's exchange reads and writes these buffers instead of the socket, so it
+ * never waits. A request is only received once all of it has been read, and sending, from any thread, writes what the
+ * channel takes at once and leaves the rest for the loop to write when the channel has room. Broadcasts wait in the
+ * client's Outbox, and the loop only takes them out while little is waiting to be written, so a client who reads
+ * slowly fills their outbox and meets the room's policy, instead of filling the server's memory. A progressive
+ * client's chunks are sent the same way, after the broadcasts and a few at a time, so a login never keeps the loop
+ * from its other clients for long. A client whose request doesn't fit in MAX_BUFFER bytes is disconnected.
+ * Only the binary protocol can be read a piece at a time. A client that picks Java serialization is handed on to a
+ * PlaceServerThread of its own.
+ */
+class ChannelConnection implements Closeable {
+    /** The size the buffer for what the client sends starts at, in bytes */
+    private final static int BUFFER = 4096;
+    /** The most the buffer for what the client sends grows to, in bytes, with room for the largest request */
+    private final static int MAX_BUFFER = 2 * PlaceExchange.MAX_REQUEST;
+    /** The most chunks of a progressive client's board sent each time the client is pumped */
+    private final static int CHUNKS_PER_PUMP = 4;
+    /** The most bytes waiting to be written before broadcasts are left in the client's outbox */
+    private final static int PUMP_LIMIT = 65536;
+    /** The header of a Java object stream, which the server always sends first */
+    private final static byte[] HEADER = {
+            (byte) (ObjectStreamConstants.STREAM_MAGIC >> 8), (byte) ObjectStreamConstants.STREAM_MAGIC,
+            (byte) (ObjectStreamConstants.STREAM_VERSION >> 8), (byte) ObjectStreamConstants.STREAM_VERSION
+    };
+
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private final RoomList rooms;
+    private SelectionKey key;
+
+    /** What has been read and not yet received, ready to be read into */
+    private ByteBuffer inbound;
+    /** What is waiting to be written, oldest first */
+    private final Deque<ByteBuffer> outbound;
+    /** How many bytes are waiting to be written */
+    private int pending;
+    private PlaceExchange exchange;
+    private Session session;
+    /** Has the client's login been handled? */
+    private boolean loggedIn;
+    /** Are the client's requests being read? */
+    private volatile boolean reading;
+    private final AtomicBoolean closed;
+
+    /**
+     * Constructor method. Starts with nothing read or waiting to be written.
+     * @param channel the client's channel, which doesn't block
+     * @param loop the loop that serves the connection
+     * @param rooms the server's rooms
+     */
+    ChannelConnection(SocketChannel channel, EventLoop loop, RoomList rooms) {
+        this.channel = channel;
+        this.loop = loop;
+        this.rooms = rooms;
+        this.inbound = ByteBuffer.allocate(BUFFER);
+        this.outbound = new ArrayDeque<>();
+        this.reading = true;
+        this.closed = new AtomicBoolean();
+    }
+
+    /**
+     * start
+     * Sends the object stream header, which every client is sent before it picks a protocol.
+     * @param key the channel's key with the loop's selector
+     */
+    void start(SelectionKey key) {
+        this.key = key;
+        synchronized (outbound) {
+            outbound.add(ByteBuffer.wrap(HEADER.clone()));
+        }
+        write();
+    }
+
+    /**
+     * read
+     * Reads what the client has sent, and handles the requests it completes. Called by the loop when the channel has
+     * something to read.
+     */
+    void read() {
+        try {
+            if (channel.read(inbound) < 0) {
+                close();
+                return;
+            }
+        } catch (IOException e) {
+            System.err.println("Caught IOException");
+            e.printStackTrace();
+            closeQuietly();
+            return;
+        }
+        process();
+    }
+
+    /**
+     * write
+     * Writes what is waiting to be written, as far as the channel takes it. Called by the loop when the channel has
+     * room.
+     */
+    void write() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Caught IOException");
+            e.printStackTrace();
+            closeQuietly();
+            return;
+        }
+        pump();
+    }
+
+    /**
+     * pump
+     * Sends the broadcasts waiting in the client's outbox, then the next few chunks of a progressive client's board,
+     * until too much is waiting to be written; the rest are sent as the channel takes what is written. Called by the
+     * loop, when the outbox has something to send or the channel has had room.
+     */
+    void pump() {
+        Outbox outbox = session == null ? null : session.getOutbox();
+        if (outbox == null || closed.get()) {
+            return;
+        }
+        boolean again = false;
+        exchange.getSendLock().lock();
+        try {
+            EncodedRequest next;
+            while (pending() < PUMP_LIMIT && (next = outbox.poll()) != null) {
+                exchange.send(next);
+            }
+            for (int sent = 0; sent < CHUNKS_PER_PUMP && pending() < PUMP_LIMIT; ++sent) {
+                if (!session.streamChunk()) {
+                    break;
+                }
+            }
+            //with room to write, nothing else pumps the client again, so the loop does once it has served the others
+            again = session.isStreaming() && pending() < PUMP_LIMIT;
+        } catch (IOException e) {
+            System.err.println("Caught IOException");
+            e.printStackTrace();
+            closeQuietly();
+        } finally {
+            exchange.getSendLock().unlock();
+        }
+        if (again) {
+            loop.pump(this);
+        }
+    }
+
+    /**
+     * handOn
+     * Passes a Java serialization client on to a PlaceServerThread, with what it has sent so far. Called by the loop
+     * once the channel has left the selector, so it can block again.
+     */
+    void handOn() {
+        try {
+            channel.configureBlocking(true);
+            synchronized (outbound) {
+                for (ByteBuffer bytes : outbound) {
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                }
+                outbound.clear();
+                pending = 0;
+            }
+            inbound.flip();
+            byte[] sent = new byte[inbound.remaining()];
+            inbound.get(sent);
+            Socket socket = channel.socket();
+            InputStream in = new BufferedInputStream(
+                    new SequenceInputStream(new ByteArrayInputStream(sent), socket.getInputStream()),
+                    PlaceExchange.SERVER_BUFFER);
+            new Thread(new PlaceServerThread(socket, in, rooms, PlaceServer.WRITERS), "PlaceServerThread").start();
+        } catch (IOException e) {
+            System.err.println("Caught IOException");
+            e.printStackTrace();
+            closeQuietly();
+        }
+    }
+
+    /**
+     * close
+     * Closes the channel, and logs the user out if they logged in. Safe to call from any thread, any number of times.
+     * @throws IOException if closing the channel fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            reading = false;
+            channel.close();
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return channel.socket().getRemoteSocketAddress().toString();
+    }
+
+    /**
+     * process
+     * Helper method to handle every whole request that has been read, unless the client isn't read from anymore. The
+     * first bytes pick the protocol.
+     */
+    private void process() {
+        inbound.flip();
+        try {
+            while (reading && inbound.hasRemaining()) {
+                if (exchange == null) {
+                    if (inbound.remaining() < 2) {
+                        break;
+                    }
+                    int first = inbound.position();
+                    if (inbound.get(first) == HEADER[0] && inbound.get(first + 1) == HEADER[1]) {
+                        reading = false;
+                        key.cancel();
+                        loop.handOn(this);
+                        break;
+                    }
+                    if (inbound.remaining() < 4) {
+                        break;
+                    }
+                    exchange = PlaceExchange.accept(this, new Inbound(), new Outbound());
+                    session = new Session(exchange, rooms, () -> loop.pump(this));
+                    continue;
+                }
+                if (PlaceExchange.binaryLength(inbound) == 0) {
+                    break;
+                }
+                PlaceRequest<?> request = exchange.receive();
+                if (!loggedIn) {
+                    loggedIn = true;
+                    if (!session.login(request)) {
+                        reading = false;
+                        updateInterest();
+                    }
+                } else {
+                    session.handle(request);
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Caught " + e.getClass().getSimpleName());
+            e.printStackTrace();
+            closeQuietly();
+        }
+        inbound.compact();
+        if (!inbound.hasRemaining() && reading) {
+            //a request bigger than the buffer is still coming, unless it is bigger than any a client may send
+            if (inbound.capacity() >= MAX_BUFFER) {
+                System.out.println("Dropped a client whose request was too big.");
+                closeQuietly();
+                return;
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(inbound.capacity() * 2);
+            inbound.flip();
+            bigger.put(inbound);
+            inbound = bigger;
+        }
+    }
+
+    /**
+     * flush
+     * Helper method to write what is waiting to be written, until the channel takes no more.
+     * @throws IOException if writing fails
+     */
+    private void flush() throws IOException {
+        synchronized (outbound) {
+            ByteBuffer next;
+            while ((next = outbound.peek()) != null) {
+                pending -= channel.write(next);
+                if (next.hasRemaining()) {
+                    break;
+                }
+                outbound.poll();
+            }
+            updateInterest();
+        }
+    }
+
+    /**
+     * pending
+     * Helper method to count the bytes waiting to be written.
+     * @return the number of bytes
+     */
+    private int pending() {
+        synchronized (outbound) {
+            return pending;
+        }
+    }
+
+    /**
+     * updateInterest
+     * Helper method to tell the selector what the loop should wait for on this channel: something to read, if the
+     * client's requests are being read, and room to write, if anything is waiting to be written.
+     */
+    private void updateInterest() {
+        synchronized (outbound) {
+            int ops = (reading ? SelectionKey.OP_READ : 0)
+                    | (outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+            try {
+                if (key.interestOps() != ops) {
+                    key.interestOps(ops);
+                    if (Thread.currentThread() != loop) {
+                        loop.wake();
+                    }
+                }
+            } catch (CancelledKeyException e) {
+                //closed, or handed on
+            }
+        }
+    }
+
+    /**
+     * closeQuietly
+     * Helper method to close a connection that has already failed.
+     */
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            //already broken
+        }
+    }
+
+    /**
+     * Class Inbound
+     * The exchange's stream from the client: what has been read and not yet received.
+     */
+    private class Inbound extends InputStream {
+        @Override
+        public int read() {
+            return inbound.hasRemaining() ? inbound.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!inbound.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, inbound.remaining());
+            inbound.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public boolean markSupported() { return true; }
+
+        @Override
+        public void mark(int limit) { inbound.mark(); }
+
+        @Override
+        public void reset() { inbound.reset(); }
+    }
+
+    /**
+     * Class Outbound
+     * The exchange's stream to the client. Writing queues a copy of the bytes, and flushing writes what the channel
+     * takes at once.
+     */
+    private class Outbound extends OutputStream {
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (len > 0) {
+                synchronized (outbound) {
+                    outbound.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+                    pending += len;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ChannelConnection.this.flush();
+        }
+    }
+}
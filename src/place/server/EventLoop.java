@@ -0,0 +1,153 @@
+package place.server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Class EventLoop
+ * A thread that serves many clients at once without waiting on any of them, for the server's non-blocking engine. The
+ * clients' socket channels are registered with the loop's Selector, and whenever one has something to read the loop
+ * reads it, hands every whole request to the client's Session, and goes on to the next. What can't be written to a
+ * client at once is written when its channel has room, and the broadcasts in a client's outbox and a progressive
+ * client's chunks are sent a few at a time between the other clients. The server runs one loop per core and deals
+ * new connections out to them in turn.
+ */
+class EventLoop extends Thread {
+    private final Selector selector;
+    private final RoomList rooms;
+    /** Connections accepted and not yet registered with the selector */
+    private final Queue<SocketChannel> accepted;
+    /** Connections whose outboxes have something to send, or with chunks to send */
+    private final Queue<ChannelConnection> pumping;
+    /** Java serialization connections to hand on to threads, once their channels leave the selector */
+    private final List<ChannelConnection> handingOn;
+
+    /**
+     * Constructor method. Opens the loop's selector.
+     * @param number which of the server's loops this is, for its name
+     * @param rooms the server's rooms
+     * @throws IOException if the selector can't be opened
+     */
+    EventLoop(int number, RoomList rooms) throws IOException {
+        super("EventLoop-" + number);
+        this.selector = Selector.open();
+        this.rooms = rooms;
+        this.accepted = new ConcurrentLinkedQueue<>();
+        this.handingOn = new ArrayList<>();
+        this.pumping = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * add
+     * Gives the loop a new connection to serve. Safe to call from any thread.
+     * @param channel the client's channel, just accepted
+     */
+    void add(SocketChannel channel) {
+        accepted.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * wake
+     * Makes the loop look again at what its connections are waiting for, after another thread changed it.
+     */
+    void wake() {
+        selector.wakeup();
+    }
+
+    /**
+     * pump
+     * Has the loop send what is waiting in a connection's outbox and the next few chunks of its board, once it has
+     * served the others. Safe to call from any thread.
+     * @param connection the connection
+     */
+    void pump(ChannelConnection connection) {
+        pumping.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * handOn
+     * Passes a connection on to a PlaceServerThread once its channel has left the selector. Called on the loop's
+     * thread, after the connection's key is cancelled.
+     * @param connection the connection
+     */
+    void handOn(ChannelConnection connection) {
+        handingOn.add(connection);
+    }
+
+    /**
+     * run
+     * The loop's looping run method. Waits for connections to be ready, then serves them.
+     */
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+
+                SocketChannel channel;
+                while ((channel = accepted.poll()) != null) {
+                    register(channel);
+                }
+                //only the ones queued before this turn, since a connection pumped now may queue itself again
+                for (int count = pumping.size(); count > 0; --count) {
+                    pumping.poll().pump();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ChannelConnection connection = (ChannelConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (CancelledKeyException e) {
+                        //closed by another thread
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                if (!handingOn.isEmpty()) {
+                    //a channel can only block again once the selector has let go of its cancelled key
+                    selector.selectNow();
+                    for (ChannelConnection connection : handingOn) {
+                        connection.handOn();
+                    }
+                    handingOn.clear();
+                }
+            } catch (IOException e) {
+                System.err.println("Caught IOException");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * register
+     * Helper method to start serving a new connection.
+     * @param channel the client's channel
+     */
+    private void register(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            ChannelConnection connection = new ChannelConnection(channel, this, rooms);
+            connection.start(channel.register(selector, SelectionKey.OP_READ, connection));
+        } catch (IOException e) {
+            System.err.println("Caught IOException");
+            e.printStackTrace();
+            try {
+                channel.close();
+            } catch (IOException closing) {
+                //already broken
+            }
+        }
+    }
+}
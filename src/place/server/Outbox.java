@@ -0,0 +1,317 @@
+package place.server;
+
+import place.network.EncodedRequest;
+import place.network.PlaceExchange;
+import place.network.PlaceRequest;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class Outbox
+ * The broadcasts waiting to be sent to one user, in a queue of their own, so the room's log only ever adds to queues
+ * and a user who reads slowly holds up nobody but themselves. The queue is drained by a writer thread of the user's
+ * own, which waits on it, or, for a connection that never blocks, by its EventLoop, which the outbox wakes whenever
+ * there is something to send.
+ * The queue holds at most the log's queue size. When a broadcast finds it full, the log's policy decides what happens:
+ *   CONFLATE - the tile changes waiting are merged, keeping only the latest change to each tile
+ *   RESYNC - what is waiting is dropped, and the user is sent the room's snapshot and the broadcasts since it instead
+ *   DISCONNECT - the user is dropped
+ * If merging doesn't free half the queue, or the broadcasts since the snapshot are no longer kept, the user is
+ * dropped too.
+ */
+class Outbox {
+    /**
+     * What to do when a user's queue is full.
+     */
+    enum Policy { CONFLATE, RESYNC, DISCONNECT }
+
+    private final PlaceExchange exchange;
+    private final Room room;
+    /** Does the user want the owners and times of the tiles with the board? */
+    private final boolean metadata;
+    /** Did the user log in with just a username, so they only understand one TILE_CHANGED at a time? */
+    private final boolean legacy;
+    /** What to call when there is something to send, or null if the user's writer waits on the queue */
+    private final Runnable wake;
+    /** The token a resuming user must give to take this outbox's username over, or 0 if none can */
+    private final long token;
+
+    private final Deque<EncodedRequest> queue;
+    private final ReentrantLock lock;
+    /** Signalled when something is queued, or the user is dropped */
+    private final Condition ready;
+    /** Is the EventLoop sending, or about to? */
+    private boolean writing;
+    /** Has the user been dropped, so nothing more is queued? */
+    private boolean dropped;
+
+    /**
+     * Constructor method. Starts empty.
+     * @param exchange the user's exchange
+     * @param room the room the user is in
+     * @param metadata does the user want the owners and times of the tiles with the board?
+     * @param legacy did the user log in with just a username, so they only understand one TILE_CHANGED at a time?
+     * @param wake what to call when there is something to send, which must then poll until it gets null, or null if a
+     *             thread of the user's own runs write
+     * @param token the token a resuming user must give to take the username over, or 0 if none can
+     */
+    Outbox(PlaceExchange exchange, Room room, boolean metadata, boolean legacy, Runnable wake, long token) {
+        this.exchange = exchange;
+        this.room = room;
+        this.metadata = metadata;
+        this.legacy = legacy;
+        this.wake = wake;
+        this.token = token;
+        this.queue = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.ready = lock.newCondition();
+    }
+
+    /**
+     * getExchange
+     * @return the user's exchange
+     */
+    PlaceExchange getExchange() { return exchange; }
+
+    /**
+     * getToken
+     * @return the token a resuming user must give to take the username over, or 0 if none can
+     */
+    long getToken() { return token; }
+
+    /**
+     * isLegacy
+     * @return true if the user logged in with just a username, so they only understand one TILE_CHANGED at a time
+     */
+    boolean isLegacy() { return legacy; }
+
+    /**
+     * offer
+     * Queues a broadcast for the user, or an answer to one of their tile changes, applying the log's policy if the
+     * queue is full, and lets the writer or the EventLoop know. Never waits on the user.
+     * @param request the broadcast or answer
+     */
+    void offer(EncodedRequest request) {
+        ServerLog log = room.getLog();
+        boolean start = false;
+        boolean dropping = false;
+        lock.lock();
+        try {
+            if (dropped) {
+                return;
+            }
+            if (queue.size() < log.getQueueSize()) {
+                queue.add(request);
+            } else if (!overflow(log, request)) {
+                queue.clear();
+                dropped = true;
+                dropping = true;
+            }
+            if (wake == null) {
+                ready.signal();
+            } else if (!dropped && !writing) {
+                writing = true;
+                start = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (dropping) {
+            drop(log);
+        } else if (start) {
+            wake.run();
+        }
+    }
+
+    /**
+     * poll
+     * Takes the next broadcast to send, for the EventLoop.
+     * @return the broadcast, or null if there is none, after which the next one queued wakes the loop again
+     */
+    EncodedRequest poll() {
+        lock.lock();
+        try {
+            EncodedRequest next = queue.poll();
+            if (next == null) {
+                writing = false;
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * clear
+     * Drops whatever is waiting, for a user who has left, and stops their writer.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            queue.clear();
+            dropped = true;
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * close
+     * Closes the user's connection.
+     * @throws IOException if closing fails
+     */
+    void close() throws IOException {
+        clear();
+        exchange.close();
+    }
+
+    /**
+     * write
+     * The writer thread's run method. Waits for broadcasts and sends them, until the user leaves or is dropped. A user
+     * whose connection fails is dropped.
+     */
+    void write() {
+        EncodedRequest next;
+        while ((next = take()) != null) {
+            try {
+                exchange.send(next);
+            } catch (IOException e) {
+                //a user dropped for falling behind has had their connection closed already
+                boolean dropping;
+                lock.lock();
+                try {
+                    queue.clear();
+                    dropping = !dropped;
+                    dropped = true;
+                } finally {
+                    lock.unlock();
+                }
+                if (dropping) {
+                    System.err.println("Caught IOException");
+                    e.printStackTrace();
+                    drop(room.getLog());
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * take
+     * Helper method for write that waits for the next broadcast to send.
+     * @return the broadcast, or null once the user has left or been dropped
+     */
+    private EncodedRequest take() {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !dropped) {
+                ready.awaitUninterruptibly();
+            }
+            return queue.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * overflow
+     * Helper method that applies the log's policy to a full queue, called with the lock held. The answers to the
+     * user's tile changes are kept whatever the policy, and sent first.
+     * @param log the room's log
+     * @param request the broadcast or answer that didn't fit
+     * @return false if the user should be dropped
+     */
+    private boolean overflow(ServerLog log, EncodedRequest request) {
+        List<EncodedRequest> answers = new ArrayList<>();
+        queue.add(request);
+        for (Iterator<EncodedRequest> queued = queue.iterator(); queued.hasNext(); ) {
+            EncodedRequest next = queued.next();
+            if (isAnswer(next)) {
+                answers.add(next);
+                queued.remove();
+            }
+        }
+        EncodedRequest last = queue.pollLast();
+        boolean kept = last == null || overflowBroadcasts(log, last);
+        for (int i = answers.size() - 1; i >= 0; --i) {
+            queue.addFirst(answers.get(i));
+        }
+        return kept;
+    }
+
+    /**
+     * isAnswer
+     * Helper method to tell an answer to a tile change from a broadcast.
+     * @param request the request
+     * @return true for an ACK or a NACK
+     */
+    private static boolean isAnswer(EncodedRequest request) {
+        PlaceRequest.RequestType type = request.getRequest().getType();
+        return type == PlaceRequest.RequestType.ACK || type == PlaceRequest.RequestType.NACK;
+    }
+
+    /**
+     * overflowBroadcasts
+     * Helper method for overflow that applies the log's policy to the broadcasts waiting, called with the lock held.
+     * @param log the room's log
+     * @param request the broadcast that didn't fit
+     * @return false if the user should be dropped
+     */
+    private boolean overflowBroadcasts(ServerLog log, EncodedRequest request) {
+        if (log.getPolicy() == Policy.CONFLATE) {
+            List<PlaceRequest<?>> waiting = new ArrayList<>();
+            for (EncodedRequest queued : queue) {
+                waiting.add(queued.getRequest());
+            }
+            waiting.add(request.getRequest());
+            List<PlaceRequest<?>> merged = ServerLog.coalesce(waiting, !legacy);
+            if (merged.size() > log.getQueueSize() / 2) {
+                return false;
+            }
+            queue.clear();
+            for (PlaceRequest<?> frame : merged) {
+                queue.add(new EncodedRequest(frame, log.getOwnerIds()));
+            }
+            return true;
+        }
+        if (log.getPolicy() == Policy.RESYNC) {
+            //the snapshot and the broadcasts since it have everything that was waiting and the new broadcast too
+            EncodedRequest snapshot = room.getSnapshot(metadata);
+            List<PlaceRequest<?>> missed = log.since(snapshot.getRequest().getSequence());
+            if (missed == null) {
+                return false;
+            }
+            queue.clear();
+            queue.add(snapshot);
+            for (PlaceRequest<?> frame : ServerLog.coalesce(missed, !legacy)) {
+                queue.add(new EncodedRequest(frame, log.getOwnerIds()));
+            }
+            System.out.println("Sent the board again to a user who fell behind.");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * drop
+     * Helper method that stops broadcasting to the user and closes their connection.
+     * @param log the room's log
+     */
+    private void drop(ServerLog log) {
+        System.out.println("Dropped a user who fell behind or whose connection failed.");
+        log.drop(this);
+        try {
+            exchange.close();
+        } catch (IOException e) {
+            //already broken
+        }
+    }
+}
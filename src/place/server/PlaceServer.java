@@ -1,16 +1,37 @@
 package place.server;
 
-import place.PlaceBoard;
+import place.PlaceException;
+import place.network.LoginInfo;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Class PlaceServer
  * This class houses the main ServerSocket and waits for connections to it. Once a connection has been established, the
- * server spawns a PlaceServerThread to manage it further.
+ * server spawns a PlaceServerThread to manage it further. One server can host several rooms, each with its own board;
+ * a user picks one when logging in.
+ * With -engine virtual, each PlaceServerThread runs on a virtual thread instead, which costs little while its client is
+ * idle. Virtual threads need Java 21 or later; the other engines run on Java 17. With -engine nio, the server uses
+ * non-blocking channels, and one EventLoop per core serves every connection, so thousands of clients don't need
+ * thousands of threads.
  */
 public class PlaceServer {
+    /** How often a board file is brought up to date, in milliseconds */
+    private final static long FLUSH_PERIOD = 10000;
+    /** How many connections can wait to be accepted */
+    private final static int BACKLOG = 1024;
+    /** Makes the platform threads that send a user's broadcasts */
+    final static ThreadFactory WRITERS = runnable -> {
+        Thread thread = new Thread(runnable, "Outbox");
+        thread.setDaemon(true);
+        return thread;
+    };
 
     /** Main method
      * This is where everything in the class happens.
@@ -18,8 +39,25 @@ public class PlaceServer {
      */
     public static void main(String[] args) {
         //check command line arguments for proper format and set them to variables
-        if (args.length != 2) {
-            System.err.println("Usage: java PlaceServer port DIM");
+        String boardFile = null;
+        String[] roomNames = new String[0];
+        String engine = "threads";
+        boolean valid = args.length >= 2 && args.length % 2 == 0;
+        for (int i = 2; valid && i < args.length; i += 2) {
+            if (args[i].equals("-file")) {
+                boardFile = args[i + 1];
+            } else if (args[i].equals("-rooms")) {
+                roomNames = args[i + 1].split(",");
+            } else if (args[i].equals("-engine")) {
+                engine = args[i + 1];
+                valid = engine.equals("threads") || engine.equals("virtual") || engine.equals("nio");
+            } else {
+                valid = false;
+            }
+        }
+        if (!valid) {
+            System.err.println("Usage: java PlaceServer port DIM [-file board] [-rooms name,name,...]"
+                    + " [-engine threads|virtual|nio]");
             System.exit(1);
         }
 
@@ -31,16 +69,111 @@ public class PlaceServer {
             System.exit(1);
         }
 
-        //create the board and a server log to handle users
-        PlaceBoard board = new PlaceBoard(DIM);
-        ServerLog log = new ServerLog();
+        //open the default room and any named rooms; each has its own board, history, statistics and users
+        RoomList rooms = new RoomList(new BroadcastScheduler(Runtime.getRuntime().availableProcessors()), boardFile);
+        try {
+            rooms.open(LoginInfo.DEFAULT_ROOM, DIM);
+            for (String name : roomNames) {
+                if (!name.isEmpty()) {
+                    rooms.open(name, DIM);
+                }
+            }
+        } catch (PlaceException e) {
+            System.err.println("Caught PlaceException");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        if (boardFile != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(rooms::close));
+
+            //write the chunks that changed out to the files every so often
+            new Timer("BoardFlush", true).schedule(new TimerTask() {
+                public void run() {
+                    rooms.flush();
+                }
+            }, FLUSH_PERIOD, FLUSH_PERIOD);
+        }
 
+        //answer commands typed at the server's console
+        Thread console = new Thread(new ServerConsole(rooms), "ServerConsole");
+        console.setDaemon(true);
+        console.start();
+
+        if (engine.equals("nio")) {
+            serveEventLoops(portNumber, rooms);
+        } else if (engine.equals("virtual")) {
+            ThreadFactory threads = virtualThreads("PlaceServerThread");
+            if (threads == null) {
+                System.err.println("-engine virtual needs Java 21 or later");
+                System.exit(1);
+            }
+            serveThreads(portNumber, rooms, threads, virtualThreads("Outbox"));
+        } else {
+            serveThreads(portNumber, rooms, runnable -> new Thread(runnable, "PlaceServerThread"), WRITERS);
+        }
+    }
+
+    /**
+     * serveThreads
+     * Helper method that waits for connections and starts a thread running a PlaceServerThread for each.
+     * @param portNumber the port to listen on
+     * @param rooms the server's rooms
+     * @param threads makes the threads, platform or virtual
+     * @param writers makes the threads that send each user's broadcasts, of the same kind
+     */
+    private static void serveThreads(int portNumber, RoomList rooms, ThreadFactory threads, ThreadFactory writers) {
         //create the server's socket and wait for connections
-        try (ServerSocket serverSocket = new ServerSocket(portNumber)) {
+        try (ServerSocket serverSocket = new ServerSocket(portNumber, BACKLOG)) {
             System.out.println("Now accepting connections...");
             while (true) {
-                //send each server thread the board and the server's log class
-                new PlaceServerThread(serverSocket.accept(), board, log).start();
+                //send each server thread the rooms, so it can join the one the user picks
+                threads.newThread(new PlaceServerThread(serverSocket.accept(), rooms, writers)).start();
+                System.out.println("User connected!");
+            }
+        } catch (IOException e) {
+            System.err.println("Caught IOException");
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * virtualThreads
+     * Helper method that makes a factory of virtual threads. They only exist from Java 21 on, so they are looked up by
+     * reflection, and the server still builds and runs its other engines on older Java.
+     * @param name the threads' name
+     * @return the factory, or null if this Java has no virtual threads
+     */
+    private static ThreadFactory virtualThreads(String name) {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object threads = builder.getMethod("name", String.class)
+                    .invoke(Thread.class.getMethod("ofVirtual").invoke(null), name);
+            return (ThreadFactory) builder.getMethod("factory").invoke(threads);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * serveEventLoops
+     * Helper method that starts an EventLoop for each core, then waits for connections and deals them out to the
+     * loops in turn.
+     * @param portNumber the port to listen on
+     * @param rooms the server's rooms
+     */
+    private static void serveEventLoops(int portNumber, RoomList rooms) {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(portNumber), BACKLOG);
+            EventLoop[] loops = new EventLoop[Runtime.getRuntime().availableProcessors()];
+            for (int i = 0; i < loops.length; ++i) {
+                loops[i] = new EventLoop(i, rooms);
+                loops[i].setDaemon(true);
+                loops[i].start();
+            }
+            System.out.println("Now accepting connections...");
+            for (int next = 0; true; next = (next + 1) % loops.length) {
+                loops[next].add(serverChannel.accept());
                 System.out.println("User connected!");
             }
         } catch (IOException e) {
@@ -1,103 +1,85 @@
 package place.server;
 
-import place.PlaceBoard;
-import place.PlaceTile;
+import place.network.PlaceExchange;
 import place.network.PlaceRequest;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
 import java.net.Socket;
-
-import static place.network.PlaceRequest.RequestType.*;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Class PlaceServerThread
- * A thread class that spawns to handle server-to-client interactions whenever a user connects. Receives login request,
- * then sends the board. After setup, waits for tile change requests from the client.
+ * The work of a thread that spawns to handle server-to-client interactions whenever a user connects. Receives login
+ * request, then waits for the client's requests and hands each to the client's Session. The client picks Java
+ * serialization or the binary protocol when it connects, and can ask at login for what it is sent to be compressed. A
+ * spectator's thread ends as soon as the spectator has the board.
+ * Runs on a platform thread or a virtual one, whichever the server starts it on, and sends the client's broadcasts
+ * from a writer thread of the same kind. It never blocks while holding a monitor, so a virtual thread blocked on its
+ * client leaves its carrier thread free for others.
  */
-public class PlaceServerThread extends Thread {
+public class PlaceServerThread implements Runnable {
 
     private Socket socket;
-    private ServerLog log;
-    private ObjectOutputStream output;
-    private ObjectInputStream input;
+    private RoomList rooms;
+    /** What the client sent before the thread took over, or null if the thread is the first to read */
+    private InputStream in;
+    /** Makes the thread that sends the client's broadcasts */
+    private ThreadFactory writers;
 
-    private PlaceBoard board;
-    private String username;
+    /**
+     * Constructor method. Gets the socket and the rooms from the server.
+     * @param socket the client's socket
+     * @param rooms the server's rooms
+     * @param writers makes the thread that sends the client's broadcasts
+     */
+    PlaceServerThread(Socket socket, RoomList rooms, ThreadFactory writers) {
+        this(socket, null, rooms, writers);
+    }
 
     /**
-     * Constructor method. Gets the socket, server log, and board from the server.
+     * Constructor method. Takes over a connection that has been sent the object stream header already, such as a
+     * Java serialization client handed on by an EventLoop.
      * @param socket the client's socket
-     * @param board the board from the server
-     * @param log the server's log
+     * @param in the stream from the client, from the first byte it sent, which must support mark
+     * @param rooms the server's rooms
+     * @param writers makes the thread that sends the client's broadcasts
      */
-    PlaceServerThread(Socket socket, PlaceBoard board, ServerLog log) {
-        super("PlaceServerThread");
+    PlaceServerThread(Socket socket, InputStream in, RoomList rooms, ThreadFactory writers) {
         this.socket = socket;
-        this.log = log;
-        this.board = board;
-        this.username = "";
+        this.in = in;
+        this.rooms = rooms;
+        this.writers = writers;
     }
 
     /**
      * run
-     * The thread's looping run method. Manages login request from user and then waits for tile change requests.
+     * The looping run method. Manages login request from user and then waits for tile change requests.
      */
     public void run() {
+        Session session = null;
         try {
             //---------------------------SETUP---------------------------
-            //Establish I/O streams
-            output = new ObjectOutputStream(socket.getOutputStream());
-            input = new ObjectInputStream(socket.getInputStream());
+            //Establish the exchange, in the protocol the client picked
+            PlaceExchange exchange = in == null ? PlaceExchange.accept(socket)
+                    : PlaceExchange.accept(socket, in, socket.getOutputStream());
+            session = new Session(exchange, rooms, writers);
 
             //receive login response from user
-            PlaceRequest<?> loginRequest = (PlaceRequest<?>) input.readUnshared();
-
-            if (loginRequest.getType() == LOGIN) {
-                //handle login
-                username = (String) loginRequest.getData();
-                if (log.logUserIn(username, output)) {
-                    System.out.println("User " + username + " successfully logged in.");
-                } else {
-                    System.out.println("Attempted login with duplicate username: " + username);
-                    sendError("Username \"" + username + "\" already taken.");
-                }
-            } else {
-                System.out.println("Unexpected Error - Received non-LOGIN request from user.");
-                sendError("Received non-login request");
+            PlaceRequest<?> loginRequest = exchange.receive();
+            if (loginRequest == null) {
+                socket.close();
+                return;
+            }
+            if (!session.login(loginRequest)) {
+                return;
             }
-
-            //tell client that login was successful
-            PlaceRequest<String> loginResponse =
-                    new PlaceRequest<>(LOGIN_SUCCESS, "User: " + username + " successfully logged in.");
-            sendResponse(loginResponse);
-
-            //send the client the board
-            PlaceRequest<PlaceBoard> boardResponse = new PlaceRequest<>(BOARD, board);
-            sendResponse(boardResponse);
 
             //--------------------------MAINLOOP--------------------------
             //accept tile changes
-            Object inputObject;
-            while ((inputObject = input.readUnshared()) != null) { //should loop here for the rest of execution
-                PlaceRequest<?> request = (PlaceRequest<?>) inputObject;
-                if (request.getType() == CHANGE_TILE) {
-                    //perform tile change
-                    PlaceTile tile = (PlaceTile) request.getData();
-                    board.setTile(tile);
-                    PlaceRequest<PlaceTile> tileResponse = new PlaceRequest<>(TILE_CHANGED, tile);
-                    log.broadcast(tileResponse);
-
-                    try {
-                        sleep(500); //sleep for 500ms to prevent spam
-                    } catch (InterruptedException e) {
-                        System.err.println("Caught InterruptedException");
-                        e.printStackTrace();
-                    }
-                } else {
-                    System.err.println("Unexpected Error: Received non-CHANGE_TILE request from user.");
-                }
+            PlaceRequest<?> request;
+            while ((request = exchange.receive()) != null) { //should loop here for the rest of execution
+                session.handle(request);
             }
             socket.close();
         } catch (IOException e) {
@@ -107,30 +89,10 @@ public class PlaceServerThread extends Thread {
             System.err.println("Caught ClassNotFoundException");
             e.printStackTrace();
         }
-    }
 
-    /**
-     * sendResponse
-     * Helper method to simply send a response using the thread's output stream.
-     * @param response the response to be sent
-     */
-    private void sendResponse(PlaceRequest response) {
-        try {
-            output.writeUnshared(response);
-            output.flush();
-        } catch (IOException e) {
-            System.err.println("Caught IOException");
-            e.printStackTrace();
+        //the user has left, so stop broadcasting to them and free their username
+        if (session != null) {
+            session.logout();
         }
     }
-
-    /**
-     * errorMessage
-     * Helper method to send an error message to the client.
-     * @param errorMessage the message to be sent
-     */
-    private void sendError (String errorMessage){
-        PlaceRequest<String> errorResponse = new PlaceRequest<>(ERROR, errorMessage);
-        sendResponse(errorResponse);
-    }
 }
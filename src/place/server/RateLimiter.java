@@ -0,0 +1,124 @@
+package place.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class RateLimiter
+ * How often each user of a room may change a tile: a token bucket for each username, holding up to the burst, that
+ * gains a token every cooldown. A change takes a token, and a change when there is none is turned down at once, with
+ * how long until there is one. Nothing waits, so no thread is spent on holding a user back, and a user who reconnects
+ * finds their bucket as they left it.
+ * Each bucket is kept as one number, the time it would be full again if it took no more changes, which is all a
+ * token bucket needs. A user whose bucket is full has no entry, and full buckets are swept out as the map grows.
+ */
+class RateLimiter {
+    /** The default time a user's bucket takes to gain a token, in milliseconds */
+    final static long DEFAULT_COOLDOWN = 500;
+    /** The fewest entries the map is swept at */
+    private final static int SWEEP = 1024;
+
+    /** When each user's bucket would be full again, by username */
+    private final Map<String, Long> full;
+    /** The time a bucket takes to gain a token, in milliseconds */
+    private volatile long cooldown;
+    /** The most tokens a bucket holds */
+    private volatile int burst;
+    /** How many entries the map can have before full buckets are swept out */
+    private volatile int sweepAt;
+
+    /**
+     * Constructor method. Starts with every bucket full, holding one token.
+     */
+    RateLimiter() {
+        this.full = new ConcurrentHashMap<>();
+        this.cooldown = DEFAULT_COOLDOWN;
+        this.burst = 1;
+        this.sweepAt = SWEEP;
+    }
+
+    /**
+     * getCooldown
+     * @return the time a bucket takes to gain a token, in milliseconds
+     */
+    long getCooldown() { return cooldown; }
+
+    /**
+     * setCooldown
+     * Changes the time a bucket takes to gain a token, and fills every bucket, since the times they would be full
+     * again were worked out with the old one.
+     * @param cooldown the time in milliseconds, 0 to let users change tiles as often as they like
+     */
+    void setCooldown(long cooldown) {
+        this.cooldown = Math.max(0, cooldown);
+        full.clear();
+    }
+
+    /**
+     * setBurst
+     * Changes how many changes a user can make at once after waiting long enough, and fills every bucket.
+     * @param burst the most tokens a bucket holds, at least 1
+     */
+    void setBurst(int burst) {
+        this.burst = Math.max(1, burst);
+        full.clear();
+    }
+
+    /**
+     * take
+     * Takes a token from a user's bucket for a change, if there is one.
+     * @param username the user's username
+     * @return 0 if a token was taken, otherwise how long until there is one, in milliseconds
+     */
+    long take(String username) {
+        long now = System.currentTimeMillis();
+        long period = cooldown;
+        long slack = (burst - 1) * period;
+        long[] wait = new long[1];
+        full.compute(username, (name, until) -> {
+            long from = until == null ? now : Math.max(until, now);
+            if (from - now > slack) {
+                wait[0] = from - now - slack;
+                return until;
+            }
+            return from + period;
+        });
+        if (full.size() >= sweepAt) {
+            sweep(now);
+        }
+        return wait[0];
+    }
+
+    /**
+     * giveBack
+     * Puts back the token a change took, for a change that was never made.
+     * @param username the user's username
+     */
+    void giveBack(String username) {
+        long now = System.currentTimeMillis();
+        long period = cooldown;
+        full.computeIfPresent(username, (name, until) -> until - period <= now ? null : until - period);
+    }
+
+    /**
+     * getWait
+     * @param username the user's username
+     * @return how long until the user's bucket has a token, in milliseconds, 0 if it has one
+     */
+    long getWait(String username) {
+        Long until = full.get(username);
+        long now = System.currentTimeMillis();
+        return until == null ? 0 : Math.max(0, until - now - (burst - 1) * cooldown);
+    }
+
+    /**
+     * sweep
+     * Helper method to remove the entries of the buckets that are full. An entry is only removed if no change took a
+     * token meanwhile.
+     * @param now the time
+     */
+    private void sweep(long now) {
+        full.entrySet().removeIf(entry -> entry.getValue() <= now);
+        sweepAt = Math.max(SWEEP, full.size() * 2);
+    }
+}
@@ -0,0 +1,128 @@
+package place.server;
+
+import place.BoardStatistics;
+import place.PlaceBoard;
+import place.TileHistory;
+import place.network.EncodedRequest;
+import place.network.PlaceRequest;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import static place.network.PlaceRequest.RequestType.BOARD;
+
+/**
+ * Class Room
+ * One canvas hosted by the server: its board, the board's history and statistics, the log of the users who are
+ * drawing on it, the Sequencer that makes their tile changes, and the RateLimiter that holds each of them to the
+ * room's cooldown. Rooms share nothing but the server's BroadcastScheduler, which takes turns between them. Spectators
+ * share a snapshot of the board that is encoded once and only made again once the room has changed enough since.
+ */
+class Room {
+    /** The most broadcasts a spectator's snapshot can be behind before a new one is made */
+    final static long SNAPSHOT_REUSE = 4096;
+
+    private final String name;
+    private final PlaceBoard board;
+    private final TileHistory history;
+    private final BoardStatistics statistics;
+    private final ServerLog log;
+    private final Sequencer sequencer;
+    private final RateLimiter limiter;
+    /** The spectators' snapshots, without and with the owners and times of the tiles */
+    private final EncodedRequest[] snapshots;
+    /** Held while a snapshot is looked up or made */
+    private final ReentrantLock snapshotLock;
+
+    /**
+     * Constructor method. Starts recording the history and statistics of the board.
+     * @param name the room's name, empty for the default room
+     * @param board the room's board
+     * @param scheduler sends the room's broadcasts
+     */
+    Room(String name, PlaceBoard board, BroadcastScheduler scheduler) {
+        this.name = name;
+        this.board = board;
+        this.history = new TileHistory(board);
+        this.statistics = new BoardStatistics(board);
+        this.log = new ServerLog(scheduler);
+        this.sequencer = new Sequencer(board, history, log);
+        this.limiter = new RateLimiter();
+        this.snapshots = new EncodedRequest[2];
+        this.snapshotLock = new ReentrantLock();
+    }
+
+    /**
+     * getName
+     * @return the room's name, empty for the default room
+     */
+    String getName() { return name; }
+
+    /**
+     * getBoard
+     * @return the room's board
+     */
+    PlaceBoard getBoard() { return board; }
+
+    /**
+     * getHistory
+     * @return the history of changes to the room's board
+     */
+    TileHistory getHistory() { return history; }
+
+    /**
+     * getStatistics
+     * @return the statistics of the room's board
+     */
+    BoardStatistics getStatistics() { return statistics; }
+
+    /**
+     * getSequencer
+     * @return the thread that makes the room's tile changes
+     */
+    Sequencer getSequencer() { return sequencer; }
+
+    /**
+     * getLog
+     * @return the log of the room's users
+     */
+    ServerLog getLog() { return log; }
+
+    /**
+     * getLimiter
+     * @return how often each user of the room may change a tile
+     */
+    RateLimiter getLimiter() { return limiter; }
+
+    /**
+     * getSnapshot
+     * Gets a BOARD for a spectator. The same one is handed to every spectator until it is more than SNAPSHOT_REUSE
+     * broadcasts behind, so it is only encoded once for all of them; the broadcasts since it was made are sent after
+     * it. Like a user's board, it has every broadcast up to its number on it.
+     * @param metadata with the owners and times of the tiles?
+     * @return the board, encoded
+     */
+    EncodedRequest getSnapshot(boolean metadata) {
+        int which = metadata ? 1 : 0;
+        snapshotLock.lock();
+        try {
+            long sequence = log.getSequence();
+            EncodedRequest snapshot = snapshots[which];
+            if (snapshot == null || sequence - snapshot.getRequest().getSequence() > SNAPSHOT_REUSE) {
+                snapshot = new EncodedRequest(new PlaceRequest<>(BOARD, board.snapshot(metadata), sequence));
+                snapshots[which] = snapshot;
+            }
+            return snapshot;
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * close
+     * Stops recording history and writes the board out to its file, if it has one.
+     */
+    void close() {
+        history.close();
+        board.close();
+    }
+}
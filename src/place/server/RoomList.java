@@ -0,0 +1,93 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceException;
+
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Class RoomList
+ * The rooms hosted by the server, by name. Rooms can be opened while the server runs. If the server keeps its board in
+ * a file, each named room keeps its board in a file next to it, with "-" and the room's name added.
+ */
+class RoomList {
+    private final ConcurrentMap<String, Room> rooms;
+    private final BroadcastScheduler scheduler;
+    private final String boardFile;
+
+    /**
+     * Constructor method. Starts with no rooms.
+     * @param scheduler sends the broadcasts of every room
+     * @param boardFile the default room's board file, or null to keep boards on the heap
+     */
+    RoomList(BroadcastScheduler scheduler, String boardFile) {
+        this.rooms = new ConcurrentHashMap<>();
+        this.scheduler = scheduler;
+        this.boardFile = boardFile;
+    }
+
+    /**
+     * open
+     * Opens a room, creating its board, or mapping it from its file if there is one.
+     * @param name the room's name, empty for the default room
+     * @param DIM the dimension of the board, if it is created
+     * @return the room
+     * @throws PlaceException if the room's board file can't be opened, or the room is already open
+     */
+    synchronized Room open(String name, int DIM) throws PlaceException {
+        if (rooms.containsKey(name)) {
+            throw new PlaceException("Room \"" + name + "\" is already open");
+        }
+        PlaceBoard board;
+        if (boardFile == null) {
+            board = new PlaceBoard(DIM);
+        } else {
+            String file = name.isEmpty() ? boardFile : boardFile + "-" + name;
+            board = PlaceBoard.open(Paths.get(file), DIM);
+            System.out.println("Opened " + board.DIM + "x" + board.DIM + " board from " + file);
+        }
+        Room room = new Room(name, board, scheduler);
+        rooms.put(name, room);
+        return room;
+    }
+
+    /**
+     * get
+     * @param name the room's name, empty for the default room
+     * @return the room, or null if there is no room with that name, or the name is null
+     */
+    Room get(String name) {
+        return name != null ? rooms.get(name) : null;
+    }
+
+    /**
+     * all
+     * @return every open room
+     */
+    Collection<Room> all() {
+        return rooms.values();
+    }
+
+    /**
+     * flush
+     * Writes the chunks that changed out to the file of each room's board.
+     */
+    void flush() {
+        for (Room room : rooms.values()) {
+            room.getBoard().flush();
+        }
+    }
+
+    /**
+     * close
+     * Closes every room.
+     */
+    synchronized void close() {
+        for (Room room : rooms.values()) {
+            room.close();
+        }
+    }
+}
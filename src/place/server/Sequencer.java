@@ -0,0 +1,198 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceTile;
+import place.TileHistory;
+import place.network.ChangeReply;
+import place.network.EncodedRequest;
+import place.network.PlaceRequest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static place.network.PlaceRequest.RequestType.ACK;
+import static place.network.PlaceRequest.RequestType.NACK;
+import static place.network.PlaceRequest.RequestType.TILE_CHANGED;
+
+/**
+ * Class Sequencer
+ * The one thread that changes a room's board. Sessions publish tile changes to a ring of slots, and the sequencer
+ * takes them out in the order they were published, stamps each with the server's time, makes it on the board, records
+ * it in the history and broadcasts it, so the board, the history and every user see the changes in the same order.
+ * Once a change is made, or turned down, the sequencer queues the user's ACK or NACK in their outbox, so an ACK means
+ * the change is on the board.
+ * Publishing takes a slot with one atomic compare-and-set and never waits; the sequencer takes every change published
+ * so far at once, and holds the log's lock while it makes them, so nothing else is broadcast between a change and its
+ * broadcast. A change that finds the ring full is turned down, and the session tells the user the server is busy.
+ */
+class Sequencer implements Runnable {
+    /** The number of slots in the ring, a power of two */
+    private final static int SIZE = 1 << 13;
+    private final static int MASK = SIZE - 1;
+    /** How many times the sequencer looks for a change before it sleeps */
+    private final static int SPINS = 100;
+
+    private final PlaceBoard board;
+    private final TileHistory history;
+    private final ServerLog log;
+
+    /** The changes published, by their number modulo the size of the ring */
+    private final Change[] slots;
+    /** The number of the change last published in each slot, or -1 */
+    private final AtomicLongArray published;
+    /** The number the next change published gets */
+    private final AtomicLong claimed;
+    /** The number of the next change to make; every slot before it is free */
+    private volatile long next;
+    /** Is the sequencer sleeping until a change is published? */
+    private volatile boolean sleeping;
+    private final Thread thread;
+    /** The time the last change was stamped with, in milliseconds */
+    private long lastTime;
+
+    /**
+     * Constructor method. Starts the sequencer's thread.
+     * @param board the room's board
+     * @param history the history of the room's board
+     * @param log the log of the room's users
+     */
+    Sequencer(PlaceBoard board, TileHistory history, ServerLog log) {
+        this.board = board;
+        this.history = history;
+        this.log = log;
+        this.slots = new Change[SIZE];
+        this.published = new AtomicLongArray(SIZE);
+        for (int i = 0; i < SIZE; ++i) {
+            this.published.set(i, -1);
+        }
+        this.claimed = new AtomicLong();
+        this.thread = new Thread(this, "Sequencer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * A published tile change, and who to answer once it is made.
+     */
+    private static class Change {
+        /** The new tile */
+        private final PlaceTile tile;
+        /** The outbox of the user who made the change, or null if they get no answer */
+        private final Outbox outbox;
+        /** The ACK to send once the change is made */
+        private final ChangeReply reply;
+
+        /**
+         * Constructor method.
+         * @param tile the new tile
+         * @param outbox the outbox of the user who made the change, or null if they get no answer
+         * @param reply the ACK to send once the change is made
+         */
+        Change(PlaceTile tile, Outbox outbox, ChangeReply reply) {
+            this.tile = tile;
+            this.outbox = outbox;
+            this.reply = reply;
+        }
+    }
+
+    /**
+     * publish
+     * Queues a tile change to be made and broadcast, unless the ring is full. Safe to call from any thread, and never
+     * waits.
+     * @param tile the new tile, valid for the board, which the sequencer stamps with its time
+     * @param outbox the outbox of the user making the change, or null if they get no answer
+     * @param reply the ACK to queue in the outbox once the change is made; if the change is turned down, a NACK with
+     *              the same number is queued instead
+     * @return false if the ring is full, and the change was not queued
+     */
+    boolean publish(PlaceTile tile, Outbox outbox, ChangeReply reply) {
+        long number;
+        do {
+            number = claimed.get();
+            if (number - next >= SIZE) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(number, number + 1));
+        int index = (int) (number & MASK);
+        slots[index] = new Change(tile, outbox, reply);
+        published.set(index, number);
+        if (sleeping) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * run
+     * The sequencer's looping run method. Waits for changes to be published, then makes and broadcasts every one
+     * published so far, in order.
+     */
+    public void run() {
+        while (true) {
+            long first = next;
+            long end = first;
+            for (int spin = 0; end == first; ++spin) {
+                while (end - first < SIZE && published.get((int) (end & MASK)) == end) {
+                    ++end;
+                }
+                if (end == first && spin >= SPINS) {
+                    sleeping = true;
+                    //a change published after the flag was set wakes the sequencer
+                    if (published.get((int) (first & MASK)) != first) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                } else if (end == first) {
+                    Thread.onSpinWait();
+                }
+            }
+
+            log.getLock().lock();
+            try {
+                for (long number = first; number < end; ++number) {
+                    int index = (int) (number & MASK);
+                    Change change = slots[index];
+                    String reason;
+                    try {
+                        reason = make(change.tile);
+                    } catch (RuntimeException e) {
+                        //one bad change mustn't stop the room
+                        System.err.println("Caught " + e.getClass().getSimpleName());
+                        e.printStackTrace();
+                        reason = "The server couldn't make the change";
+                    }
+                    if (change.outbox != null) {
+                        PlaceRequest<ChangeReply> answer = reason == null ? new PlaceRequest<>(ACK, change.reply)
+                                : new PlaceRequest<>(NACK, new ChangeReply(change.reply.getId(), reason, 0));
+                        change.outbox.offer(new EncodedRequest(answer));
+                    }
+                    slots[index] = null;
+                }
+            } finally {
+                log.getLock().unlock();
+            }
+            next = end;
+        }
+    }
+
+    /**
+     * make
+     * Helper method to check a change, stamp it with the server's time, make it, record it and broadcast it. It is only
+     * recorded once the board has it. The times of the changes never go back, even if the clock does.
+     * @param tile the new tile
+     * @return null if the change was made, otherwise why it was turned down
+     */
+    private String make(PlaceTile tile) {
+        if (tile.getColor() == null || !board.isValid(tile)) {
+            return "Tile (" + tile.getRow() + ", " + tile.getCol() + ") is not on the board";
+        }
+        lastTime = Math.max(lastTime, System.currentTimeMillis());
+        tile.setTime(lastTime);
+        history.preserve(tile);
+        board.setTile(tile);
+        history.record(tile);
+        log.broadcast(new PlaceRequest<>(TILE_CHANGED, tile));
+        return null;
+    }
+}
@@ -0,0 +1,241 @@
+package place.server;
+
+import place.BoardStatistics;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceException;
+import place.PlaceTile;
+import place.TileHistory;
+import place.network.LoginInfo;
+import place.network.PlaceRequest;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+import static place.network.PlaceRequest.RequestType.RESIZE;
+
+/**
+ * Class ServerConsole
+ * Reads commands typed at the server's console and answers them. Runs on its own thread so the server can keep
+ * accepting connections. Commands that take a room use the default room when it is left off:
+ *   stats [room] - print the tile count of each color and the leaderboard
+ *   history ROW COL [room] - print the changes to a tile, newest first
+ *   changes TOP LEFT BOTTOM RIGHT SECONDS [room] - print the changes to a region in the last SECONDS seconds
+ *   rewind SECONDS [room] - print the tile count of each color as the board was SECONDS seconds ago
+ *   expand DIM [room] - grow the board to DIM by DIM and tell every user
+ *   cooldown MS [room] - make users wait MS milliseconds between tile changes
+ *   burst N [room] - let users who have waited long enough make N tile changes at once
+ *   batch MS [room] - gather tile changes for at most MS milliseconds before sending them, when the room is busy
+ *   queue SIZE POLICY [room] - let at most SIZE requests wait for a user, and when more would, conflate the tile
+ *                              changes waiting, resync the user with the board, or disconnect them
+ *   open room DIM - open a new room with a DIM by DIM board
+ *   rooms - list the rooms
+ */
+class ServerConsole implements Runnable {
+    /** How many users the leaderboard shows */
+    private final static int LEADERS = 10;
+    /** How many changes are printed at most */
+    private final static int LISTED = 50;
+    /** The commands, for when one isn't recognized */
+    private final static String COMMANDS = "stats [room], history ROW COL [room], "
+            + "changes TOP LEFT BOTTOM RIGHT SECONDS [room], rewind SECONDS [room], expand DIM [room], "
+            + "cooldown MS [room], burst N [room], batch MS [room], queue SIZE conflate|resync|disconnect [room], "
+            + "open room DIM, rooms";
+
+    private RoomList rooms;
+
+    /**
+     * Constructor method. Gets the rooms from the server.
+     * @param rooms the server's rooms
+     */
+    ServerConsole(RoomList rooms) {
+        this.rooms = rooms;
+    }
+
+    /**
+     * run
+     * Reads commands until the console is closed.
+     */
+    public void run() {
+        Scanner in = new Scanner(System.in);
+        while (in.hasNextLine()) {
+            String[] command = in.nextLine().trim().split("\\s+");
+            try {
+                if (command[0].equals("stats") && command.length <= 2) {
+                    Room room = room(command, 1);
+                    if (room != null) {
+                        printStats(room.getStatistics());
+                    }
+                } else if (command[0].equals("history") && (command.length == 3 || command.length == 4)) {
+                    Room room = room(command, 3);
+                    if (room != null) {
+                        int row = Integer.parseInt(command[1]);
+                        int col = Integer.parseInt(command[2]);
+                        printChanges(room.getHistory(), room.getHistory().historyOf(row, col));
+                    }
+                } else if (command[0].equals("changes") && (command.length == 6 || command.length == 7)) {
+                    Room room = room(command, 6);
+                    if (room != null) {
+                        long to = System.currentTimeMillis();
+                        long from = to - Long.parseLong(command[5]) * 1000;
+                        printChanges(room.getHistory(), room.getHistory().changesIn(Integer.parseInt(command[1]),
+                                Integer.parseInt(command[2]), Integer.parseInt(command[3]),
+                                Integer.parseInt(command[4]), from, to));
+                    }
+                } else if (command[0].equals("rewind") && (command.length == 2 || command.length == 3)) {
+                    Room room = room(command, 2);
+                    if (room != null) {
+                        long time = System.currentTimeMillis() - Long.parseLong(command[1]) * 1000;
+                        System.out.println("The board at " + new Date(Math.max(time, room.getHistory().getStart())));
+                        printColors(new BoardStatistics(room.getHistory().boardAt(time)));
+                    }
+                } else if (command[0].equals("expand") && (command.length == 2 || command.length == 3)) {
+                    Room room = room(command, 2);
+                    if (room != null) {
+                        expand(room, Integer.parseInt(command[1]));
+                    }
+                } else if (command[0].equals("cooldown") && (command.length == 2 || command.length == 3)) {
+                    Room room = room(command, 2);
+                    if (room != null) {
+                        room.getLimiter().setCooldown(Long.parseLong(command[1]));
+                    }
+                } else if (command[0].equals("burst") && (command.length == 2 || command.length == 3)) {
+                    Room room = room(command, 2);
+                    if (room != null) {
+                        room.getLimiter().setBurst(Integer.parseInt(command[1]));
+                    }
+                } else if (command[0].equals("batch") && (command.length == 2 || command.length == 3)) {
+                    Room room = room(command, 2);
+                    if (room != null) {
+                        room.getLog().setMaxWindow(Math.max(0, Long.parseLong(command[1])));
+                    }
+                } else if (command[0].equals("queue") && (command.length == 3 || command.length == 4)) {
+                    Outbox.Policy policy = policy(command[2]);
+                    Room room = room(command, 3);
+                    if (policy != null && room != null) {
+                        room.getLog().setQueue(Math.max(2, Integer.parseInt(command[1])), policy);
+                    }
+                } else if (command[0].equals("open") && command.length == 3) {
+                    rooms.open(command[1], Integer.parseInt(command[2]));
+                    System.out.println("Opened room " + command[1]);
+                } else if (command[0].equals("rooms") && command.length == 1) {
+                    for (Room room : rooms.all()) {
+                        PlaceBoard board = room.getBoard();
+                        String name = room.getName().isEmpty() ? "(default)" : room.getName();
+                        System.out.println(name + " - " + board.DIM + "x" + board.DIM);
+                    }
+                } else if (!command[0].isEmpty()) {
+                    System.out.println("Unrecognizable command. Commands: " + COMMANDS);
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("Not a number. Commands: " + COMMANDS);
+            } catch (PlaceException e) {
+                System.err.println("Caught PlaceException");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * room
+     * Finds the room a command is about, printing a message if there is no such room.
+     * @param command the words of the command
+     * @param index where the room's name would be in the command
+     * @return the room, or null if there is none
+     */
+    private Room room(String[] command, int index) {
+        String name = index < command.length ? command[index] : LoginInfo.DEFAULT_ROOM;
+        Room room = rooms.get(name);
+        if (room == null) {
+            System.out.println("No room named " + name);
+        }
+        return room;
+    }
+
+    /**
+     * policy
+     * Finds the policy a command names, printing a message if there is no such policy.
+     * @param name the policy's name, in any case
+     * @return the policy, or null if there is none
+     */
+    private Outbox.Policy policy(String name) {
+        for (Outbox.Policy policy : Outbox.Policy.values()) {
+            if (policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        System.out.println("No policy named " + name);
+        return null;
+    }
+
+    /**
+     * expand
+     * Grows a room's board and tells every user of the room its new dimension. The log's lock is held from before the
+     * board grows until the notice is queued, so no user hears about a tile in the new area before they hear about the
+     * new area.
+     * @param room the room
+     * @param DIM the new dimension
+     * @throws PlaceException if the board's file can't be grown
+     */
+    private void expand(Room room, int DIM) throws PlaceException {
+        PlaceBoard board = room.getBoard();
+        ServerLog log = room.getLog();
+        log.getLock().lock();
+        try {
+            if (board.expand(DIM)) {
+                log.broadcast(new PlaceRequest<>(RESIZE, DIM));
+                System.out.println("Board expanded to " + DIM + "x" + DIM);
+            } else {
+                System.out.println("The board is already " + board.DIM + "x" + board.DIM);
+            }
+        } finally {
+            log.getLock().unlock();
+        }
+    }
+
+    /**
+     * printStats
+     * Prints the tile count of each color, the number of changes, and the leaderboard.
+     * @param statistics the statistics of a room's board
+     */
+    private void printStats(BoardStatistics statistics) {
+        printColors(statistics);
+        System.out.println("Changes: " + statistics.getChanges());
+        int place = 1;
+        for (Map.Entry<String, Integer> leader : statistics.getLeaderboard(LEADERS).entrySet()) {
+            System.out.println(place++ + ". " + leader.getKey() + " - " + leader.getValue() + " tiles");
+        }
+    }
+
+    /**
+     * printColors
+     * Prints the tile count of each color.
+     * @param statistics the statistics of a board
+     */
+    private void printColors(BoardStatistics statistics) {
+        StringBuilder colors = new StringBuilder("Colors:");
+        for (PlaceColor color : PlaceColor.values()) {
+            colors.append(' ').append(color.getName()).append('=').append(statistics.getColorCount(color));
+        }
+        System.out.println(colors);
+    }
+
+    /**
+     * printChanges
+     * Prints the first LISTED changes from a room's history, and how many more there are.
+     * @param history the room's history
+     * @param changes the changes
+     */
+    private void printChanges(TileHistory history, List<PlaceTile> changes) {
+        for (PlaceTile tile : changes.subList(0, Math.min(LISTED, changes.size()))) {
+            System.out.println(new Date(tile.getTime()) + " (" + tile.getRow() + "," + tile.getCol() + ") "
+                    + tile.getColor().getName() + " by " + tile.getOwner());
+        }
+        if (changes.size() > LISTED) {
+            System.out.println("... and " + (changes.size() - LISTED) + " more");
+        }
+        System.out.println(changes.size() + " changes since " + new Date(history.getStart()));
+    }
+}
@@ -1,55 +1,476 @@
 package place.server;
 
+import place.PlaceBoard;
+import place.PlaceTile;
+import place.network.EncodedRequest;
+import place.network.OwnerIds;
 import place.network.PlaceRequest;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static place.network.PlaceRequest.RequestType.TILES_CHANGED;
+import static place.network.PlaceRequest.RequestType.TILE_CHANGED;
 
 /**
  * Class ServerLog
- * This class is a helper class for the server and its threads. It manages which users are logged in and out and also
- * contains a broadcast function which sends a message (tile updates) to every user.
+ * This class is a helper class for the server and its threads. It manages which users of a room are logged in and out
+ * and also contains a broadcast function which sends a message (tile updates) to every user of the room. Broadcasts are
+ * queued and sent by the server's BroadcastScheduler, in batches gathered over a window that widens while the room is
+ * busy and narrows while it is quiet; each user gets one request per batch, in their Outbox, which sends it when the
+ * user can take it and applies the log's policy when they fall too far behind. Every broadcast is numbered, and the
+ * recent ones are kept in a ChangeRing for users who come back after losing their connection. Tile changes only go to
+ * the users whose Subscriptions cover them; a user who wants part of the board gets the part of each batch that falls
+ * in the chunks they want, numbered like the whole batch. Spectators get every broadcast too, but have no username and
+ * never log out; one is dropped when sending to it fails. Numbering starts from the time the log was made, shifted up
+ * 16 bits, so a number from before the server restarted is always older than any this log has kept, unless the room
+ * made over 65536 changes a millisecond. A user who logged in with just a username, like the first clients, only
+ * understands one TILE_CHANGED at a time, so they get a batch as a TILE_CHANGED for each tile instead.
  */
 class ServerLog {
-    private ArrayList<String> userList;
-    private ArrayList<ObjectOutputStream> userOutputs;
+    /** The longest broadcasts are gathered before they are sent, unless it is changed, in milliseconds */
+    final static long DEFAULT_MAX_WINDOW = 20;
+    /** The most requests waiting for one user, unless it is changed */
+    final static int DEFAULT_QUEUE_SIZE = 1024;
+
+    private Map<String, Outbox> users;
+    private Set<Outbox> userOutputs;
+    private Subscriptions subscriptions;
+    private ChangeRing recent;
+    /** Held while a broadcast is numbered and queued */
+    private ReentrantLock lock;
+
+    private BroadcastScheduler scheduler;
+    private Queue<PlaceRequest<?>> pending;
+    private AtomicBoolean scheduled;
+    /** How long broadcasts are gathered before they are sent, in milliseconds */
+    private volatile long window;
+    /** The longest the window grows to, in milliseconds */
+    private volatile long maxWindow;
+    /** The most requests waiting for one user */
+    private volatile int queueSize;
+    /** What happens to a user whose queue is full */
+    private volatile Outbox.Policy policy;
+    /** The ids the usernames in the room's broadcasts are sent as */
+    private final OwnerIds ownerIds;
 
     /**
-     * Constructor method. Initializes the two lists which will track users and their output streams.
+     * Constructor method. Initializes the two collections which will track users and their outboxes. Logging in
+     * doesn't wait for a broadcast in progress, and a broadcast only adds to outboxes, so it never waits for a user.
+     * @param scheduler sends the broadcasts
      */
-    ServerLog() {
-        userList = new ArrayList<>();
-        userOutputs = new ArrayList<>();
+    ServerLog(BroadcastScheduler scheduler) {
+        users = new ConcurrentHashMap<>();
+        userOutputs = ConcurrentHashMap.newKeySet();
+        subscriptions = new Subscriptions();
+        recent = new ChangeRing(System.currentTimeMillis() << 16);
+        lock = new ReentrantLock();
+        this.scheduler = scheduler;
+        pending = new ConcurrentLinkedQueue<>();
+        scheduled = new AtomicBoolean();
+        maxWindow = DEFAULT_MAX_WINDOW;
+        queueSize = DEFAULT_QUEUE_SIZE;
+        policy = Outbox.Policy.CONFLATE;
+        ownerIds = new OwnerIds();
     }
 
     /**
      * logUserIn
-     * Checks whether or not the username is valid, then adds the users name and output stream to the lists if so.
+     * Checks whether or not the username is valid, then adds the users name and outbox to the lists if so.
      * This method is called from PlaceServerThread when it sends a login request to the server.
      * @param username the user's username
-     * @param output the user's output stream (so that they can be broadcast to)
+     * @param output the user's outbox (so that they can be broadcast to)
+     * @return whether or not the user was successfully logged in
+     */
+    boolean logUserIn(String username, Outbox output) {
+        return logUserIn(username, output, 0);
+    }
+
+    /**
+     * logUserIn
+     * Like the one above, but a user coming back after losing their connection can take their username over from a
+     * connection the server still thinks is open, by giving the token that connection was sent when it logged in.
+     * That connection is closed.
+     * @param username the user's username
+     * @param output the user's outbox (so that they can be broadcast to)
+     * @param token the token the user gave, or 0 for none
      * @return whether or not the user was successfully logged in
      */
-    synchronized boolean logUserIn(String username, ObjectOutputStream output) {
-        if (!userList.contains(username)) {
-            this.userList.add(username);
-            this.userOutputs.add(output);
-            return true;
+    boolean logUserIn(String username, Outbox output, long token) {
+        Outbox old;
+        //the old connection may log out meanwhile, and then the username is simply free
+        do {
+            old = users.putIfAbsent(username, output);
+            if (old == null) {
+                this.userOutputs.add(output);
+                this.subscriptions.add(output);
+                return true;
+            }
+            if (token == 0 || old.getToken() != token) {
+                return false;
+            }
+        } while (!users.replace(username, old, output));
+        this.userOutputs.add(output);
+        this.subscriptions.add(output);
+        this.userOutputs.remove(old);
+        this.subscriptions.remove(old);
+        try {
+            old.close();
+        } catch (IOException e) {
+            System.err.println("Caught IOException");
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /**
+     * logUserOut
+     * Removes a user who has disconnected, so their username can be used again, unless it has been taken over by a
+     * newer connection.
+     * @param username the user's username
+     * @param output the user's outbox
+     */
+    void logUserOut(String username, Outbox output) {
+        userOutputs.remove(output);
+        subscriptions.remove(output);
+        users.remove(username, output);
+    }
+
+    /**
+     * addSpectator
+     * Starts broadcasting to a spectator, who watches the room without a username.
+     * @param output the spectator's outbox
+     */
+    void addSpectator(Outbox output) {
+        userOutputs.add(output);
+        subscriptions.add(output);
+    }
+
+    /**
+     * subscribe
+     * Changes which chunks of the board a user gets tile changes for.
+     * @param output the user's outbox
+     * @param chunks the indices of the chunks, in increasing order, or null for the whole board
+     * @return the indices of the chunks the user got tile changes for before, or null if they got all of them
+     */
+    int[] subscribe(Outbox output, int[] chunks) {
+        return subscriptions.subscribe(output, chunks);
+    }
+
+    /**
+     * getSequence
+     * @return the number of the last broadcast, which is already on the board
+     */
+    long getSequence() {
+        lock.lock();
+        try {
+            return recent.getLast();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * since
+     * Gets the broadcasts after a given one, for a user who is coming back. Broadcasts made later are sent to the
+     * user as usual, if they are logged in, and some of these may be sent to them again.
+     * @param sequence the number of the last broadcast the user had
+     * @return the broadcasts in order, or null if they aren't all kept any more
+     */
+    List<PlaceRequest<?>> since(long sequence) {
+        lock.lock();
+        try {
+            return recent.since(sequence);
+        } finally {
+            lock.unlock();
         }
-        return false;
     }
 
     /**
      * broadcast
-     * Sends a request to every user connected to the server.
+     * Numbers a request and queues it to be sent to every user of the room. Broadcasts are queued one at a time, so
+     * every user gets them in the same order they are numbered; holding this log's lock around a change and its
+     * broadcast makes sure nothing is broadcast between them. Users who log in before the request is sent get it too.
+     * @param request the data to be sent
+     */
+    void broadcast(PlaceRequest<?> request) {
+        lock.lock();
+        try {
+            pending.add(recent.add(request));
+            if (scheduled.compareAndSet(false, true)) {
+                scheduler.schedule(this, window);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * getLock
+     * @return the lock broadcasting holds, which holding around a change and its broadcast keeps anything else from
+     *         being broadcast between them; a lock rather than the log's monitor, so a virtual thread waiting for it
+     *         doesn't hold on to its carrier thread
+     */
+    Lock getLock() { return lock; }
+
+    /**
+     * deliver
+     * Sends some of the queued broadcasts, coalesced, then adapts the batching window. A turn that found more than
+     * one broadcast waiting doubles the window, up to the most allowed, and a turn that found just one halves it, so
+     * changes go out at once while they are few and in big batches while they are many. Called by the scheduler, on
+     * one thread at a time.
+     * @param quantum the most broadcasts to send
+     * @return how long to wait before the next turn in milliseconds, or -1 if there are no broadcasts left to send
+     */
+    long deliver(int quantum) {
+        List<PlaceRequest<?>> requests = new ArrayList<>();
+        PlaceRequest<?> request;
+        while (requests.size() < quantum && (request = pending.poll()) != null) {
+            requests.add(request);
+        }
+        //the TILE_CHANGED frames each batch is split into, for the users who can't take a TILES_CHANGED
+        Map<EncodedRequest, List<EncodedRequest>> singles = new HashMap<>();
+        for (PlaceRequest<?> frame : coalesce(requests)) {
+            if (frame.getType() == TILE_CHANGED || frame.getType() == TILES_CHANGED) {
+                sendTiles(frame, singles);
+            } else {
+                send(frame);
+            }
+        }
+        window = requests.size() > 1 ? Math.min(maxWindow, Math.max(1, window * 2)) : window / 2;
+        if (requests.size() == quantum) {
+            return 0;
+        }
+        scheduled.set(false);
+        //a broadcast may have been queued after the poll but before the flag was cleared
+        return !pending.isEmpty() && scheduled.compareAndSet(false, true) ? window : -1;
+    }
+
+    /**
+     * setMaxWindow
+     * Changes the longest the log waits to gather broadcasts into one batch.
+     * @param maxWindow the time in milliseconds, 0 to send broadcasts as soon as a thread is free
+     */
+    void setMaxWindow(long maxWindow) {
+        this.maxWindow = maxWindow;
+        this.window = Math.min(this.window, maxWindow);
+    }
+
+    /**
+     * setQueue
+     * Changes how many requests may wait for one user, and what happens to a user whose queue is full.
+     * @param queueSize the most requests, at least 2
+     * @param policy what happens to a user who falls behind
+     */
+    void setQueue(int queueSize, Outbox.Policy policy) {
+        this.queueSize = queueSize;
+        this.policy = policy;
+    }
+
+    /**
+     * getQueueSize
+     * @return the most requests waiting for one user
+     */
+    int getQueueSize() { return queueSize; }
+
+    /**
+     * getPolicy
+     * @return what happens to a user whose queue is full
+     */
+    Outbox.Policy getPolicy() { return policy; }
+
+    /**
+     * getOwnerIds
+     * @return the ids the usernames in the room's broadcasts are sent as
+     */
+    OwnerIds getOwnerIds() { return ownerIds; }
+
+    /**
+     * drop
+     * Stops broadcasting to a user who fell behind or whose connection failed. Their connection is closed by their
+     * outbox, so a user's thread stops waiting on it and a spectator's socket is freed.
+     * @param output the user's outbox
+     */
+    void drop(Outbox output) {
+        userOutputs.remove(output);
+        subscriptions.remove(output);
+    }
+
+    /**
+     * coalesce
+     * Turns broadcasts into as few requests as possible. Tile changes one after another, alone or already batched,
+     * become one TILES_CHANGED,
+     * or a TILE_CHANGED if they are all to one tile, holding only the last change to each tile and numbered like the
+     * last change. Anything else, such as a RESIZE, goes between them as it is, so no tile in a new area comes first.
+     * @param requests the broadcasts, in order
+     * @return the requests to send, in order
+     */
+    static List<PlaceRequest<?>> coalesce(List<PlaceRequest<?>> requests) {
+        return coalesce(requests, true);
+    }
+
+    /**
+     * coalesce
+     * Like the one above, but for a user who can't take a TILES_CHANGED, tile changes become one TILE_CHANGED for each
+     * tile instead, still holding only the last change to each.
+     * @param requests the broadcasts, in order
+     * @param batched can the user take a TILES_CHANGED?
+     * @return the requests to send, in order
+     */
+    static List<PlaceRequest<?>> coalesce(List<PlaceRequest<?>> requests, boolean batched) {
+        List<PlaceRequest<?>> frames = new ArrayList<>();
+        Map<Long, PlaceTile> tiles = new LinkedHashMap<>();
+        long sequence = 0;
+        for (PlaceRequest<?> request : requests) {
+            if (request.getType() == TILE_CHANGED || request.getType() == TILES_CHANGED) {
+                PlaceTile[] changed = request.getType() == TILE_CHANGED
+                        ? new PlaceTile[] {(PlaceTile) request.getData()} : (PlaceTile[]) request.getData();
+                for (PlaceTile tile : changed) {
+                    tiles.put((long) tile.getRow() << 32 | tile.getCol(), tile);
+                }
+                sequence = request.getSequence();
+            } else {
+                addBatch(frames, tiles, sequence, batched);
+                frames.add(request);
+            }
+        }
+        addBatch(frames, tiles, sequence, batched);
+        return frames;
+    }
+
+    /**
+     * addBatch
+     * Helper method for coalesce that adds the tile changes gathered so far to the requests to send, as one request or,
+     * for a user who can't take a TILES_CHANGED, one for each tile, and clears them.
+     * @param frames the requests to send
+     * @param tiles the last change to each tile, by position
+     * @param sequence the number of the last change
+     * @param batched can the user take a TILES_CHANGED?
+     */
+    private static void addBatch(List<PlaceRequest<?>> frames, Map<Long, PlaceTile> tiles, long sequence,
+                                 boolean batched) {
+        if (tiles.size() == 1 || !batched) {
+            for (PlaceTile tile : tiles.values()) {
+                frames.add(new PlaceRequest<>(TILE_CHANGED, tile, sequence));
+            }
+        } else if (tiles.size() > 1) {
+            frames.add(new PlaceRequest<>(TILES_CHANGED, tiles.values().toArray(new PlaceTile[0]), sequence));
+        }
+        tiles.clear();
+    }
+
+    /**
+     * send
+     * Sends a request to every user of the room. The request is encoded once for each protocol in use and every user
+     * gets the same bytes. Each exchange sends a whole request at a time, so a broadcast never lands in the middle of
+     * another message to the same user.
      * @param request the data to be sent
-     * @throws IOException
      */
-    synchronized void broadcast(PlaceRequest<?> request) throws IOException {
-        for (ObjectOutputStream output : userOutputs) {
-            output.writeUnshared(request);
-            output.flush();
+    private void send(PlaceRequest<?> request) {
+        EncodedRequest encoded = new EncodedRequest(request, ownerIds);
+        for (Outbox output : userOutputs) {
+            send(output, encoded);
+        }
+    }
+
+    /**
+     * sendTiles
+     * Sends a TILE_CHANGED or TILES_CHANGED to the users who want the chunks it changes. Users who want the whole
+     * board get it as it is. The others get just the tiles in the chunks they want, if any, and users who want the
+     * same changed chunks share one encoding.
+     * @param request the tile changes
+     * @param singles the TILE_CHANGED frames each TILES_CHANGED sent so far was split into, by the TILES_CHANGED
+     */
+    private void sendTiles(PlaceRequest<?> request, Map<EncodedRequest, List<EncodedRequest>> singles) {
+        EncodedRequest whole = new EncodedRequest(request, ownerIds);
+        for (Outbox output : subscriptions.getWholeBoard()) {
+            send(output, whole, singles);
+        }
+        if (!subscriptions.hasAreas()) {
+            return;
+        }
+        PlaceTile[] tiles = request.getType() == TILE_CHANGED ? new PlaceTile[] {(PlaceTile) request.getData()}
+                : (PlaceTile[]) request.getData();
+        Map<Integer, List<PlaceTile>> byChunk = new LinkedHashMap<>();
+        for (PlaceTile tile : tiles) {
+            byChunk.computeIfAbsent(PlaceBoard.chunkIndexOf(tile.getRow(), tile.getCol()), index -> new ArrayList<>())
+                    .add(tile);
+        }
+        Map<Outbox, List<Integer>> wanted = new HashMap<>();
+        for (Integer chunk : byChunk.keySet()) {
+            for (Outbox output : subscriptions.get(chunk)) {
+                wanted.computeIfAbsent(output, user -> new ArrayList<>()).add(chunk);
+            }
+        }
+        Map<List<Integer>, EncodedRequest> parts = new HashMap<>();
+        for (Map.Entry<Outbox, List<Integer>> entry : wanted.entrySet()) {
+            EncodedRequest part = parts.computeIfAbsent(entry.getValue(), chunks -> chunks.size() == byChunk.size()
+                    ? whole : new EncodedRequest(part(chunks, byChunk, request.getSequence()), ownerIds));
+            send(entry.getKey(), part, singles);
+        }
+    }
+
+    /**
+     * part
+     * Helper method for sendTiles that puts the changes to some chunks in a request of their own.
+     * @param chunks the indices of the chunks
+     * @param byChunk the changes, by chunk
+     * @param sequence the number of the request the changes came from
+     * @return a TILE_CHANGED if there is one change, otherwise a TILES_CHANGED
+     */
+    private static PlaceRequest<?> part(List<Integer> chunks, Map<Integer, List<PlaceTile>> byChunk, long sequence) {
+        List<PlaceTile> tiles = new ArrayList<>();
+        for (Integer chunk : chunks) {
+            tiles.addAll(byChunk.get(chunk));
+        }
+        return tiles.size() == 1 ? new PlaceRequest<>(TILE_CHANGED, tiles.get(0), sequence)
+                : new PlaceRequest<>(TILES_CHANGED, tiles.toArray(new PlaceTile[0]), sequence);
+    }
+
+    /**
+     * send
+     * Helper method that queues an encoded request for one user. It never waits for the user.
+     * @param output the user's outbox
+     * @param encoded the request
+     */
+    private void send(Outbox output, EncodedRequest encoded) {
+        output.offer(encoded);
+    }
+
+    /**
+     * send
+     * Helper method that queues encoded tile changes for one user, split into a TILE_CHANGED for each tile if the
+     * user can't take a TILES_CHANGED. The users who can't share the split frames.
+     * @param output the user's outbox
+     * @param encoded the tile changes
+     * @param singles the TILE_CHANGED frames each TILES_CHANGED sent so far was split into, by the TILES_CHANGED
+     */
+    private void send(Outbox output, EncodedRequest encoded, Map<EncodedRequest, List<EncodedRequest>> singles) {
+        if (!output.isLegacy() || encoded.getRequest().getType() != TILES_CHANGED) {
+            output.offer(encoded);
+            return;
+        }
+        List<EncodedRequest> split = singles.computeIfAbsent(encoded, batch -> {
+            List<EncodedRequest> frames = new ArrayList<>();
+            for (PlaceRequest<?> frame : coalesce(Collections.singletonList(batch.getRequest()), false)) {
+                frames.add(new EncodedRequest(frame, ownerIds));
+            }
+            return frames;
+        });
+        for (EncodedRequest single : split) {
+            output.offer(single);
         }
     }
 }
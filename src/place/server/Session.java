@@ -0,0 +1,578 @@
+package place.server;
+
+import place.ChunkHashTree;
+import place.PlaceBoard;
+import place.PlaceChunk;
+import place.PlaceTile;
+import place.network.ChangeReply;
+import place.network.EncodedRequest;
+import place.network.LoginInfo;
+import place.network.PlaceExchange;
+import place.network.PlaceRequest;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+import static place.network.PlaceRequest.RequestType.*;
+
+/**
+ * Class Session
+ * What the server does for one client, whichever engine reads its requests. Handles the login request, joining the
+ * room the user picked and sending the room's board, all at once or a chunk at a time, then handles tile change
+ * requests and requests for which parts of the board the client wants tile changes for, one at a time. Never waits on
+ * the client, nor holds it back: the room's RateLimiter turns down changes that come too soon, so an engine that reads
+ * without waiting can call it from its event loop, and one with a thread per client reads the next request at once.
+ */
+class Session {
+    /** Makes the tokens that let a resuming user take their username over */
+    private final static SecureRandom TOKENS = new SecureRandom();
+
+    private RoomList rooms;
+    private Room room;
+    private ServerLog log;
+    private PlaceExchange exchange;
+    /** The broadcasts waiting for the client, once it has joined a room */
+    private Outbox outbox;
+    /** Makes the thread that sends the client's broadcasts, or null if the engine sends them itself */
+    private ThreadFactory writers;
+    /** What the outbox calls when there is something to send, or null if it has a writer thread */
+    private Runnable wake;
+    /** Does the engine send a progressive client's chunks itself, through streamChunk? */
+    private boolean pumped;
+    /** The chunks of a progressive client's board still to be sent, nearest the viewport first, or null */
+    private int[] streaming;
+    /** How many of them have been sent */
+    private int streamed;
+
+    private PlaceBoard board;
+    private String username;
+    /** Did the client log in with just a username, like the first clients? Those understand nothing but TILE_CHANGED
+     *  once they have the board, and quit on anything else */
+    private boolean legacy;
+    /** Send the owners and times of the tiles with the board and chunks? */
+    private boolean metadata;
+    /** Is the client a spectator? */
+    private boolean spectator;
+
+    /**
+     * Constructor method. Gets the client's exchange and the rooms from the server. The client's broadcasts are sent
+     * by a writer thread of its own, started once it joins a room, which waits for them.
+     * @param exchange the client's exchange
+     * @param rooms the server's rooms
+     * @param writers makes the writer thread
+     */
+    Session(PlaceExchange exchange, RoomList rooms, ThreadFactory writers) {
+        this(exchange, rooms, writers, null);
+    }
+
+    /**
+     * Constructor method. For an engine that sends the client's broadcasts itself, instead of from a writer thread,
+     * and a progressive client's chunks too, a few at a time between other clients.
+     * @param exchange the client's exchange
+     * @param rooms the server's rooms
+     * @param wake what the client's outbox calls when there is something to send; it must poll the outbox until it
+     *             gets null
+     */
+    Session(PlaceExchange exchange, RoomList rooms, Runnable wake) {
+        this(exchange, rooms, null, wake);
+    }
+
+    /**
+     * Constructor method. Sets up a session with either a writer thread or an engine that sends for it.
+     * @param exchange the client's exchange
+     * @param rooms the server's rooms
+     * @param writers makes the writer thread, or null
+     * @param wake what the client's outbox calls when there is something to send, or null
+     */
+    private Session(PlaceExchange exchange, RoomList rooms, ThreadFactory writers, Runnable wake) {
+        this.exchange = exchange;
+        this.rooms = rooms;
+        this.writers = writers;
+        this.wake = wake;
+        this.pumped = wake != null;
+        this.username = "";
+        this.metadata = true;
+    }
+
+    /**
+     * login
+     * Handles the client's first request, which must be a login with a username or a spectator's LoginInfo, and sends
+     * the board. A client whose login is turned down is sent an error and its connection is closed.
+     * @param loginRequest the first request
+     * @return whether the client's next requests should be handled; false if the login was turned down, or the client
+     *         is a spectator, who is never read from again
+     * @throws IOException if the connection fails
+     */
+    boolean login(PlaceRequest<?> loginRequest) throws IOException {
+        if (loginRequest.getType() == LOGIN && loginRequest.getData() instanceof LoginInfo
+                && ((LoginInfo) loginRequest.getData()).isSpectator()) {
+            spectator = true;
+            watch((LoginInfo) loginRequest.getData());
+            return false;
+        }
+
+        //send the owners and times of the tiles with the board, all at once, unless the client asks otherwise
+        int viewRow = -1;
+        int viewCol = -1;
+        long resumeFrom = 0;
+        long resumeToken = 0;
+        boolean tokened = false;
+        boolean compressed = false;
+        int DIM = 0;
+
+        //hold the exchange's send lock until the board is sent, so broadcasts to the new user queue up behind it
+        exchange.getSendLock().lock();
+        try {
+            if (loginRequest.getType() == LOGIN) {
+                //handle login, in the room the user picked
+                String roomName = LoginInfo.DEFAULT_ROOM;
+                if (loginRequest.getData() instanceof LoginInfo) {
+                    LoginInfo info = (LoginInfo) loginRequest.getData();
+                    username = info.getUsername();
+                    roomName = info.getRoom();
+                    metadata = info.isMetadata();
+                    if (info.isProgressive()) {
+                        viewRow = info.getViewRow();
+                        viewCol = info.getViewCol();
+                    }
+                    resumeFrom = info.getResumeFrom();
+                    resumeToken = info.getToken();
+                    tokened = true;
+                    compressed = info.isCompressed();
+                } else if (loginRequest.getData() instanceof String) {
+                    username = (String) loginRequest.getData();
+                    legacy = true;
+                } else {
+                    username = null;
+                }
+                if (username == null || username.isEmpty()) {
+                    System.out.println("Attempted login without a username.");
+                    sendError("A login needs a username.");
+                    username = "";
+                    exchange.close();
+                    return false;
+                }
+                if (username.length() > PlaceExchange.MAX_USERNAME) {
+                    System.out.println("Attempted login with a username too long.");
+                    sendError("A username can be at most " + PlaceExchange.MAX_USERNAME + " characters.");
+                    username = "";
+                    exchange.close();
+                    return false;
+                }
+                room = rooms.get(roomName);
+                if (room == null) {
+                    System.out.println("Attempted login to unknown room: " + roomName);
+                    sendError("No room named \"" + roomName + "\".");
+                    exchange.close();
+                    return false;
+                }
+                log = room.getLog();
+                board = room.getBoard();
+                //a client that can't be sent a TOKEN gets none, and has to wait for its username to be free
+                outbox = new Outbox(exchange, room, metadata, legacy, wake, tokened ? newToken() : 0);
+                if (log.logUserIn(username, outbox, resumeFrom != 0 ? resumeToken : 0)) {
+                    startWriter();
+                    System.out.println("User " + username + " successfully logged in.");
+                } else {
+                    System.out.println("Attempted login with duplicate username: " + username);
+                    sendError("Username \"" + username + "\" already taken.");
+                    log = null;
+                    exchange.close();
+                    return false;
+                }
+            } else {
+                System.out.println("Unexpected Error - Received non-LOGIN request from user.");
+                sendError("Received non-login request");
+                exchange.close();
+                return false;
+            }
+
+            //a user coming back is sent just the broadcasts they missed, if they are still kept. Ones sent to
+            //the user as usual after this may repeat some of them, and the client skips those by their numbers
+            List<PlaceRequest<?>> missed = resumeFrom != 0 ? log.since(resumeFrom) : null;
+            if (missed != null) {
+                System.out.println("User " + username + " resumed, " + missed.size() + " changes behind.");
+                sendResponse(new PlaceRequest<>(LOGIN_SUCCESS, "User: " + username + " successfully logged in.",
+                        resumeFrom));
+                if (compressed) {
+                    exchange.compressSending();
+                }
+                sendResponse(new PlaceRequest<>(TOKEN, outbox.getToken()));
+                for (PlaceRequest<?> request : ServerLog.coalesce(missed)) {
+                    sendResponse(request);
+                }
+                viewRow = -1;
+            } else {
+                //tell client that login was successful
+                PlaceRequest<String> loginResponse =
+                        new PlaceRequest<>(LOGIN_SUCCESS, "User: " + username + " successfully logged in.");
+                sendResponse(loginResponse);
+                if (compressed) {
+                    exchange.compressSending();
+                }
+                if (tokened) {
+                    sendResponse(new PlaceRequest<>(TOKEN, outbox.getToken()));
+                }
+
+                //send the client a snapshot of the board, taken after the user starts receiving broadcasts so
+                //no change is missed, and frozen so tile changes made while it is being sent can't tear it. It
+                //has every broadcast up to the log's current number on it. A progressive client gets a blank
+                //board of the same size instead, and the chunks follow. An engine that sends for its clients
+                //sends the room's shared snapshot and the broadcasts since it, so it doesn't spend its turn
+                //copying and encoding a board of its own
+                long sequence = log.getSequence();
+                DIM = board.DIM;
+                if (viewRow >= 0) {
+                    sendResponse(new PlaceRequest<>(BOARD, new PlaceBoard(DIM), sequence));
+                } else if (!pumped || !sendShared()) {
+                    sendResponse(new PlaceRequest<>(BOARD, board.snapshot(metadata), sequence));
+                }
+            }
+        } finally {
+            exchange.getSendLock().unlock();
+        }
+        if (viewRow >= 0) {
+            //an engine that sends the chunks itself is woken to send the first few; otherwise they are all sent now
+            streaming = chunkOrder(DIM, viewRow, viewCol);
+            if (pumped) {
+                wake.run();
+            } else {
+                while (streamChunk()) {
+                    //each call sends one
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * handle
+     * Handles a request from a user who has logged in. A request without the data its type calls for is ignored.
+     * @param request the request
+     */
+    void handle(PlaceRequest<?> request) {
+        Object data = request.getData();
+        if (request.getType() == CHANGE_TILE && data instanceof PlaceTile) {
+            changeTile((PlaceTile) data, request.getSequence());
+        } else if (request.getType() == HASHES && data instanceof int[]) {
+            sendHashes((int[]) data);
+        } else if (request.getType() == CHUNK && data instanceof int[]) {
+            sendChunks((int[]) data);
+        } else if (request.getType() == SUBSCRIBE && (data == null || data instanceof int[])) {
+            subscribe((int[]) data);
+        } else {
+            System.err.println("Unexpected Error: Received unexpected request from user.");
+        }
+    }
+
+    /**
+     * getOutbox
+     * @return the broadcasts waiting for the client, or null if it hasn't joined a room
+     */
+    Outbox getOutbox() { return outbox; }
+
+    /**
+     * streamChunk
+     * Sends the next chunk of a progressive client's board, if any is left. The exchange is only held while the chunk
+     * is copied and sent, so tile changes are broadcast to the client between chunks. A change that reaches the client
+     * before the copy of its chunk is already in the copy, and one made after the copy reaches it after the copy, so
+     * the client ends up with every change either way.
+     * @return true if a chunk was sent, false if none was left
+     */
+    boolean streamChunk() {
+        if (streaming == null) {
+            return false;
+        }
+        if (streamed == streaming.length) {
+            streaming = null;
+            return false;
+        }
+        exchange.getSendLock().lock();
+        try {
+            sendResponse(new PlaceRequest<>(CHUNK, board.exportChunk(streaming[streamed++], metadata)));
+        } finally {
+            exchange.getSendLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * isStreaming
+     * @return true if chunks of a progressive client's board are still to be sent
+     */
+    boolean isStreaming() { return streaming != null; }
+
+    /**
+     * logout
+     * Stops broadcasting to a user who has left, and frees their username. Does nothing for a client who never
+     * logged in, or a spectator, who is dropped when sending to them fails.
+     */
+    void logout() {
+        if (log != null && !spectator) {
+            log.logUserOut(username, outbox);
+            outbox.clear();
+            System.out.println("User " + username + " logged out.");
+        }
+    }
+
+    /**
+     * sendShared
+     * Helper method for login that sends the room's shared snapshot of the board and the broadcasts since it.
+     * @return false if the broadcasts since it aren't all kept any more, and nothing was sent
+     * @throws IOException if the connection fails
+     */
+    private boolean sendShared() throws IOException {
+        EncodedRequest snapshot = room.getSnapshot(metadata);
+        List<PlaceRequest<?>> missed = log.since(snapshot.getRequest().getSequence());
+        if (missed == null) {
+            return false;
+        }
+        exchange.send(snapshot);
+        for (PlaceRequest<?> request : ServerLog.coalesce(missed, !legacy)) {
+            sendResponse(request);
+        }
+        return true;
+    }
+
+    /**
+     * startWriter
+     * Helper method that starts the thread that sends the client's broadcasts, unless the engine sends them itself.
+     */
+    private void startWriter() {
+        if (writers != null) {
+            writers.newThread(outbox::write).start();
+        }
+    }
+
+    /**
+     * watch
+     * Helper method to set up a spectator, who watches a room without a username. The spectator is sent the room's
+     * shared snapshot and the broadcasts since it, or just the broadcasts it missed if it is resuming, and is then
+     * left to the room's log: nothing more is read from it.
+     * @param info the spectator's login
+     * @throws IOException if the connection fails
+     */
+    private void watch(LoginInfo info) throws IOException {
+        room = rooms.get(info.getRoom());
+        if (room == null) {
+            System.out.println("Attempted to watch unknown room: " + info.getRoom());
+            sendError("No room named \"" + info.getRoom() + "\".");
+            exchange.close();
+            return;
+        }
+        log = room.getLog();
+        //hold the exchange's send lock until the spectator is caught up, so broadcasts to them queue up behind
+        exchange.getSendLock().lock();
+        try {
+            outbox = new Outbox(exchange, room, info.isMetadata(), false, wake, 0);
+            log.addSpectator(outbox);
+            startWriter();
+            List<PlaceRequest<?>> missed = info.isResuming() ? log.since(info.getResumeFrom()) : null;
+            sendResponse(new PlaceRequest<>(LOGIN_SUCCESS, "Watching the room.",
+                    missed != null ? info.getResumeFrom() : 0));
+            if (info.isCompressed()) {
+                exchange.compressSending();
+            }
+            if (missed == null) {
+                EncodedRequest snapshot = room.getSnapshot(info.isMetadata());
+                exchange.send(snapshot);
+                missed = log.since(snapshot.getRequest().getSequence());
+                if (missed == null) {
+                    //the room made more changes than are kept since the snapshot; the spectator can try again
+                    log.drop(outbox);
+                    outbox.close();
+                    return;
+                }
+            }
+            for (PlaceRequest<?> request : ServerLog.coalesce(missed)) {
+                sendResponse(request);
+            }
+        } finally {
+            exchange.getSendLock().unlock();
+        }
+        System.out.println("A spectator joined room: " + room.getName());
+    }
+
+    /**
+     * changeTile
+     * Helper method to make a user's tile change and broadcast it, as the user: whatever owner the client put on the
+     * tile is replaced with their username. A change the client numbered is answered: with an ACK, or with a NACK if
+     * the tile is off the board, the room's limiter has no token for the user, or the room's sequencer is full, so a
+     * client can send several without waiting. A change without a number is only answered, with an error, if it is
+     * turned down, and not even then if the client logged in with just a username, since it would quit. Either way the
+     * answer is sent at once, and the next request is read straight after.
+     * @param tile the new tile
+     * @param id the number the client gave the change, or 0
+     */
+    private void changeTile(PlaceTile tile, long id) {
+        if (!board.isValid(tile)) {
+            turnDown(id, "Tile (" + tile.getRow() + ", " + tile.getCol() + ") is not on the board", 0);
+            return;
+        }
+        RateLimiter limiter = room.getLimiter();
+        long wait = limiter.take(username);
+        if (wait > 0) {
+            turnDown(id, "Too soon after the last change", wait);
+            return;
+        }
+        //the room's sequencer stamps the change with the server's time, makes it, records it, broadcasts it and
+        //answers it. A change it has no room for was never made, so it doesn't cost the user their token
+        tile.setOwner(username);
+        ChangeReply reply = id != 0 ? new ChangeReply(id, null, limiter.getWait(username)) : null;
+        if (!room.getSequencer().publish(tile, id != 0 ? outbox : null, reply)) {
+            limiter.giveBack(username);
+            turnDown(id, "The server is busy", limiter.getWait(username));
+        }
+    }
+
+    /**
+     * turnDown
+     * Helper method to tell the client a tile change was turned down: with a NACK if it numbered the change, otherwise
+     * with an error, unless it logged in with just a username.
+     * @param id the number the client gave the change, or 0
+     * @param reason why the change was turned down
+     * @param wait how long until the user may change a tile, in milliseconds
+     */
+    private void turnDown(long id, String reason, long wait) {
+        if (id != 0) {
+            sendResponse(new PlaceRequest<>(NACK, new ChangeReply(id, reason, wait)));
+        } else if (!legacy) {
+            sendError(wait > 0 ? reason + ", wait " + wait + " ms" : reason);
+        }
+    }
+
+    /**
+     * sendResponse
+     * Helper method to simply send a response using the session's exchange.
+     * @param response the response to be sent
+     */
+    private void sendResponse(PlaceRequest response) {
+        try {
+            exchange.send(response);
+        } catch (IOException e) {
+            System.err.println("Caught IOException");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * chunkOrder
+     * Helper method to list every chunk of the blank board a progressive client was sent, in rings around the chunk
+     * under its viewport.
+     * @param DIM the dimension of the blank board the client was sent
+     * @param viewRow the row of the tile the client shows first
+     * @param viewCol the column of the tile the client shows first
+     * @return the chunks' indices, in the order they are to be sent
+     */
+    private static int[] chunkOrder(int DIM, int viewRow, int viewCol) {
+        int chunks = (DIM + PlaceChunk.SIZE - 1) / PlaceChunk.SIZE;
+        int centerRow = Math.min(viewRow, DIM - 1) / PlaceChunk.SIZE;
+        int centerCol = Math.min(viewCol, DIM - 1) / PlaceChunk.SIZE;
+        int[] order = new int[chunks * chunks];
+        int count = 0;
+        for (int ring = 0; ring < chunks; ++ring) {
+            for (int row = Math.max(0, centerRow - ring); row <= Math.min(chunks - 1, centerRow + ring); ++row) {
+                for (int col = Math.max(0, centerCol - ring); col <= Math.min(chunks - 1, centerCol + ring); ++col) {
+                    //only the chunks on the ring's edge, the inside was listed already
+                    if (Math.max(Math.abs(row - centerRow), Math.abs(col - centerCol)) == ring) {
+                        order[count++] = PlaceBoard.chunkIndexOf(row * PlaceChunk.SIZE, col * PlaceChunk.SIZE);
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * sendHashes
+     * Helper method to answer a client checking its board, with the hashes of the nodes it asked about. Nodes that
+     * aren't in the tree get a hash of 0.
+     * @param nodes the nodes of the hash tree
+     */
+    private void sendHashes(int[] nodes) {
+        ChunkHashTree tree = board.getHashes();
+        long[] hashes = new long[nodes.length];
+        for (int i = 0; i < nodes.length; ++i) {
+            if (nodes[i] >= ChunkHashTree.ROOT && nodes[i] < tree.getNodes()) {
+                hashes[i] = tree.get(nodes[i]);
+            }
+        }
+        sendResponse(new PlaceRequest<>(HASHES, hashes));
+    }
+
+    /**
+     * sendChunks
+     * Helper method to send a client copies of chunks of the board. The exchange is held while the chunks are copied,
+     * so any tile change that misses a copy is broadcast to the client after it.
+     * @param indices the indices of the chunks
+     */
+    private void sendChunks(int[] indices) {
+        int chunks = board.getChunksPerSide() * board.getChunksPerSide();
+        exchange.getSendLock().lock();
+        try {
+            for (int index : indices) {
+                if (index >= 0 && index < chunks) {
+                    sendResponse(new PlaceRequest<>(CHUNK, board.exportChunk(index)));
+                } else {
+                    sendError("Chunk " + index + " is not on the board");
+                }
+            }
+        } finally {
+            exchange.getSendLock().unlock();
+        }
+    }
+
+    /**
+     * subscribe
+     * Helper method to change which parts of the board the client gets tile changes for, and send it copies of the
+     * chunks it didn't get changes for before, which it may have fallen behind on. Like sendChunks, the copies are made
+     * after the change and while the exchange is held, so any tile change that misses a copy is sent after it.
+     * @param regions the rectangles of tiles the client wants, four ints each, or null for the whole board
+     */
+    private void subscribe(int[] regions) {
+        int[] chunks = regions == null ? null : board.chunksCovering(regions);
+        int[] previous = log.subscribe(outbox, chunks);
+        if (previous == null) {
+            return;
+        }
+        if (chunks == null) {
+            chunks = board.chunksCovering(new int[] {0, 0, board.DIM, board.DIM});
+        }
+        exchange.getSendLock().lock();
+        try {
+            for (int index : chunks) {
+                if (Arrays.binarySearch(previous, index) < 0) {
+                    sendResponse(new PlaceRequest<>(CHUNK, board.exportChunk(index, metadata)));
+                }
+            }
+        } finally {
+            exchange.getSendLock().unlock();
+        }
+    }
+
+    /**
+     * errorMessage
+     * Helper method to send an error message to the client.
+     * @param errorMessage the message to be sent
+     */
+    private void sendError (String errorMessage){
+        PlaceRequest<String> errorResponse = new PlaceRequest<>(ERROR, errorMessage);
+        sendResponse(errorResponse);
+    }
+
+    /**
+     * newToken
+     * Makes a token for a user to resume with, which can't be guessed.
+     * @return the token, never 0
+     */
+    private static long newToken() {
+        long token;
+        do {
+            token = TOKENS.nextLong();
+        } while (token == 0);
+        return token;
+    }
+}
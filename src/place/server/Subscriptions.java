@@ -0,0 +1,123 @@
+package place.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class Subscriptions
+ * Keeps track of which users of a room want tile changes for which chunks of the board. A user wants the whole board
+ * until they subscribe to part of it. Users who want only part of the board are kept in a set for each chunk they
+ * want, so finding who wants a change costs as much as there are users who want it, however many users there are.
+ * Safe to use from several threads; a user whose subscription is changing may get changes from both the old and the
+ * new one for a moment.
+ */
+class Subscriptions {
+    private Set<Outbox> wholeBoard;
+    private Map<Integer, Set<Outbox>> byChunk;
+    private Map<Outbox, int[]> chunksOf;
+
+    /**
+     * Constructor method. Starts with no users.
+     */
+    Subscriptions() {
+        wholeBoard = ConcurrentHashMap.newKeySet();
+        byChunk = new ConcurrentHashMap<>();
+        chunksOf = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * add
+     * Adds a user, who wants the whole board.
+     * @param user the user's outbox
+     */
+    void add(Outbox user) {
+        wholeBoard.add(user);
+    }
+
+    /**
+     * remove
+     * Removes a user and their subscription.
+     * @param user the user's outbox
+     */
+    void remove(Outbox user) {
+        wholeBoard.remove(user);
+        int[] chunks = chunksOf.remove(user);
+        if (chunks != null) {
+            for (int chunk : chunks) {
+                leave(user, chunk);
+            }
+        }
+    }
+
+    /**
+     * subscribe
+     * Changes which chunks a user wants tile changes for. The user is added to the sets of their new chunks before
+     * they are taken out of the sets of their old ones.
+     * @param user the user's outbox
+     * @param chunks the indices of the chunks, in increasing order, or null for the whole board
+     * @return the indices of the chunks the user wanted before, or null if they wanted the whole board
+     */
+    int[] subscribe(Outbox user, int[] chunks) {
+        if (chunks == null) {
+            wholeBoard.add(user);
+        } else {
+            for (int chunk : chunks) {
+                byChunk.compute(chunk, (index, users) -> {
+                    users = users != null ? users : ConcurrentHashMap.newKeySet();
+                    users.add(user);
+                    return users;
+                });
+            }
+        }
+        int[] previous = chunks == null ? chunksOf.remove(user) : chunksOf.put(user, chunks);
+        if (chunks != null) {
+            wholeBoard.remove(user);
+        }
+        if (previous != null) {
+            for (int chunk : previous) {
+                if (chunks == null || Arrays.binarySearch(chunks, chunk) < 0) {
+                    leave(user, chunk);
+                }
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * getWholeBoard
+     * @return the users who want every tile change
+     */
+    Set<Outbox> getWholeBoard() { return wholeBoard; }
+
+    /**
+     * get
+     * @param chunk the index of a chunk
+     * @return the users who want the tile changes of just some chunks, including this one
+     */
+    Set<Outbox> get(int chunk) {
+        Set<Outbox> users = byChunk.get(chunk);
+        return users != null ? users : Collections.emptySet();
+    }
+
+    /**
+     * hasAreas
+     * @return whether any user wants the tile changes of just some chunks
+     */
+    boolean hasAreas() { return !chunksOf.isEmpty(); }
+
+    /**
+     * leave
+     * Helper method that takes a user out of the set of a chunk, and drops the set if it is left empty.
+     * @param user the user's outbox
+     * @param chunk the index of the chunk
+     */
+    private void leave(Outbox user, int chunk) {
+        byChunk.computeIfPresent(chunk, (index, users) -> {
+            users.remove(user);
+            return users.isEmpty() ? null : users;
+        });
+    }
+}
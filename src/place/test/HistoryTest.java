@@ -0,0 +1,217 @@
+package place.test;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.TileHistory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the queries of a tile history against a board replayed from the same changes: the board at several times,
+ * the changes to single tiles, and the changes to regions during spans of time, first with every change kept and
+ * then with the oldest dropped. Prints each failure and exits with 1 if there is any.
+ */
+public class HistoryTest {
+    private final static int DIM = 100;
+    private final static int CHANGES = 3 * TileHistory.KEYFRAME_INTERVAL + 1234;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(2);
+
+        //every change kept
+        PlaceBoard board = new PlaceBoard(DIM);
+        TileHistory history = new TileHistory(board);
+        List<PlaceTile> changes = makeChanges(random, board, history);
+        checkQueries("full", random, history, changes, 0);
+        history.close();
+
+        //only the newest kept, once the keyframes that drop the rest are built
+        board = new PlaceBoard(DIM);
+        history = new TileHistory(board, 1);
+        changes = makeChanges(random, board, history);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (history.getStart() < changes.get(CHANGES - 2 * TileHistory.KEYFRAME_INTERVAL).getTime()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        int first = 0;
+        while (changes.get(first).getTime() < history.getStart()) {
+            ++first;
+        }
+        check("trimmed keeps at least the limit", first > 0 && first <= CHANGES - TileHistory.KEYFRAME_INTERVAL);
+        check("trimmed still counts every change", history.size() == CHANGES);
+        checkQueries("trimmed", random, history, changes, first);
+        check("trimmed board before the start", sameColors(replay(changes, first),
+                history.boardAt(changes.get(0).getTime())));
+        history.close();
+
+        //queries while enough changes are recorded that the records are regrown
+        checkConcurrent(random);
+
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+        System.out.println("All history queries passed.");
+    }
+
+    private static List<PlaceTile> makeChanges(Random random, PlaceBoard board, TileHistory history) {
+        List<PlaceTile> changes = new ArrayList<>();
+        long time = System.currentTimeMillis() + 1000;
+        for (int i = 0; i < CHANGES; ++i) {
+            time += 1 + random.nextInt(3);
+            //most changes fall in one corner, so some chunks have long chains
+            int row = random.nextBoolean() ? random.nextInt(20) : random.nextInt(DIM);
+            int col = random.nextBoolean() ? random.nextInt(20) : random.nextInt(DIM);
+            PlaceTile tile = new PlaceTile(row, col, "user" + random.nextInt(300),
+                    PlaceColor.values()[random.nextInt(PlaceColor.values().length)], time);
+            history.preserve(tile);
+            board.setTile(tile);
+            history.record(tile);
+            changes.add(tile);
+        }
+        return changes;
+    }
+
+    private static void checkConcurrent(Random random) throws InterruptedException {
+        PlaceBoard board = new PlaceBoard(DIM);
+        TileHistory history = new TileHistory(board, 20 * TileHistory.KEYFRAME_INTERVAL);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<RuntimeException> thrown = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                try {
+                    history.changesIn(0, 0, DIM - 1, DIM - 1, System.currentTimeMillis() - 10, Long.MAX_VALUE);
+                    history.historyOf(5, 5);
+                } catch (RuntimeException e) {
+                    thrown.set(e);
+                    return;
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 17 * TileHistory.KEYFRAME_INTERVAL; ++i) {
+            PlaceTile tile = new PlaceTile(random.nextInt(DIM), random.nextInt(DIM), "user" + random.nextInt(300),
+                    PlaceColor.values()[random.nextInt(PlaceColor.values().length)], System.currentTimeMillis());
+            history.preserve(tile);
+            board.setTile(tile);
+            history.record(tile);
+        }
+        done.set(true);
+        reader.join();
+        if (thrown.get() != null) {
+            thrown.get().printStackTrace();
+        }
+        check("queries while recording", thrown.get() == null);
+        history.close();
+    }
+
+    private static void checkQueries(String name, Random random, TileHistory history, List<PlaceTile> changes,
+                                     int first) {
+        //the board at the end, at the edges of keyframes, and at random times
+        List<Integer> ends = new ArrayList<>();
+        ends.add(CHANGES);
+        for (int end = TileHistory.KEYFRAME_INTERVAL; end < CHANGES; end += TileHistory.KEYFRAME_INTERVAL) {
+            ends.add(end - 1);
+            ends.add(end);
+            ends.add(end + 1);
+        }
+        for (int i = 0; i < 5; ++i) {
+            ends.add(1 + random.nextInt(CHANGES));
+        }
+        for (int end : ends) {
+            if (end > first) {
+                check(name + " board after " + end + " changes", sameColors(replay(changes, end),
+                        history.boardAt(changes.get(end - 1).getTime())));
+            }
+        }
+
+        //single tiles, including one never changed
+        for (int i = 0; i < 20; ++i) {
+            int row = i == 0 ? DIM - 1 : random.nextInt(20);
+            int col = i == 0 ? DIM - 1 : random.nextInt(20);
+            List<String> expected = new ArrayList<>();
+            for (int change = first; change < CHANGES; ++change) {
+                PlaceTile tile = changes.get(change);
+                if (tile.getRow() == row && tile.getCol() == col) {
+                    expected.add(describe(tile));
+                }
+            }
+            Collections.reverse(expected);
+            check(name + " history of (" + row + "," + col + ")",
+                    expected.equals(describe(history.historyOf(row, col))));
+        }
+
+        //regions during spans of time
+        for (int i = 0; i < 20; ++i) {
+            int top = random.nextInt(DIM);
+            int left = random.nextInt(DIM);
+            int bottom = top + random.nextInt(DIM - top);
+            int right = left + random.nextInt(DIM - left);
+            long from = changes.get(random.nextInt(CHANGES)).getTime();
+            long to = from + random.nextInt(100000);
+            List<String> expected = new ArrayList<>();
+            for (int change = first; change < CHANGES; ++change) {
+                PlaceTile tile = changes.get(change);
+                if (tile.getRow() >= top && tile.getRow() <= bottom && tile.getCol() >= left
+                        && tile.getCol() <= right && tile.getTime() >= from && tile.getTime() <= to) {
+                    expected.add(describe(tile));
+                }
+            }
+            List<String> actual = describe(history.changesIn(top, left, bottom, right, from, to));
+            Collections.sort(expected);
+            Collections.sort(actual);
+            check(name + " changes in (" + top + "," + left + ")-(" + bottom + "," + right + ")",
+                    expected.equals(actual));
+        }
+    }
+
+    private static PlaceBoard replay(List<PlaceTile> changes, int end) {
+        PlaceBoard board = new PlaceBoard(DIM);
+        for (PlaceTile tile : changes.subList(0, end)) {
+            board.setTile(tile);
+        }
+        return board;
+    }
+
+    private static boolean sameColors(PlaceBoard expected, PlaceBoard actual) {
+        for (int row = 0; row < DIM; ++row) {
+            for (int col = 0; col < DIM; ++col) {
+                PlaceTile want = expected.getTile(row, col);
+                PlaceTile got = actual.getTile(row, col);
+                if (want.getColor() != got.getColor() || !want.getOwner().equals(got.getOwner())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String describe(PlaceTile tile) {
+        return tile.getRow() + "," + tile.getCol() + " " + tile.getColor() + " " + tile.getOwner() + " "
+                + tile.getTime();
+    }
+
+    private static List<String> describe(List<PlaceTile> tiles) {
+        List<String> described = new ArrayList<>();
+        for (PlaceTile tile : tiles) {
+            described.add(describe(tile));
+        }
+        return described;
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            System.out.println("FAILED: " + name);
+            ++failures;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package place.test;
+
+import place.ChunkTransfer;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Checks that boards and chunks come out of their encodings the same as they went in: a board written with and
+ * without the owners and times of its tiles, a board sent with Java serialization, and every chunk of a board. Prints
+ * each failure and exits with 1 if there is any.
+ */
+public class RoundTripTest {
+    private final static int DIM = 150;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        PlaceBoard board = randomBoard(new Random(1));
+
+        //a board with the owners and times of its tiles, and one with just its colors
+        PlaceBoard copy = rewrite(board);
+        check("board image", sameTiles(board, copy, true));
+        PlaceBoard colors = rewrite(board.snapshot(false));
+        check("colors-only board image", sameTiles(board, colors, false));
+        check("colors-only board has no owners", colors.getTile(7, 7).getOwner().isEmpty());
+
+        //a board sent with Java serialization
+        check("serialized board", sameTiles(board, serialize(board), true));
+
+        //every chunk, with and without metadata, put onto a blank board
+        for (boolean metadata : new boolean[] {true, false}) {
+            PlaceBoard chunked = new PlaceBoard(DIM);
+            int chunks = board.getChunksPerSide() * board.getChunksPerSide();
+            for (int index = 0; index < chunks; ++index) {
+                ChunkTransfer transfer = rewrite(board.exportChunk(index, metadata));
+                check("chunk " + index + " index", transfer.getIndex() == index);
+                chunked.importChunk(transfer);
+            }
+            check("chunks with metadata " + metadata, sameTiles(board, chunked, metadata));
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+        System.out.println("All round trips passed.");
+    }
+
+    private static PlaceBoard randomBoard(Random random) {
+        PlaceBoard board = new PlaceBoard(DIM);
+        for (int i = 0; i < 5000; ++i) {
+            board.setTile(new PlaceTile(random.nextInt(DIM), random.nextInt(DIM), "user" + random.nextInt(40),
+                    PlaceColor.values()[random.nextInt(PlaceColor.values().length)], 1000L * random.nextInt(1 << 20)));
+        }
+        return board;
+    }
+
+    private static PlaceBoard serialize(PlaceBoard board) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(board);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (PlaceBoard) in.readObject();
+        }
+    }
+
+    private static PlaceBoard rewrite(PlaceBoard board) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        board.write(new DataOutputStream(bytes));
+        return PlaceBoard.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static ChunkTransfer rewrite(ChunkTransfer transfer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        transfer.write(new DataOutputStream(bytes));
+        return ChunkTransfer.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static boolean sameTiles(PlaceBoard expected, PlaceBoard actual, boolean metadata) {
+        if (expected.DIM != actual.DIM) {
+            return false;
+        }
+        for (int row = 0; row < expected.DIM; ++row) {
+            for (int col = 0; col < expected.DIM; ++col) {
+                PlaceTile want = expected.getTile(row, col);
+                PlaceTile got = actual.getTile(row, col);
+                if (metadata ? !want.toString().equals(got.toString()) : want.getColor() != got.getColor()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            System.out.println("FAILED: " + name);
+            ++failures;
+        }
+    }
+}